@@ -1,25 +1,44 @@
 package gate.alignment;
 
 import gate.Annotation;
+import gate.AnnotationSet;
 import gate.Document;
+import gate.FeatureMap;
+import gate.alignment.gui.AlignmentEditor;
 import gate.compound.CompoundDocument;
+import gate.event.AnnotationSetEvent;
+import gate.event.AnnotationSetListener;
+import gate.event.DocumentEvent;
+import gate.event.DocumentListener;
+import gate.util.OffsetComparator;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * This class stores all the alignment information about a document. It
  * provides various methods to know which annotation is aligned with
  * which annotations and what is the source document of each annotation.
  * 
+ * The alignment listens to the annotation sets it refers to and removes
+ * the links of annotations that are deleted from them.
+ * 
  * @author niraj
  */
-public class Alignment implements Serializable {
+public class Alignment implements Serializable, AnnotationSetListener,
+                      DocumentListener {
 
   private static final long serialVersionUID = 3977299936398488370L;
 
@@ -42,6 +61,13 @@ public class Alignment implements Serializable {
    */
   protected Map<Annotation, String> annotation2AS;
 
+  /**
+   * weights of the links that have one other than the default weight,
+   * stored for both annotations of a link. This is null until a weight
+   * is set.
+   */
+  protected Map<Annotation, Map<Annotation, Float>> linkWeights;
+
   /**
    * all the alignment listeners that wish to listen to vairous
    * alignment events
@@ -53,12 +79,49 @@ public class Alignment implements Serializable {
    */
   protected transient CompoundDocument compoundDocument;
 
+  /**
+   * annotation sets this alignment listens to
+   */
+  protected transient Set<AnnotationSet> listenedSets;
+
+  /**
+   * member documents this alignment listens to, in order to know when
+   * their annotation sets are removed
+   */
+  protected transient Set<Document> listenedDocuments;
+
+  /**
+   * journal the changes are recorded in, if any
+   */
+  protected transient volatile AlignmentJournal journal;
+
+  /**
+   * dispatcher that delivers the events to the listeners, null if they
+   * are notified by the thread changing the alignment
+   */
+  protected transient volatile AlignmentEventDispatcher eventDispatcher;
+
+  /**
+   * index of the features of the aligned annotations, if any
+   */
+  protected transient volatile AlignmentFeatureIndex featureIndex;
+
+  /**
+   * the last snapshot as long as nothing has changed since it was taken
+   */
+  protected transient AlignmentSnapshot lastSnapshot;
+
   /**
    * A feature that PRs can use to specify which method was used to
    * align that particular annotation.
    */
   public static final String ALIGNMENT_METHOD_FEATURE_NAME = "align-method";
 
+  /**
+   * weight of the links aligned without a weight
+   */
+  public static final float DEFAULT_WEIGHT = 1.0f;
+
   /**
    * Constructor
    */
@@ -69,6 +132,34 @@ public class Alignment implements Serializable {
     annotation2AS = new HashMap<Annotation, String>();
   }
 
+  /**
+   * null, empty string and the name used by the alignment editor all
+   * refer to the default annotation set.
+   */
+  protected static boolean isDefaultAS(String asName) {
+    return asName == null || asName.length() == 0
+            || asName.equals(AlignmentEditor.DEFAULT_AS_NAME);
+  }
+
+  /**
+   * Returns the annotation with the given id from the given annotation
+   * set of the given document or null if it cannot be found. Annotation
+   * sets that do not exist are not created.
+   */
+  protected static Annotation findAnnotation(Document document,
+          String asName, int id) {
+    if(document == null) return null;
+    AnnotationSet set;
+    if(isDefaultAS(asName)) {
+      set = document.getAnnotations();
+    }
+    else {
+      Map<String, AnnotationSet> namedSets = document.getNamedAnnotationSets();
+      set = namedSets == null ? null : namedSets.get(asName);
+    }
+    return set == null ? null : set.get(id);
+  }
+
   /**
    * Sets the source document, this alignment object belongs to.
    * 
@@ -76,6 +167,41 @@ public class Alignment implements Serializable {
    */
   public void setSourceDocument(CompoundDocument cd) {
     this.compoundDocument = cd;
+    if(cd != null) listenToAnnotationSets();
+  }
+
+  /**
+   * Starts listening to all annotation sets that have aligned
+   * annotations.
+   */
+  protected void listenToAnnotationSets() {
+    for(Annotation annot : alignmentMatrix.keySet()) {
+      listenTo(compoundDocument.getDocument(annotation2Document.get(annot)),
+              annotation2AS.get(annot));
+    }
+  }
+
+  /**
+   * Starts listening to the given annotation set of the given document,
+   * unless this has been done already.
+   */
+  protected synchronized void listenTo(Document document, String asName) {
+    if(document == null) return;
+    if(listenedSets == null) {
+      // annotation sets and documents compare by their contents
+      listenedSets = Collections
+              .newSetFromMap(new IdentityHashMap<AnnotationSet, Boolean>());
+      listenedDocuments = Collections
+              .newSetFromMap(new IdentityHashMap<Document, Boolean>());
+    }
+    if(listenedDocuments.add(document)) {
+      document.addDocumentListener(this);
+    }
+    AnnotationSet set = isDefaultAS(asName) ? document.getAnnotations()
+            : document.getAnnotations(asName);
+    if(listenedSets.add(set)) {
+      set.addAnnotationSetListener(this);
+    }
   }
 
   /**
@@ -96,9 +222,151 @@ public class Alignment implements Serializable {
   public void align(Annotation srcAnnotation, String srcAS,
           Document srcDocument, Annotation targetAnnotation, String tgtAS,
           Document targetDocument) {
+    boolean aligned;
+    beginChange();
+    try {
+      aligned = doAlign(srcAnnotation, srcAS, srcDocument, targetAnnotation,
+              tgtAS, targetDocument);
+      if(aligned) {
+        journal(AlignmentJournal.ALIGN, srcAnnotation, srcAS, srcDocument,
+                targetAnnotation, tgtAS, targetDocument, DEFAULT_WEIGHT);
+      }
+    }
+    finally {
+      endChange();
+    }
+    if(aligned) {
+      indexFeatures(srcAnnotation, targetAnnotation);
+      fireAnnotationsAligned(srcAnnotation, srcAS, srcDocument,
+              targetAnnotation, tgtAS, targetDocument);
+    }
+  }
+
+  /**
+   * Aligns the given source annotation with the given target annotation
+   * and gives the link the given weight. If the annotations are aligned
+   * already, only the weight is changed and listeners are not notified.
+   */
+  public void align(Annotation srcAnnotation, String srcAS,
+          Document srcDocument, Annotation targetAnnotation, String tgtAS,
+          Document targetDocument, float weight) {
+    boolean aligned;
+    beginChange();
+    try {
+      aligned = doAlign(srcAnnotation, srcAS, srcDocument, targetAnnotation,
+              tgtAS, targetDocument, weight);
+      if(aligned) {
+        journal(AlignmentJournal.ALIGN, srcAnnotation, srcAS, srcDocument,
+                targetAnnotation, tgtAS, targetDocument, weight);
+      }
+      else if(journal != null
+              && areTheyAligned(srcAnnotation, targetAnnotation)) {
+        journal(AlignmentJournal.WEIGHT, srcAnnotation, srcAS, srcDocument,
+                targetAnnotation, tgtAS, targetDocument, weight);
+      }
+    }
+    finally {
+      endChange();
+    }
+    if(aligned) {
+      indexFeatures(srcAnnotation, targetAnnotation);
+      fireAnnotationsAligned(srcAnnotation, srcAS, srcDocument,
+              targetAnnotation, tgtAS, targetDocument);
+    }
+  }
+
+  /**
+   * Aligns all the given links and notifies the listeners with a single
+   * event. Links that are already aligned are ignored, except that their
+   * weights are set if the links have any.
+   */
+  public void alignAll(Collection<Link> links) {
+    List<Link> aligned = new ArrayList<Link>();
+    beginChange();
+    try {
+      for(Link link : links) {
+        boolean changed = link.isWeighted() ? doAlign(
+                link.getSrcAnnotation(), link.getSrcAS(), link
+                        .getSrcDocument(), link.getTgtAnnotation(), link
+                        .getTgtAS(), link.getTgtDocument(), link.getWeight())
+                : doAlign(link.getSrcAnnotation(), link.getSrcAS(), link
+                        .getSrcDocument(), link.getTgtAnnotation(), link
+                        .getTgtAS(), link.getTgtDocument());
+        if(changed) {
+          aligned.add(link);
+          journal(AlignmentJournal.ALIGN, link);
+        }
+        else if(link.isWeighted()
+                && journal != null
+                && areTheyAligned(link.getSrcAnnotation(), link
+                        .getTgtAnnotation())) {
+          journal(AlignmentJournal.WEIGHT, link);
+        }
+      }
+    }
+    finally {
+      endChange();
+    }
+    if(!aligned.isEmpty()) {
+      indexFeatures(aligned);
+      fireAnnotationsAligned(aligned);
+    }
+  }
+
+  /**
+   * Stores the link between the two annotations with the given weight
+   * without notifying the listeners.
+   * 
+   * @return true if the annotations were not aligned before
+   */
+  protected boolean doAlign(Annotation srcAnnotation, String srcAS,
+          Document srcDocument, Annotation targetAnnotation, String tgtAS,
+          Document targetDocument, float weight) {
+    boolean aligned = doAlign(srcAnnotation, srcAS, srcDocument,
+            targetAnnotation, tgtAS, targetDocument);
+    doSetWeight(srcAnnotation, targetAnnotation, weight);
+    return aligned;
+  }
+
+  /**
+   * Unaligns all the given links and notifies the listeners with a
+   * single event. Links that are not aligned are ignored.
+   */
+  public void unalignAll(Collection<Link> links) {
+    List<Link> unaligned = new ArrayList<Link>();
+    beginChange();
+    try {
+      for(Link link : links) {
+        if(doUnalign(link.getSrcAnnotation(), link.getSrcAS(), link
+                .getSrcDocument(), link.getTgtAnnotation(), link.getTgtAS(),
+                link.getTgtDocument())) {
+          unaligned.add(link);
+          journal(AlignmentJournal.UNALIGN, link);
+        }
+      }
+    }
+    finally {
+      endChange();
+    }
+    if(!unaligned.isEmpty()) {
+      indexFeatures(unaligned);
+      fireAnnotationsUnAligned(unaligned);
+    }
+  }
+
+  /**
+   * Stores the link between the two annotations without notifying the
+   * listeners.
+   * 
+   * @return true if the annotations were not aligned before
+   */
+  protected boolean doAlign(Annotation srcAnnotation, String srcAS,
+          Document srcDocument, Annotation targetAnnotation, String tgtAS,
+          Document targetDocument) {
 
-    if(srcAnnotation == null || targetAnnotation == null) return;
-    if(areTheyAligned(srcAnnotation, targetAnnotation)) return;
+    if(srcAnnotation == null || targetAnnotation == null) return false;
+    if(areTheyAligned(srcAnnotation, targetAnnotation)) return false;
+    lastSnapshot = null;
 
     Set<Annotation> alignedToT = alignmentMatrix.get(srcAnnotation);
     if(alignedToT == null) {
@@ -119,12 +387,13 @@ public class Alignment implements Serializable {
     annotation2Document.put(targetAnnotation, targetDocument.getName());
     annotation2AS.put(targetAnnotation, tgtAS);
 
-    fireAnnotationsAligned(srcAnnotation, srcAS, srcDocument, targetAnnotation,
-            tgtAS, targetDocument);
+    listenTo(srcDocument, srcAS);
+    listenTo(targetDocument, tgtAS);
+    return true;
   }
 
   /**
-   * Aligns the given source annotation with the given target
+   * Unaligns the given source annotation from the given target
    * annotation.
    * 
    * @param srcAnnotation
@@ -135,12 +404,44 @@ public class Alignment implements Serializable {
   public void unalign(Annotation srcAnnotation, String srcAS,
           Document srcDocument, Annotation targetAnnotation, String tgtAS,
           Document targetDocument) {
+    boolean unaligned;
+    beginChange();
+    try {
+      unaligned = doUnalign(srcAnnotation, srcAS, srcDocument,
+              targetAnnotation, tgtAS, targetDocument);
+      if(unaligned) {
+        journal(AlignmentJournal.UNALIGN, srcAnnotation, srcAS, srcDocument,
+                targetAnnotation, tgtAS, targetDocument, DEFAULT_WEIGHT);
+      }
+    }
+    finally {
+      endChange();
+    }
+    if(unaligned) {
+      indexFeatures(srcAnnotation, targetAnnotation);
+      fireAnnotationsUnAligned(srcAnnotation, srcAS, srcDocument,
+              targetAnnotation, tgtAS, targetDocument);
+    }
+  }
 
-    if(srcAnnotation == null || targetAnnotation == null) return;
-    if(!areTheyAligned(srcAnnotation, targetAnnotation)) return;
+  /**
+   * Removes the link between the two annotations without notifying the
+   * listeners.
+   * 
+   * @return true if the annotations were aligned before
+   */
+  protected boolean doUnalign(Annotation srcAnnotation, String srcAS,
+          Document srcDocument, Annotation targetAnnotation, String tgtAS,
+          Document targetDocument) {
+
+    if(srcAnnotation == null || targetAnnotation == null) return false;
+    if(!areTheyAligned(srcAnnotation, targetAnnotation)) return false;
+    lastSnapshot = null;
 
     Set<Annotation> alignedToT = alignmentMatrix.get(srcAnnotation);
     Set<Annotation> alignedToS = alignmentMatrix.get(targetAnnotation);
+    removeWeight(srcAnnotation, targetAnnotation);
+    removeWeight(targetAnnotation, srcAnnotation);
 
     if(alignedToT != null) {
       alignedToT.remove(targetAnnotation);
@@ -165,8 +466,154 @@ public class Alignment implements Serializable {
         alignmentMatrix.put(targetAnnotation, alignedToS);
       }
     }
-    fireAnnotationsUnAligned(srcAnnotation, srcAS, srcDocument,
-            targetAnnotation, tgtAS, targetDocument);
+    return true;
+  }
+
+  /**
+   * Returns the weight of the link between the two annotations or 0 if
+   * they are not aligned.
+   */
+  public float getWeight(Annotation srcAnnotation, Annotation targetAnnotation) {
+    if(!areTheyAligned(srcAnnotation, targetAnnotation)) return 0f;
+    if(linkWeights == null) return DEFAULT_WEIGHT;
+    Map<Annotation, Float> weights = linkWeights.get(srcAnnotation);
+    Float weight = weights == null ? null : weights.get(targetAnnotation);
+    return weight == null ? DEFAULT_WEIGHT : weight.floatValue();
+  }
+
+  /**
+   * Sets the weight of the link between the two annotations. Listeners
+   * are not notified.
+   * 
+   * @return false if the annotations are not aligned
+   */
+  public boolean setWeight(Annotation srcAnnotation,
+          Annotation targetAnnotation, float weight) {
+    beginChange();
+    try {
+      if(!doSetWeight(srcAnnotation, targetAnnotation, weight)) return false;
+      if(journal != null) {
+        journal(AlignmentJournal.WEIGHT, srcAnnotation,
+                getAnnotationSetName(srcAnnotation),
+                getDocument(srcAnnotation), targetAnnotation,
+                getAnnotationSetName(targetAnnotation),
+                getDocument(targetAnnotation), weight);
+      }
+      return true;
+    }
+    finally {
+      endChange();
+    }
+  }
+
+  /**
+   * Sets the weight of the link between the two annotations without
+   * recording it in the journal.
+   * 
+   * @return false if the annotations are not aligned
+   */
+  protected boolean doSetWeight(Annotation srcAnnotation,
+          Annotation targetAnnotation, float weight) {
+    if(!areTheyAligned(srcAnnotation, targetAnnotation)) return false;
+    if(linkWeights == null) {
+      if(weight == DEFAULT_WEIGHT) return true;
+      linkWeights = new HashMap<Annotation, Map<Annotation, Float>>();
+    }
+    lastSnapshot = null;
+    putWeight(srcAnnotation, targetAnnotation, weight);
+    putWeight(targetAnnotation, srcAnnotation, weight);
+    return true;
+  }
+
+  private void putWeight(Annotation srcAnnotation,
+          Annotation targetAnnotation, float weight) {
+    Map<Annotation, Float> weights = linkWeights.get(srcAnnotation);
+    if(weights == null) {
+      weights = new HashMap<Annotation, Float>();
+      linkWeights.put(srcAnnotation, weights);
+    }
+    weights.put(targetAnnotation, weight);
+  }
+
+  private void removeWeight(Annotation srcAnnotation,
+          Annotation targetAnnotation) {
+    if(linkWeights == null) return;
+    Map<Annotation, Float> weights = linkWeights.get(srcAnnotation);
+    if(weights == null) return;
+    weights.remove(targetAnnotation);
+    if(weights.isEmpty()) linkWeights.remove(srcAnnotation);
+  }
+
+  /**
+   * Returns at most k annotations aligned with the given annotation, the
+   * one with the highest link weight first.
+   */
+  public List<Annotation> topK(final Annotation annotation, int k) {
+    List<Annotation> toReturn = new ArrayList<Annotation>(
+            getAlignedAnnotations(annotation));
+    Collections.sort(toReturn, new Comparator<Annotation>() {
+      public int compare(Annotation a1, Annotation a2) {
+        return Float.compare(getWeight(annotation, a2), getWeight(annotation,
+                a1));
+      }
+    });
+    return k < toReturn.size() ? toReturn.subList(0, Math.max(k, 0))
+            : toReturn;
+  }
+
+  /**
+   * Removes all links with a weight below the given threshold and
+   * notifies the listeners with a single event.
+   * 
+   * @return the number of removed links
+   */
+  public int pruneBelow(float threshold) {
+    List<Link> links;
+    beginChange();
+    try {
+      links = doPruneBelow(threshold);
+      journal(AlignmentJournal.UNALIGN, links);
+    }
+    finally {
+      endChange();
+    }
+    if(!links.isEmpty()) {
+      indexFeatures(links);
+      fireAnnotationsUnAligned(links);
+    }
+    return links.size();
+  }
+
+  /**
+   * Removes all links with a weight below the given threshold without
+   * notifying the listeners.
+   * 
+   * @return the removed links
+   */
+  protected List<Link> doPruneBelow(float threshold) {
+    List<Link> candidates = new ArrayList<Link>();
+    for(Map.Entry<Annotation, Set<Annotation>> entry : alignmentMatrix
+            .entrySet()) {
+      Annotation srcAnnot = entry.getKey();
+      for(Annotation tgtAnnot : entry.getValue()) {
+        float weight = getWeight(srcAnnot, tgtAnnot);
+        if(weight >= threshold) continue;
+        candidates.add(new Link(srcAnnot, annotation2AS.get(srcAnnot),
+                getDocument(srcAnnot), tgtAnnot, annotation2AS.get(tgtAnnot),
+                getDocument(tgtAnnot), weight));
+      }
+    }
+
+    // every link has been seen from both of its annotations
+    List<Link> links = new ArrayList<Link>();
+    for(Link link : candidates) {
+      if(doUnalign(link.getSrcAnnotation(), link.getSrcAS(), link
+              .getSrcDocument(), link.getTgtAnnotation(), link.getTgtAS(), link
+              .getTgtDocument())) {
+        links.add(link);
+      }
+    }
+    return links;
   }
 
   /**
@@ -203,6 +650,176 @@ public class Alignment implements Serializable {
     else return new HashSet<Annotation>();
   }
 
+  /**
+   * Returns an unmodifiable view of the aligned annotations. Unlike
+   * getAlignedAnnotations() nothing is copied, and the view reflects
+   * later changes to the alignment. It must not be iterated while the
+   * alignment is being changed.
+   */
+  public Set<Annotation> getAlignedAnnotationsView() {
+    return Collections.unmodifiableSet(alignmentMatrix.keySet());
+  }
+
+  /**
+   * Returns an unmodifiable view of the annotations aligned with the
+   * given annotation. Unlike getAlignedAnnotations(Annotation) nothing
+   * is copied. The view must not be iterated while the alignment is
+   * being changed.
+   */
+  public Set<Annotation> getAlignedAnnotationsView(Annotation srcAnnotation) {
+    Set<Annotation> annots = alignmentMatrix.get(srcAnnotation);
+    if(annots == null) return Collections.emptySet();
+    return Collections.unmodifiableSet(annots);
+  }
+
+  /**
+   * Calls the consumer for every annotation aligned with the given
+   * annotation. The alignment must not be changed from within the
+   * consumer.
+   */
+  public void forEachAligned(Annotation srcAnnotation,
+          Consumer<? super Annotation> consumer) {
+    Set<Annotation> annots = alignmentMatrix.get(srcAnnotation);
+    if(annots == null) return;
+    for(Annotation annot : annots) {
+      consumer.accept(annot);
+    }
+  }
+
+  /**
+   * Returns the number of annotations aligned with the given annotation.
+   */
+  public int alignedCount(Annotation srcAnnotation) {
+    Set<Annotation> annots = alignmentMatrix.get(srcAnnotation);
+    return annots == null ? 0 : annots.size();
+  }
+
+  /**
+   * Returns the alignment group of the given annotation, i.e. the
+   * annotation itself and all the annotations that can be reached from
+   * it by following links in either direction. An empty set is returned
+   * if the annotation is not aligned.
+   */
+  public Set<Annotation> getGroup(Annotation annotation) {
+    Set<Annotation> group = new HashSet<Annotation>();
+    if(!alignmentMatrix.containsKey(annotation)) return group;
+
+    List<Annotation> toVisit = new ArrayList<Annotation>();
+    group.add(annotation);
+    toVisit.add(annotation);
+    while(!toVisit.isEmpty()) {
+      Annotation annot = toVisit.remove(toVisit.size() - 1);
+      for(Annotation alignedAnnot : alignmentMatrix.get(annot)) {
+        if(group.add(alignedAnnot)) toVisit.add(alignedAnnot);
+      }
+    }
+    return group;
+  }
+
+  /**
+   * Returns all the alignment groups. Every aligned annotation belongs
+   * to exactly one of them.
+   */
+  public List<Set<Annotation>> groups() {
+    List<Set<Annotation>> groups = new ArrayList<Set<Annotation>>();
+    Set<Annotation> visited = new HashSet<Annotation>();
+    for(Annotation annot : alignmentMatrix.keySet()) {
+      if(visited.contains(annot)) continue;
+      Set<Annotation> group = getGroup(annot);
+      visited.addAll(group);
+      groups.add(group);
+    }
+    return groups;
+  }
+
+  /**
+   * Returns the aligned annotations from the given annotation set of the
+   * given member document that lie within the given offsets, sorted by
+   * their offsets. This implementation looks at every aligned
+   * annotation.
+   */
+  public List<Annotation> getAlignedIn(String documentID, String asName,
+          long start, long end) {
+    boolean defaultAS = isDefaultAS(asName);
+    List<Annotation> toReturn = new ArrayList<Annotation>();
+    for(Annotation annot : alignmentMatrix.keySet()) {
+      if(!documentID.equals(annotation2Document.get(annot))) continue;
+      String annotAS = annotation2AS.get(annot);
+      if(defaultAS ? !isDefaultAS(annotAS) : !asName.equals(annotAS))
+        continue;
+      if(annot.getStartNode().getOffset().longValue() >= start
+              && annot.getEndNode().getOffset().longValue() <= end) {
+        toReturn.add(annot);
+      }
+    }
+    Collections.sort(toReturn, new OffsetComparator());
+    return toReturn;
+  }
+
+  /**
+   * Calls the visitor for every link with the ids of its annotations.
+   * A link may be visited once from each of its annotations.
+   */
+  protected void visitLinkIds(LinkIdVisitor visitor) {
+    for(Map.Entry<Annotation, Set<Annotation>> entry : alignmentMatrix
+            .entrySet()) {
+      Annotation srcAnnot = entry.getKey();
+      for(Annotation tgtAnnot : entry.getValue()) {
+        visitor.link(annotation2Document.get(srcAnnot), annotation2AS
+                .get(srcAnnot), srcAnnot.getId().intValue(),
+                annotation2Document.get(tgtAnnot), annotation2AS.get(tgtAnnot),
+                tgtAnnot.getId().intValue(), getWeight(srcAnnot, tgtAnnot));
+      }
+    }
+  }
+
+  /**
+   * Measures the size and shape of this alignment. This walks all the
+   * links, so it takes time proportional to their number.
+   */
+  public AlignmentStatistics getStatistics() {
+    AlignmentStatistics statistics = new AlignmentStatistics();
+    long bytes = 0;
+    for(Map.Entry<Annotation, Set<Annotation>> entry : alignmentMatrix
+            .entrySet()) {
+      Annotation annot = entry.getKey();
+      Set<Annotation> alignedTo = entry.getValue();
+      statistics.addAnnotation(annotation2Document.get(annot), annotation2AS
+              .get(annot), alignedTo.size());
+      if(alignedTo.contains(annot)) statistics.addSelfLink();
+      // the entries of the three maps and the set of aligned annotations
+      bytes += 3 * AlignmentStatistics.MAP_ENTRY_BYTES
+              + AlignmentStatistics.SET_BYTES + alignedTo.size()
+              * AlignmentStatistics.MAP_ENTRY_BYTES;
+    }
+    if(linkWeights != null) {
+      for(Map<Annotation, Float> weights : linkWeights.values()) {
+        bytes += AlignmentStatistics.MAP_ENTRY_BYTES
+                + AlignmentStatistics.SET_BYTES + weights.size()
+                * (AlignmentStatistics.MAP_ENTRY_BYTES + AlignmentStatistics.FLOAT_BYTES);
+      }
+    }
+    statistics.setEstimatedBytes(bytes);
+    return statistics.finish();
+  }
+
+  /**
+   * Returns a read-only copy of this alignment that other threads can
+   * query while this alignment keeps changing. It must be taken on the
+   * thread that changes the alignment. The links of this map based
+   * alignment are all copied, which takes time proportional to the
+   * number of links; the copy is returned again until the alignment
+   * changes. Compact alignments, which compound documents use by
+   * default, only copy what changes between snapshots.
+   */
+  public AlignmentSnapshot snapshot() {
+    if(lastSnapshot == null) {
+      lastSnapshot = new AlignmentSnapshot(compoundDocument,
+              new CompactAlignment(null, this));
+    }
+    return lastSnapshot;
+  }
+
   /**
    * This method tells whether the given annotation is aligned or not.
    */
@@ -215,6 +832,337 @@ public class Alignment implements Serializable {
     }
   }
 
+  /**
+   * Tells whether any annotation of the member document with the given
+   * id is aligned.
+   */
+  public boolean isMemberAligned(String documentID) {
+    return annotation2Document.containsValue(documentID);
+  }
+
+  /**
+   * Removes the links of an annotation deleted from one of the
+   * annotation sets this alignment refers to.
+   */
+  public void annotationRemoved(AnnotationSetEvent ase) {
+    AnnotationSet set = (AnnotationSet)ase.getSource();
+    List<Link> links;
+    beginChange();
+    try {
+      links = pruneAnnotations(set, Collections.singleton(ase.getAnnotation()));
+      journal(AlignmentJournal.UNALIGN, links);
+    }
+    finally {
+      endChange();
+    }
+    if(!links.isEmpty()) {
+      indexFeatures(links);
+      fireAnnotationsUnAligned(links);
+    }
+  }
+
+  public void annotationAdded(AnnotationSetEvent ase) {
+    // do nothing
+  }
+
+  /**
+   * Removes the links of all annotations of a removed annotation set in
+   * one go.
+   */
+  public void annotationSetRemoved(DocumentEvent de) {
+    for(AnnotationSet set : stopListeningTo((Document)de.getSource(), de
+            .getAnnotationSetName())) {
+      List<Link> links;
+      beginChange();
+      try {
+        links = pruneAnnotations(set, set);
+        journal(AlignmentJournal.UNALIGN, links);
+      }
+      finally {
+        endChange();
+      }
+      if(!links.isEmpty()) {
+        indexFeatures(links);
+        fireAnnotationsUnAligned(links);
+      }
+    }
+  }
+
+  /**
+   * Stops listening to the given annotation set of the given document.
+   * 
+   * @return the annotation sets this alignment no longer listens to
+   */
+  protected synchronized List<AnnotationSet> stopListeningTo(
+          Document document, String asName) {
+    List<AnnotationSet> toReturn = new ArrayList<AnnotationSet>();
+    if(listenedSets == null) return toReturn;
+    for(AnnotationSet set : listenedSets) {
+      if(set.getDocument() != document) continue;
+      if(isDefaultAS(asName) ? !isDefaultAS(set.getName()) : !asName
+              .equals(set.getName())) continue;
+      toReturn.add(set);
+    }
+    for(AnnotationSet set : toReturn) {
+      listenedSets.remove(set);
+      set.removeAnnotationSetListener(this);
+    }
+    return toReturn;
+  }
+
+  /**
+   * Called by the compound document when it has unloaded one of its
+   * members to save memory, just before the member is deleted. The
+   * member is loaded again as a new document object when it is next
+   * asked for, so this alignment stops listening to the old one. Only
+   * alignments that refer to annotations by document id and annotation
+   * id, such as {@link CompactAlignment}, stay valid across this; the
+   * compound document does not unload members while it holds an
+   * alignment of this class.
+   */
+  public void memberUnloaded(Document document) {
+    synchronized(this) {
+      if(listenedSets == null) return;
+      for(Iterator<AnnotationSet> iter = listenedSets.iterator(); iter
+              .hasNext();) {
+        AnnotationSet set = iter.next();
+        if(set.getDocument() != document) continue;
+        set.removeAnnotationSetListener(this);
+        iter.remove();
+      }
+      if(listenedDocuments.remove(document)) {
+        document.removeDocumentListener(this);
+      }
+    }
+  }
+
+  public void annotationSetAdded(DocumentEvent de) {
+    // do nothing
+  }
+
+  public void contentEdited(DocumentEvent de) {
+    // do nothing
+  }
+
+  /**
+   * Removes all links of the given annotations, which belong or
+   * belonged to the given annotation set. Listeners are not notified.
+   * 
+   * @return the removed links
+   */
+  protected List<Link> pruneAnnotations(AnnotationSet set,
+          Collection<Annotation> annotations) {
+    List<Link> links = new ArrayList<Link>();
+    Document doc = set.getDocument();
+    String asName = set.getName();
+    for(Annotation annot : annotations) {
+      Set<Annotation> alignedTo = alignmentMatrix.get(annot);
+      if(alignedTo == null) continue;
+      if(!doc.getName().equals(annotation2Document.get(annot))) continue;
+      String annotAS = annotation2AS.get(annot);
+      if(isDefaultAS(asName) ? !isDefaultAS(annotAS) : !asName
+              .equals(annotAS)) continue;
+
+      for(Annotation alignedAnnot : new ArrayList<Annotation>(alignedTo)) {
+        Link link = new Link(annot, annotAS, doc, alignedAnnot, annotation2AS
+                .get(alignedAnnot), getDocument(alignedAnnot));
+        if(doUnalign(annot, link.getSrcAS(), doc, alignedAnnot, link
+                .getTgtAS(), link.getTgtDocument())) {
+          links.add(link);
+        }
+      }
+    }
+    return links;
+  }
+
+  /**
+   * Sets the journal changes are recorded in from now on, null to stop
+   * recording them.
+   */
+  public void setJournal(AlignmentJournal journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * Returns the journal changes are recorded in or null if there is
+   * none.
+   */
+  public AlignmentJournal getJournal() {
+    return journal;
+  }
+
+  /**
+   * Called before a change is made and recorded in the journal, with
+   * endChange() called after both. Alignments shared by several threads
+   * lock the links in between, so that the journal has the changes in
+   * the order they were made; listeners are notified after endChange().
+   */
+  protected void beginChange() {
+    // nothing to do, an Alignment is not shared
+  }
+
+  /**
+   * Called after a change begun with beginChange() has been made and
+   * recorded.
+   */
+  protected void endChange() {
+    // nothing to do
+  }
+
+  /**
+   * Records a change in the journal, if there is one.
+   */
+  protected void journal(byte op, Annotation srcAnnotation, String srcAS,
+          Document srcDocument, Annotation targetAnnotation, String tgtAS,
+          Document targetDocument, float weight) {
+    AlignmentJournal journal = this.journal;
+    if(journal != null) {
+      journal.record(op, srcAnnotation, srcAS, srcDocument, targetAnnotation,
+              tgtAS, targetDocument, weight);
+    }
+  }
+
+  /**
+   * Records a change of the link in the journal, if there is one.
+   */
+  protected void journal(byte op, Link link) {
+    journal(op, link.getSrcAnnotation(), link.getSrcAS(), link
+            .getSrcDocument(), link.getTgtAnnotation(), link.getTgtAS(), link
+            .getTgtDocument(), link.getWeight());
+  }
+
+  /**
+   * Records a change of each link in the journal, if there is one.
+   */
+  protected void journal(byte op, List<Link> links) {
+    if(journal == null) return;
+    for(Link link : links) {
+      journal(op, link);
+    }
+  }
+
+  /**
+   * Indexes the given features of the aligned annotations, replacing the
+   * index created before, if any. The index is kept up to date as long
+   * as the alignment lives and speeds up getAlignedAnnotations(String,
+   * String, Object) for the indexed features.
+   */
+  public AlignmentFeatureIndex createFeatureIndex(String... featureNames) {
+    dropFeatureIndex();
+    AlignmentFeatureIndex index = new AlignmentFeatureIndex(this, Arrays
+            .asList(featureNames));
+    featureIndex = index;
+    return index;
+  }
+
+  /**
+   * Returns the index of the features of the aligned annotations or null
+   * if there is none.
+   */
+  public AlignmentFeatureIndex getFeatureIndex() {
+    return featureIndex;
+  }
+
+  /**
+   * Drops the index of the features of the aligned annotations, if any.
+   */
+  public void dropFeatureIndex() {
+    AlignmentFeatureIndex index = featureIndex;
+    featureIndex = null;
+    if(index != null) index.close();
+  }
+
+  /**
+   * Returns the aligned annotations of the given type whose given
+   * feature has the given value. This is a lookup if the feature is
+   * indexed, see createFeatureIndex(String...), and looks at every
+   * aligned annotation otherwise. The set is based on identity, as
+   * distinct annotations may compare equal.
+   */
+  public Set<Annotation> getAlignedAnnotations(String type,
+          String featureName, Object value) {
+    AlignmentFeatureIndex index = featureIndex;
+    if(index != null && index.isIndexed(featureName)) {
+      return index.getAnnotations(type, featureName, value);
+    }
+    Set<Annotation> toReturn = AlignmentFeatureIndex.newIdentitySet();
+    for(Annotation annot : getAlignedAnnotations()) {
+      if(!annot.getType().equals(type)) continue;
+      FeatureMap features = annot.getFeatures();
+      if(features == null || !features.containsKey(featureName)) continue;
+      Object annotValue = features.get(featureName);
+      if(value == null ? annotValue == null : value.equals(annotValue)) {
+        toReturn.add(annot);
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Returns the annotations aligned with any aligned annotation of the
+   * given type whose given feature has the given value, e.g. the target
+   * tokens of source tokens with a given part of speech. The set is
+   * based on identity.
+   */
+  public Set<Annotation> getAlignedWith(String type, String featureName,
+          Object value) {
+    Set<Annotation> toReturn = AlignmentFeatureIndex.newIdentitySet();
+    for(Annotation annot : getAlignedAnnotations(type, featureName, value)) {
+      toReturn.addAll(getAlignedAnnotations(annot));
+    }
+    return toReturn;
+  }
+
+  /**
+   * Updates the feature index, if there is one, after the link between
+   * the two annotations has been aligned or unaligned.
+   */
+  protected void indexFeatures(Annotation srcAnnotation,
+          Annotation targetAnnotation) {
+    AlignmentFeatureIndex index = featureIndex;
+    if(index != null) {
+      index.update(srcAnnotation);
+      index.update(targetAnnotation);
+    }
+  }
+
+  /**
+   * Updates the feature index, if there is one, after the links have
+   * been aligned or unaligned.
+   */
+  protected void indexFeatures(List<Link> links) {
+    if(featureIndex == null) return;
+    for(Link link : links) {
+      indexFeatures(link.getSrcAnnotation(), link.getTgtAnnotation());
+    }
+  }
+
+  /**
+   * Sets the dispatcher that delivers events to the listeners from now
+   * on, null to notify them on the thread changing the alignment again.
+   * Listeners called by a dispatcher read the alignment while it is
+   * being changed, so only a {@link ConcurrentAlignment} accepts one.
+   *
+   * @throws UnsupportedOperationException if a dispatcher is given and
+   *           this alignment is not thread-safe
+   */
+  public void setEventDispatcher(AlignmentEventDispatcher eventDispatcher) {
+    if(eventDispatcher != null) {
+      throw new UnsupportedOperationException(getClass().getName()
+              + " is not thread-safe, use a ConcurrentAlignment with an "
+              + "event dispatcher");
+    }
+    this.eventDispatcher = null;
+  }
+
+  /**
+   * Returns the dispatcher that delivers events to the listeners or null
+   * if there is none.
+   */
+  public AlignmentEventDispatcher getEventDispatcher() {
+    return eventDispatcher;
+  }
+
   /**
    * adds a new member who wants to listens to alignment events
    */
@@ -244,6 +1192,13 @@ public class Alignment implements Serializable {
   protected void fireAnnotationsAligned(Annotation srcAnnotation, String srcAS,
           Document srcDocument, Annotation targetAnnotation, String tgtAS,
           Document targetDocument) {
+    AlignmentEventDispatcher dispatcher = eventDispatcher;
+    if(dispatcher != null) {
+      dispatcher.dispatch(this, true, Collections.singletonList(new Link(
+              srcAnnotation, srcAS, srcDocument, targetAnnotation, tgtAS,
+              targetDocument)));
+      return;
+    }
     if(listeners == null) {
       listeners = new ArrayList<AlignmentListener>();
     }
@@ -260,6 +1215,13 @@ public class Alignment implements Serializable {
   protected void fireAnnotationsUnAligned(Annotation srcAnnotation,
           String srcAS, Document srcDocument, Annotation targetAnnotation,
           String tgtAS, Document targetDocument) {
+    AlignmentEventDispatcher dispatcher = eventDispatcher;
+    if(dispatcher != null) {
+      dispatcher.dispatch(this, false, Collections.singletonList(new Link(
+              srcAnnotation, srcAS, srcDocument, targetAnnotation, tgtAS,
+              targetDocument)));
+      return;
+    }
     if(listeners == null) {
       listeners = new ArrayList<AlignmentListener>();
     }
@@ -269,6 +1231,44 @@ public class Alignment implements Serializable {
     }
   }
 
+  /**
+   * calls the annotationsAligned(List) method on each of the registered
+   * listeners
+   */
+  protected void fireAnnotationsAligned(List<Link> links) {
+    AlignmentEventDispatcher dispatcher = eventDispatcher;
+    if(dispatcher != null) {
+      dispatcher.dispatch(this, true, links);
+      return;
+    }
+    if(listeners == null) {
+      listeners = new ArrayList<AlignmentListener>();
+    }
+    List<Link> unmodifiableLinks = Collections.unmodifiableList(links);
+    for(AlignmentListener aListener : listeners) {
+      aListener.annotationsAligned(unmodifiableLinks);
+    }
+  }
+
+  /**
+   * calls the annotationsUnaligned(List) method on each of the registered
+   * listeners
+   */
+  protected void fireAnnotationsUnAligned(List<Link> links) {
+    AlignmentEventDispatcher dispatcher = eventDispatcher;
+    if(dispatcher != null) {
+      dispatcher.dispatch(this, false, links);
+      return;
+    }
+    if(listeners == null) {
+      listeners = new ArrayList<AlignmentListener>();
+    }
+    List<Link> unmodifiableLinks = Collections.unmodifiableList(links);
+    for(AlignmentListener aListener : listeners) {
+      aListener.annotationsUnaligned(unmodifiableLinks);
+    }
+  }
+
   /**
    * Returns a list of registered listeners
    */
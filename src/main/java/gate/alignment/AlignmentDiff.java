@@ -0,0 +1,366 @@
+package gate.alignment;
+
+import gate.alignment.utils.LongIntMap;
+import gate.compound.CompoundDocument;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Differences between two alignments, e.g. the same alignment feature of
+ * two copies of a compound document aligned by different annotators.
+ * Links are matched by the member document ids, annotation set names and
+ * annotation ids of their annotations, so the alignments may belong to
+ * different compound documents that have the same members, and no
+ * annotation is resolved.
+ *
+ * The links of each alignment are grouped by the annotation sets of
+ * their two ends and every group is kept as a sorted array of id pairs,
+ * packed into longs as in the binary format of the CompactAlignment.
+ * Comparing two alignments is then a single merge-like walk over the
+ * sorted arrays. merge(...) walks three arrays in the same way for a
+ * three-way merge.
+ */
+public class AlignmentDiff {
+
+  /**
+   * the annotation sets seen in the alignments being compared
+   */
+  private static class Slots {
+    List<String> documentIDs = new ArrayList<String>();
+
+    List<String> asNames = new ArrayList<String>();
+
+    Map<String, Integer> slots = new HashMap<String, Integer>();
+
+    int slotFor(String documentID, String asName) {
+      if(Alignment.isDefaultAS(asName)) asName = null;
+      String key = documentID + "\u0000" + (asName == null ? "" : asName);
+      Integer slot = slots.get(key);
+      if(slot == null) {
+        slot = documentIDs.size();
+        documentIDs.add(documentID);
+        asNames.add(asName);
+        slots.put(key, slot);
+      }
+      return slot;
+    }
+  }
+
+  /**
+   * The links of one alignment, grouped by the slots of their two ends.
+   * Within a group, a link is the id of the end with the smaller slot, or
+   * id if the slots are the same, in the upper and the other id in the
+   * lower 32 bits.
+   */
+  private static class LinkSet implements LinkIdVisitor {
+    Slots slots;
+
+    LongIntMap groupIndexes = new LongIntMap();
+
+    long[] groupSlots = new long[4];
+
+    long[][] groupLinks = new long[4][];
+
+    int[] groupSizes = new int[4];
+
+    /**
+     * weights other than the default one for every group, null if there
+     * are none
+     */
+    List<Map<Long, Float>> groupWeights = new ArrayList<Map<Long, Float>>();
+
+    int groupCount = 0;
+
+    LinkSet(Slots slots, Alignment alignment) {
+      this.slots = slots;
+      alignment.visitLinkIds(this);
+      for(int group = 0; group < groupCount; group++) {
+        long[] links = groupLinks[group];
+        Arrays.sort(links, 0, groupSizes[group]);
+        // links may have been visited from both ends
+        int size = 0;
+        for(int i = 0; i < groupSizes[group]; i++) {
+          if(size == 0 || links[size - 1] != links[i]) links[size++] = links[i];
+        }
+        groupLinks[group] = Arrays.copyOf(links, size);
+      }
+    }
+
+    public void link(String srcDocumentID, String srcAS, int srcId,
+            String tgtDocumentID, String tgtAS, int tgtId, float weight) {
+      int slot1 = slots.slotFor(srcDocumentID, srcAS);
+      int slot2 = slots.slotFor(tgtDocumentID, tgtAS);
+      int id1 = srcId;
+      int id2 = tgtId;
+      if(slot1 > slot2 || (slot1 == slot2 && id1 > id2)) {
+        slot1 = slot2;
+        slot2 = slots.slotFor(srcDocumentID, srcAS);
+        id1 = tgtId;
+        id2 = srcId;
+      }
+      long pair = ((long)slot1 << 32) | slot2;
+      int group = groupIndexes.get(pair);
+      if(group == LongIntMap.NO_VALUE) {
+        if(groupCount == groupSlots.length) {
+          groupSlots = Arrays.copyOf(groupSlots, groupCount << 1);
+          groupLinks = Arrays.copyOf(groupLinks, groupCount << 1);
+          groupSizes = Arrays.copyOf(groupSizes, groupCount << 1);
+        }
+        group = groupCount++;
+        groupIndexes.put(pair, group);
+        groupSlots[group] = pair;
+        groupLinks[group] = new long[16];
+        groupWeights.add(null);
+      }
+      long[] links = groupLinks[group];
+      if(groupSizes[group] == links.length) {
+        links = Arrays.copyOf(links, links.length << 1);
+        groupLinks[group] = links;
+      }
+      long link = ((long)id1 << 32) | (id2 & 0xFFFFFFFFL);
+      links[groupSizes[group]++] = link;
+      if(weight != Alignment.DEFAULT_WEIGHT) {
+        Map<Long, Float> weights = groupWeights.get(group);
+        if(weights == null) {
+          weights = new HashMap<Long, Float>();
+          groupWeights.set(group, weights);
+        }
+        weights.put(link, weight);
+      }
+    }
+
+    /**
+     * Sorted links of the given pair of slots, empty if there are none.
+     */
+    long[] links(long pair) {
+      int group = groupIndexes.get(pair);
+      return group == LongIntMap.NO_VALUE ? new long[0] : groupLinks[group];
+    }
+
+    float weight(long pair, long link) {
+      Map<Long, Float> weights = groupWeights.get(groupIndexes.get(pair));
+      Float weight = weights == null ? null : weights.get(link);
+      return weight == null ? Alignment.DEFAULT_WEIGHT : weight.floatValue();
+    }
+
+    /**
+     * Adds the slot pairs of this set to the given sorted array.
+     */
+    long[] addPairs(long[] pairs) {
+      long[] toReturn = Arrays.copyOf(pairs, pairs.length + groupCount);
+      System.arraycopy(groupSlots, 0, toReturn, pairs.length, groupCount);
+      Arrays.sort(toReturn);
+      int size = 0;
+      for(int i = 0; i < toReturn.length; i++) {
+        if(size == 0 || toReturn[size - 1] != toReturn[i])
+          toReturn[size++] = toReturn[i];
+      }
+      return Arrays.copyOf(toReturn, size);
+    }
+  }
+
+  private List<LinkId> added = new ArrayList<LinkId>();
+
+  private List<LinkId> removed = new ArrayList<LinkId>();
+
+  private List<LinkId> conflicting = new ArrayList<LinkId>();
+
+  private AlignmentDiff() {
+  }
+
+  /**
+   * Compares two alignments.
+   *
+   * @param older - the alignment the changes are relative to
+   * @param newer - the changed alignment
+   */
+  public static AlignmentDiff diff(Alignment older, Alignment newer) {
+    Slots slots = new Slots();
+    LinkSet olderLinks = new LinkSet(slots, older);
+    LinkSet newerLinks = new LinkSet(slots, newer);
+
+    AlignmentDiff diff = new AlignmentDiff();
+    for(long pair : newerLinks.addPairs(olderLinks.addPairs(new long[0]))) {
+      long[] a = olderLinks.links(pair);
+      long[] b = newerLinks.links(pair);
+      int i = 0;
+      int j = 0;
+      while(i < a.length || j < b.length) {
+        if(j == b.length || (i < a.length && a[i] < b[j])) {
+          diff.removed.add(linkId(slots, pair, a[i], olderLinks.weight(pair,
+                  a[i])));
+          i++;
+        }
+        else if(i == a.length || b[j] < a[i]) {
+          diff.added.add(linkId(slots, pair, b[j], newerLinks.weight(pair,
+                  b[j])));
+          j++;
+        }
+        else {
+          float weight = newerLinks.weight(pair, b[j]);
+          if(olderLinks.weight(pair, a[i]) != weight) {
+            diff.conflicting.add(linkId(slots, pair, b[j], weight));
+          }
+          i++;
+          j++;
+        }
+      }
+    }
+    return diff;
+  }
+
+  /**
+   * Compares the alignments stored under the given feature names of two
+   * compound documents with the same members.
+   */
+  public static AlignmentDiff diff(CompoundDocument older,
+          String olderFeatureName, CompoundDocument newer,
+          String newerFeatureName) {
+    return diff(older.getAlignmentInformation(olderFeatureName), newer
+            .getAlignmentInformation(newerFeatureName));
+  }
+
+  /**
+   * Merges the changes made to the base alignment in two edited
+   * versions of it and stores the result under the given feature name
+   * of the given compound document, replacing any alignment stored there
+   * before. A link is kept if both versions keep it or one of them adds
+   * it, and it is dropped if one of them removes it and the other one
+   * leaves it alone. A changed weight is taken from the version that
+   * changed it.
+   *
+   * Both versions may also change the same link differently: both give it
+   * different weights, or one removes it and the other changes its
+   * weight. Such conflicts are decided in favour of ours and returned,
+   * with the weights theirs has or, where theirs has removed the link,
+   * the weights ours has.
+   *
+   * @return the conflicting links
+   */
+  public static List<LinkId> merge(Alignment base, Alignment ours,
+          Alignment theirs, CompoundDocument target, String featureName) {
+    Slots slots = new Slots();
+    LinkSet baseLinks = new LinkSet(slots, base);
+    LinkSet ourLinks = new LinkSet(slots, ours);
+    LinkSet theirLinks = new LinkSet(slots, theirs);
+
+    List<LinkId> merged = new ArrayList<LinkId>();
+    List<LinkId> conflicts = new ArrayList<LinkId>();
+    long[] pairs = theirLinks.addPairs(ourLinks.addPairs(baseLinks
+            .addPairs(new long[0])));
+    for(long pair : pairs) {
+      long[] b = baseLinks.links(pair);
+      long[] o = ourLinks.links(pair);
+      long[] t = theirLinks.links(pair);
+      int i = 0;
+      int j = 0;
+      int k = 0;
+      while(i < b.length || j < o.length || k < t.length) {
+        long link = Long.MAX_VALUE;
+        if(i < b.length) link = Math.min(link, b[i]);
+        if(j < o.length) link = Math.min(link, o[j]);
+        if(k < t.length) link = Math.min(link, t[k]);
+        boolean inBase = i < b.length && b[i] == link;
+        boolean inOurs = j < o.length && o[j] == link;
+        boolean inTheirs = k < t.length && t[k] == link;
+        if(inBase) i++;
+        if(inOurs) j++;
+        if(inTheirs) k++;
+
+        float baseWeight = inBase ? baseLinks.weight(pair, link) : 0f;
+        float ourWeight = inOurs ? ourLinks.weight(pair, link) : 0f;
+        float theirWeight = inTheirs ? theirLinks.weight(pair, link) : 0f;
+        if(inOurs && inTheirs) {
+          if(ourWeight == theirWeight || (inBase && theirWeight == baseWeight)) {
+            merged.add(linkId(slots, pair, link, ourWeight));
+          }
+          else if(inBase && ourWeight == baseWeight) {
+            merged.add(linkId(slots, pair, link, theirWeight));
+          }
+          else {
+            merged.add(linkId(slots, pair, link, ourWeight));
+            conflicts.add(linkId(slots, pair, link, theirWeight));
+          }
+        }
+        else if(inOurs) {
+          if(!inBase) {
+            merged.add(linkId(slots, pair, link, ourWeight));
+          }
+          else if(ourWeight != baseWeight) {
+            // theirs removed what ours changed
+            merged.add(linkId(slots, pair, link, ourWeight));
+            conflicts.add(linkId(slots, pair, link, ourWeight));
+          }
+        }
+        else if(inTheirs) {
+          if(!inBase) {
+            merged.add(linkId(slots, pair, link, theirWeight));
+          }
+          else if(theirWeight != baseWeight) {
+            // ours removed what theirs changed
+            conflicts.add(linkId(slots, pair, link, theirWeight));
+          }
+        }
+        // links only in the base have been removed by both
+      }
+    }
+
+    target.removeAlignmentInformation(featureName);
+    Alignment alignment = target.getAlignmentInformation(featureName);
+    List<Link> links = new ArrayList<Link>();
+    for(LinkId linkId : merged) {
+      Link link = linkId.resolve(target);
+      if(link != null) links.add(link);
+    }
+    alignment.alignAll(links);
+    return conflicts;
+  }
+
+  private static LinkId linkId(Slots slots, long pair, long link,
+          float weight) {
+    int slot1 = (int)(pair >>> 32);
+    int slot2 = (int)pair;
+    return new LinkId(slots.documentIDs.get(slot1), slots.asNames.get(slot1),
+            (int)(link >>> 32), slots.documentIDs.get(slot2), slots.asNames
+                    .get(slot2), (int)link, weight);
+  }
+
+  /**
+   * Links in the newer alignment that are not in the older one
+   */
+  public List<LinkId> getAdded() {
+    return added;
+  }
+
+  /**
+   * Links in the older alignment that are not in the newer one
+   */
+  public List<LinkId> getRemoved() {
+    return removed;
+  }
+
+  /**
+   * Links in both alignments that have different weights, with the
+   * weights of the newer alignment
+   */
+  public List<LinkId> getConflicting() {
+    return conflicting;
+  }
+
+  /**
+   * Tells whether the two alignments have the same links with the same
+   * weights.
+   */
+  public boolean isEmpty() {
+    return added.isEmpty() && removed.isEmpty() && conflicting.isEmpty();
+  }
+
+  public String toString() {
+    return "added=" + added + ", removed=" + removed + ", conflicting="
+            + conflicting;
+  }
+}
@@ -0,0 +1,138 @@
+package gate.alignment;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of an evaluation of an alignment A against a gold alignment
+ * with sure links S and possible links P, S being part of P, and the
+ * measures computed from them:
+ *
+ * precision = |A & P| / |A|, recall = |A & S| / |S|, F the harmonic mean
+ * of the two, and the alignment error rate AER = 1 - (|A & S| + |A & P|)
+ * / (|A| + |S|).
+ *
+ * Counts can be added by several threads at the same time.
+ *
+ * @see EvaluateAlignmentPR
+ */
+public class AlignmentEvaluation {
+
+  private final LongAdder testLinks = new LongAdder();
+
+  private final LongAdder sureLinks = new LongAdder();
+
+  private final LongAdder possibleLinks = new LongAdder();
+
+  private final LongAdder testAndSure = new LongAdder();
+
+  private final LongAdder testAndPossible = new LongAdder();
+
+  /**
+   * Adds the counts of a part of the alignments, e.g. of a sentence
+   * pair.
+   */
+  public void add(long test, long sure, long possible, long testAndSure,
+          long testAndPossible) {
+    testLinks.add(test);
+    sureLinks.add(sure);
+    possibleLinks.add(possible);
+    this.testAndSure.add(testAndSure);
+    this.testAndPossible.add(testAndPossible);
+  }
+
+  /**
+   * Adds the counts of another evaluation.
+   */
+  public void add(AlignmentEvaluation evaluation) {
+    add(evaluation.getTestLinks(), evaluation.getSureLinks(), evaluation
+            .getPossibleLinks(), evaluation.getTestAndSure(), evaluation
+            .getTestAndPossible());
+  }
+
+  /**
+   * Sets all counts back to 0.
+   */
+  public void reset() {
+    testLinks.reset();
+    sureLinks.reset();
+    possibleLinks.reset();
+    testAndSure.reset();
+    testAndPossible.reset();
+  }
+
+  /**
+   * |A|, the number of links of the evaluated alignment
+   */
+  public long getTestLinks() {
+    return testLinks.sum();
+  }
+
+  /**
+   * |S|, the number of sure gold links
+   */
+  public long getSureLinks() {
+    return sureLinks.sum();
+  }
+
+  /**
+   * |P|, the number of possible gold links, sure ones included
+   */
+  public long getPossibleLinks() {
+    return possibleLinks.sum();
+  }
+
+  /**
+   * |A & S|
+   */
+  public long getTestAndSure() {
+    return testAndSure.sum();
+  }
+
+  /**
+   * |A & P|
+   */
+  public long getTestAndPossible() {
+    return testAndPossible.sum();
+  }
+
+  /**
+   * Precision, 1 if there are no links to evaluate
+   */
+  public double getPrecision() {
+    long test = getTestLinks();
+    return test == 0 ? 1.0 : (double)getTestAndPossible() / test;
+  }
+
+  /**
+   * Recall, 1 if there are no sure gold links
+   */
+  public double getRecall() {
+    long sure = getSureLinks();
+    return sure == 0 ? 1.0 : (double)getTestAndSure() / sure;
+  }
+
+  /**
+   * Harmonic mean of precision and recall
+   */
+  public double getFMeasure() {
+    double precision = getPrecision();
+    double recall = getRecall();
+    return precision + recall == 0 ? 0.0 : 2 * precision * recall
+            / (precision + recall);
+  }
+
+  /**
+   * Alignment error rate, 0 if there are no links at all
+   */
+  public double getAER() {
+    long total = getTestLinks() + getSureLinks();
+    return total == 0 ? 0.0 : 1.0
+            - (double)(getTestAndSure() + getTestAndPossible()) / total;
+  }
+
+  public String toString() {
+    return String.format("P=%.4f R=%.4f F=%.4f AER=%.4f (|A|=%d |S|=%d |P|=%d)",
+            getPrecision(), getRecall(), getFMeasure(), getAER(),
+            getTestLinks(), getSureLinks(), getPossibleLinks());
+  }
+}
@@ -0,0 +1,333 @@
+package gate.alignment;
+
+import gate.Annotation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Delivers alignment events to the listeners of alignments on a
+ * background thread, so that aligning is not slowed down by listeners
+ * that take their time. An alignment uses the dispatcher once set with
+ * Alignment.setEventDispatcher(AlignmentEventDispatcher). Several
+ * alignments may share a dispatcher.
+ *
+ * Events are queued in the order they are fired and delivered in that
+ * order by a single thread. Consecutive events of the same kind from the
+ * same alignment are delivered as one batch, and a link that is aligned
+ * and unaligned again, or the other way round, before the first event
+ * has been delivered is not reported at all. Listeners therefore only
+ * see the net changes, as batches, and see them after the alignment has
+ * changed further.
+ *
+ * The number of queued links is bounded: threads firing events wait
+ * while the queue is full. flush() waits until all queued events have
+ * been delivered, e.g. before the results of a batch aligner are
+ * looked at.
+ *
+ * Listeners are called on the dispatch thread, not on the thread that
+ * changed the alignment, and the alignment may be changed further while
+ * they run. Only a {@link ConcurrentAlignment} can be read safely then,
+ * so it is the only kind of alignment a dispatcher can be set on; other
+ * alignments, CompactAlignment included, are not thread-safe and
+ * Alignment.setEventDispatcher(AlignmentEventDispatcher) refuses them.
+ * The views of the alignment editor, which read the alignment when they
+ * are told about links, rely on this too. Listeners that update Swing
+ * components must do so on the event dispatch thread, e.g. with
+ * SwingUtilities.invokeLater(Runnable), as those views do.
+ *
+ * Once the dispatcher has been shut down, events are delivered on the
+ * thread firing them, as without a dispatcher; the alignment has changed
+ * already, so they are not rejected.
+ */
+public class AlignmentEventDispatcher {
+
+  private static final Logger log = Logger
+          .getLogger(AlignmentEventDispatcher.class);
+
+  /**
+   * Consecutive events of the same kind from the same alignment. Links
+   * are keyed on their annotations so that they can be cancelled.
+   */
+  private static class Batch {
+    Alignment alignment;
+
+    boolean aligned;
+
+    Map<LinkKey, Link> links = new LinkedHashMap<LinkKey, Link>();
+  }
+
+  /**
+   * The two annotations of a link compared by identity, in either
+   * order.
+   */
+  private static class LinkKey {
+    Annotation annotation1;
+
+    Annotation annotation2;
+
+    LinkKey(Link link) {
+      annotation1 = link.getSrcAnnotation();
+      annotation2 = link.getTgtAnnotation();
+    }
+
+    public int hashCode() {
+      return System.identityHashCode(annotation1)
+              ^ System.identityHashCode(annotation2);
+    }
+
+    public boolean equals(Object o) {
+      if(!(o instanceof LinkKey)) return false;
+      LinkKey other = (LinkKey)o;
+      return (annotation1 == other.annotation1 && annotation2 == other.annotation2)
+              || (annotation1 == other.annotation2 && annotation2 == other.annotation1);
+    }
+  }
+
+  /**
+   * maximum number of queued links
+   */
+  private final int capacity;
+
+  private final Deque<Batch> queue = new ArrayDeque<Batch>();
+
+  /**
+   * number of links in the queue
+   */
+  private int queuedLinks = 0;
+
+  /**
+   * whether a batch taken from the queue is being delivered
+   */
+  private boolean delivering = false;
+
+  /**
+   * whether shutdown() has been called
+   */
+  private boolean shutdown = false;
+
+  /**
+   * whether an event fired after shutdown() has been logged
+   */
+  private boolean warnedAfterShutdown = false;
+
+  private final ExecutorService executor;
+
+  private volatile Thread dispatchThread;
+
+  /**
+   * Creates a dispatcher that queues at most the given number of links.
+   */
+  public AlignmentEventDispatcher(int capacity) {
+    if(capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: "
+              + capacity);
+    }
+    this.capacity = capacity;
+    executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "Alignment event dispatcher");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Queues the event, waiting while the queue is full. Events fired by
+   * listeners on the dispatch thread are queued without waiting. After
+   * shutdown() the event is delivered straight away on the current
+   * thread.
+   *
+   * @param aligned - whether the links have been aligned or unaligned
+   */
+  public void dispatch(Alignment alignment, boolean aligned, List<Link> links) {
+    boolean afterShutdown;
+    synchronized(this) {
+      afterShutdown = shutdown;
+      if(afterShutdown && !warnedAfterShutdown) {
+        warnedAfterShutdown = true;
+        log.warn("Alignment event fired after the dispatcher has been shut "
+                + "down, delivering it and further ones on the firing thread");
+      }
+    }
+    if(afterShutdown) {
+      notifyListeners(alignment, aligned, Collections
+              .unmodifiableList(new ArrayList<Link>(links)));
+      return;
+    }
+    boolean startDelivery;
+    synchronized(this) {
+      if(Thread.currentThread() != dispatchThread) {
+        try {
+          while(queuedLinks >= capacity) {
+            wait();
+          }
+        }
+        catch(InterruptedException ie) {
+          // deliver the event anyway, the alignment has changed already
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      Batch last = queue.peekLast();
+      for(Link link : links) {
+        LinkKey key = new LinkKey(link);
+        if(last != null && last.alignment == alignment) {
+          if(last.aligned != aligned && last.links.remove(key) != null) {
+            // the link is back to what it was before the queued event
+            queuedLinks--;
+            if(last.links.isEmpty()) {
+              queue.pollLast();
+              last = queue.peekLast();
+            }
+            continue;
+          }
+        }
+        if(last == null || last.alignment != alignment
+                || last.aligned != aligned) {
+          last = new Batch();
+          last.alignment = alignment;
+          last.aligned = aligned;
+          queue.addLast(last);
+        }
+        if(last.links.put(key, link) == null) queuedLinks++;
+      }
+      startDelivery = !delivering && !queue.isEmpty();
+      if(startDelivery) delivering = true;
+      notifyAll();
+    }
+    if(!startDelivery) return;
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+          deliver();
+        }
+      });
+    }
+    catch(RejectedExecutionException ree) {
+      // shut down in the meantime, so the queue is delivered here
+      List<Batch> batches;
+      synchronized(this) {
+        batches = new ArrayList<Batch>(queue);
+        queue.clear();
+        queuedLinks = 0;
+        delivering = false;
+        notifyAll();
+      }
+      log.warn("Alignment events fired while the dispatcher was shut down "
+              + "are delivered on the firing thread");
+      for(Batch batch : batches) {
+        notifyListeners(batch.alignment, batch.aligned, Collections
+                .unmodifiableList(new ArrayList<Link>(batch.links.values())));
+      }
+    }
+  }
+
+  /**
+   * Delivers queued batches until the queue is empty.
+   */
+  private void deliver() {
+    dispatchThread = Thread.currentThread();
+    while(true) {
+      Batch batch;
+      synchronized(this) {
+        batch = queue.pollFirst();
+        if(batch == null) {
+          delivering = false;
+          notifyAll();
+          return;
+        }
+        queuedLinks -= batch.links.size();
+        notifyAll();
+      }
+
+      notifyListeners(batch.alignment, batch.aligned, Collections
+              .unmodifiableList(new ArrayList<Link>(batch.links.values())));
+    }
+  }
+
+  /**
+   * Calls the listeners of the alignment, logging the failures of
+   * single listeners so that the others are still notified.
+   */
+  private static void notifyListeners(Alignment alignment, boolean aligned,
+          List<Link> links) {
+    for(AlignmentListener listener : alignment.getAlignmentListeners()) {
+      try {
+        if(aligned) {
+          listener.annotationsAligned(links);
+        }
+        else {
+          listener.annotationsUnaligned(links);
+        }
+      }
+      catch(RuntimeException re) {
+        log.error("Alignment listener " + listener + " failed", re);
+      }
+    }
+  }
+
+  /**
+   * Waits until all queued events have been delivered. Does not wait if
+   * called by a listener, i.e. on the dispatch thread.
+   */
+  public void flush() throws InterruptedException {
+    awaitFlush(0, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Waits until all queued events have been delivered or the timeout
+   * has elapsed. A timeout of 0 means waiting for as long as it takes.
+   *
+   * @return whether all events have been delivered
+   */
+  public synchronized boolean awaitFlush(long timeout, TimeUnit unit)
+          throws InterruptedException {
+    if(Thread.currentThread() == dispatchThread) return !delivering;
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while(delivering || !queue.isEmpty()) {
+      if(timeout <= 0) {
+        wait();
+      }
+      else {
+        long remaining = deadline - System.nanoTime();
+        if(remaining <= 0) return false;
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Number of links waiting to be delivered.
+   */
+  public synchronized int getQueuedLinks() {
+    return queuedLinks;
+  }
+
+  /**
+   * Delivers the queued events and stops the dispatch thread. Events
+   * fired afterwards are delivered on the thread firing them.
+   */
+  public void shutdown() throws InterruptedException {
+    synchronized(this) {
+      shutdown = true;
+    }
+    flush();
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+  }
+}
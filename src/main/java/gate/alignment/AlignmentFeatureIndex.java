@@ -0,0 +1,232 @@
+package gate.alignment;
+
+import gate.Annotation;
+import gate.FeatureMap;
+import gate.event.FeatureMapListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index of the aligned annotations of an alignment, keyed on
+ * annotation type, feature name and feature value, so that queries such
+ * as "all tokens aligned with a noun" do not have to read the features
+ * of every aligned annotation. It is created with
+ * Alignment.createFeatureIndex(String...) for the given feature names
+ * only.
+ *
+ * The alignment keeps the index up to date as annotations get aligned
+ * and unaligned, and the index listens to the feature maps of the
+ * indexed annotations in order to follow changes to their features. The
+ * index is not serialized with the alignment.
+ */
+public class AlignmentFeatureIndex {
+
+  /**
+   * annotation type, feature name and feature value
+   */
+  private static class Key {
+    String type;
+
+    String featureName;
+
+    Object value;
+
+    Key(String type, String featureName, Object value) {
+      this.type = type;
+      this.featureName = featureName;
+      this.value = value;
+    }
+
+    public int hashCode() {
+      return (type.hashCode() * 31 + featureName.hashCode()) * 31
+              + (value == null ? 0 : value.hashCode());
+    }
+
+    public boolean equals(Object o) {
+      if(!(o instanceof Key)) return false;
+      Key other = (Key)o;
+      return type.equals(other.type) && featureName.equals(other.featureName)
+              && (value == null ? other.value == null : value
+                      .equals(other.value));
+    }
+  }
+
+  /**
+   * The keys an annotation is indexed under and the listener on its
+   * feature map.
+   */
+  private class Entry implements FeatureMapListener {
+    Annotation annotation;
+
+    FeatureMap features;
+
+    List<Key> keys = new ArrayList<Key>();
+
+    public void featureMapUpdated() {
+      reindex(annotation);
+    }
+  }
+
+  private final Alignment alignment;
+
+  private final Set<String> featureNames;
+
+  private final Map<Key, Set<Annotation>> index = new HashMap<Key, Set<Annotation>>();
+
+  private final Map<Annotation, Entry> entries = new IdentityHashMap<Annotation, Entry>();
+
+  /**
+   * Indexes the given features of the annotations currently aligned in
+   * the given alignment.
+   */
+  AlignmentFeatureIndex(Alignment alignment, Collection<String> featureNames) {
+    this.alignment = alignment;
+    this.featureNames = Collections.unmodifiableSet(new HashSet<String>(
+            featureNames));
+    synchronized(this) {
+      for(Annotation annot : alignment.getAlignedAnnotations()) {
+        add(annot);
+      }
+    }
+  }
+
+  /**
+   * Brings the entries of the given annotations up to date after links
+   * have been aligned or unaligned. The alignment is asked whether the
+   * annotations are still aligned, so updates made by different threads
+   * may arrive in any order.
+   */
+  synchronized void update(Annotation annotation) {
+    boolean aligned = alignment.isAnnotationAligned(annotation);
+    boolean indexed = entries.containsKey(annotation);
+    if(aligned && !indexed) {
+      add(annotation);
+    }
+    else if(!aligned && indexed) {
+      remove(annotation);
+    }
+  }
+
+  /**
+   * Indexes the annotation again after its features have changed. This
+   * is called while the feature map notifies its listeners, so the
+   * listener stays registered: feature maps notify by position in their
+   * list of listeners, and removing and adding one would make the next
+   * listener miss the event.
+   */
+  private synchronized void reindex(Annotation annotation) {
+    Entry entry = entries.get(annotation);
+    if(entry == null) return;
+    unindexKeys(entry);
+    indexKeys(entry);
+  }
+
+  private void add(Annotation annotation) {
+    Entry entry = new Entry();
+    entry.annotation = annotation;
+    entry.features = annotation.getFeatures();
+    indexKeys(entry);
+    if(entry.features != null) entry.features.addFeatureMapListener(entry);
+    entries.put(annotation, entry);
+  }
+
+  private void remove(Annotation annotation) {
+    Entry entry = entries.remove(annotation);
+    if(entry.features != null) entry.features.removeFeatureMapListener(entry);
+    unindexKeys(entry);
+  }
+
+  /**
+   * Puts the annotation of the entry under the keys of its current
+   * feature values.
+   */
+  private void indexKeys(Entry entry) {
+    if(entry.features == null) return;
+    Annotation annotation = entry.annotation;
+    for(String featureName : featureNames) {
+      if(!entry.features.containsKey(featureName)) continue;
+      Key key = new Key(annotation.getType(), featureName, entry.features
+              .get(featureName));
+      Set<Annotation> annots = index.get(key);
+      if(annots == null) {
+        annots = newIdentitySet();
+        index.put(key, annots);
+      }
+      annots.add(annotation);
+      entry.keys.add(key);
+    }
+  }
+
+  private void unindexKeys(Entry entry) {
+    for(Key key : entry.keys) {
+      Set<Annotation> annots = index.get(key);
+      annots.remove(entry.annotation);
+      if(annots.isEmpty()) index.remove(key);
+    }
+    entry.keys.clear();
+  }
+
+  /**
+   * Annotations compare by their contents, so sets of annotations are
+   * based on identity.
+   */
+  static Set<Annotation> newIdentitySet() {
+    return Collections
+            .newSetFromMap(new IdentityHashMap<Annotation, Boolean>());
+  }
+
+  /**
+   * Stops listening to the feature maps of the indexed annotations.
+   */
+  synchronized void close() {
+    for(Annotation annot : new ArrayList<Annotation>(entries.keySet())) {
+      remove(annot);
+    }
+  }
+
+  /**
+   * Names of the indexed features
+   */
+  public Set<String> getFeatureNames() {
+    return featureNames;
+  }
+
+  /**
+   * Tells whether the given feature is indexed.
+   */
+  public boolean isIndexed(String featureName) {
+    return featureNames.contains(featureName);
+  }
+
+  /**
+   * Returns the aligned annotations of the given type whose given
+   * feature has the given value, in a set based on identity. The feature
+   * must be indexed.
+   */
+  public synchronized Set<Annotation> getAnnotations(String type,
+          String featureName, Object value) {
+    if(!isIndexed(featureName)) {
+      throw new IllegalArgumentException("Feature " + featureName
+              + " is not indexed");
+    }
+    Set<Annotation> toReturn = newIdentitySet();
+    Set<Annotation> annots = index.get(new Key(type, featureName, value));
+    if(annots != null) toReturn.addAll(annots);
+    return toReturn;
+  }
+
+  /**
+   * Number of indexed annotations
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,475 @@
+package gate.alignment;
+
+import gate.Annotation;
+import gate.Document;
+import gate.compound.CompoundDocument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only journal of the changes made to an alignment. Once set
+ * with Alignment.setJournal(AlignmentJournal), every link that is
+ * aligned, unaligned or given a new weight is recorded. Changes are
+ * numbered, starting with 0, so that a periodic save can write only the
+ * changes made since the previous one with writeChanges(long,
+ * OutputStream), and the changes can be applied to the alignment as it
+ * was at the time of the previous save with replay(InputStream,
+ * Alignment).
+ *
+ * Records only hold ids: the member document id and the annotation set
+ * name of an annotation, which are stored once per journal, and the
+ * annotation id. They are kept in a ring buffer. Without a spill file
+ * the oldest records are overwritten when the buffer is full. With a
+ * spill file the buffer is appended to the file whenever it is full or
+ * flush() is called, so that an annotation session that crashes can be
+ * recovered by replaying the file on top of the last full save.
+ *
+ * The methods of a journal are synchronized, so it can be used with a
+ * ConcurrentAlignment.
+ */
+public class AlignmentJournal {
+
+  /**
+   * first bytes of a stream written by the journal
+   */
+  private static final int MAGIC = 0x414A524E;
+
+  /**
+   * version of the format written by the journal
+   */
+  private static final int FORMAT_VERSION = 1;
+
+  /**
+   * entry defining the document id and annotation set name of a slot
+   */
+  private static final byte SLOT = 0;
+
+  /**
+   * a link has been aligned
+   */
+  public static final byte ALIGN = 1;
+
+  /**
+   * a link has been unaligned
+   */
+  public static final byte UNALIGN = 2;
+
+  /**
+   * the weight of a link has been changed
+   */
+  public static final byte WEIGHT = 3;
+
+  /**
+   * id of the member document for each slot
+   */
+  private List<String> slotDocumentIDs = new ArrayList<String>();
+
+  /**
+   * name of the annotation set for each slot
+   */
+  private List<String> slotASNames = new ArrayList<String>();
+
+  // the ring buffer, one entry per record
+  private byte[] ops;
+
+  private int[] srcSlots;
+
+  private int[] srcIds;
+
+  private int[] tgtSlots;
+
+  private int[] tgtIds;
+
+  private float[] weights;
+
+  /**
+   * position of the oldest record in the buffer
+   */
+  private int head = 0;
+
+  /**
+   * number of records in the buffer
+   */
+  private int size = 0;
+
+  /**
+   * number of the next record
+   */
+  private long nextSequence = 0;
+
+  /**
+   * number of the first record in the spill file
+   */
+  private long fileSequence = 0;
+
+  /**
+   * number of slots written to the spill file so far
+   */
+  private int fileSlotCount = 0;
+
+  private File spillFile;
+
+  private DataOutputStream spillOut;
+
+  /**
+   * Creates a journal that keeps the given number of most recent
+   * records in memory.
+   */
+  public AlignmentJournal(int capacity) {
+    if(capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: "
+              + capacity);
+    }
+    ops = new byte[capacity];
+    srcSlots = new int[capacity];
+    srcIds = new int[capacity];
+    tgtSlots = new int[capacity];
+    tgtIds = new int[capacity];
+    weights = new float[capacity];
+  }
+
+  /**
+   * Creates a journal that buffers the given number of records in
+   * memory and appends them to the given file. An existing file is
+   * overwritten, so a journal left behind by a crashed session must be
+   * replayed before.
+   */
+  public AlignmentJournal(int capacity, File spillFile) throws IOException {
+    this(capacity);
+    this.spillFile = spillFile;
+    spillOut = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(spillFile)));
+    writeHeader(spillOut);
+  }
+
+  /**
+   * Records a change to the link between the two annotations.
+   *
+   * @param op - ALIGN, UNALIGN or WEIGHT
+   * @param weight - weight of the link, ignored for UNALIGN
+   */
+  public synchronized void record(byte op, String srcDocumentID,
+          String srcAS, int srcId, String tgtDocumentID, String tgtAS,
+          int tgtId, float weight) {
+    if(size == ops.length) {
+      if(spillOut != null) {
+        spill();
+      }
+      else {
+        // overwrite the oldest record
+        head = (head + 1) % ops.length;
+        size--;
+      }
+    }
+    int i = (head + size) % ops.length;
+    ops[i] = op;
+    srcSlots[i] = slotFor(srcDocumentID, srcAS);
+    srcIds[i] = srcId;
+    tgtSlots[i] = slotFor(tgtDocumentID, tgtAS);
+    tgtIds[i] = tgtId;
+    weights[i] = weight;
+    size++;
+    nextSequence++;
+  }
+
+  /**
+   * Records a change to the link between the two annotations.
+   */
+  public void record(byte op, Annotation srcAnnotation, String srcAS,
+          Document srcDocument, Annotation targetAnnotation, String tgtAS,
+          Document targetDocument, float weight) {
+    record(op, srcDocument.getName(), srcAS, srcAnnotation.getId()
+            .intValue(), targetDocument.getName(), tgtAS, targetAnnotation
+            .getId().intValue(), weight);
+  }
+
+  private int slotFor(String documentID, String asName) {
+    boolean defaultAS = Alignment.isDefaultAS(asName);
+    for(int i = 0; i < slotDocumentIDs.size(); i++) {
+      if(!slotDocumentIDs.get(i).equals(documentID)) continue;
+      String slotAS = slotASNames.get(i);
+      if(defaultAS ? Alignment.isDefaultAS(slotAS) : asName.equals(slotAS))
+        return i;
+    }
+    slotDocumentIDs.add(documentID);
+    slotASNames.add(defaultAS ? null : asName);
+    return slotDocumentIDs.size() - 1;
+  }
+
+  /**
+   * Number of the next record, i.e. the number of records made since the
+   * journal was created or checkpoint() was called last.
+   */
+  public synchronized long getSequence() {
+    return nextSequence;
+  }
+
+  /**
+   * Number of the oldest record that is still available, either in
+   * memory or in the spill file.
+   */
+  public synchronized long getFirstSequence() {
+    return spillOut != null ? fileSequence : nextSequence - size;
+  }
+
+  /**
+   * Appends the records in memory to the spill file, if there is one,
+   * and flushes the file.
+   */
+  public synchronized void flush() throws IOException {
+    if(spillOut == null) return;
+    spill();
+    spillOut.flush();
+  }
+
+  /**
+   * Appends the records in memory to the spill file and empties the
+   * buffer.
+   */
+  private void spill() {
+    try {
+      writeSlots(spillOut, fileSlotCount);
+      fileSlotCount = slotDocumentIDs.size();
+      writeRecords(spillOut, 0, size);
+    }
+    catch(IOException ioe) {
+      throw new IllegalStateException("Could not write to " + spillFile, ioe);
+    }
+    head = 0;
+    size = 0;
+  }
+
+  /**
+   * Discards all records, e.g. after the alignment has been saved in
+   * full. Numbering starts again with 0.
+   */
+  public synchronized void checkpoint() throws IOException {
+    head = 0;
+    size = 0;
+    nextSequence = 0;
+    fileSequence = 0;
+    if(spillOut != null) {
+      spillOut.close();
+      spillOut = new DataOutputStream(new BufferedOutputStream(
+              new FileOutputStream(spillFile)));
+      writeHeader(spillOut);
+      fileSlotCount = 0;
+    }
+  }
+
+  /**
+   * Closes the spill file, if there is one, after appending the records
+   * in memory to it.
+   */
+  public synchronized void close() throws IOException {
+    if(spillOut == null) return;
+    flush();
+    spillOut.close();
+    spillOut = null;
+  }
+
+  /**
+   * Writes the records made since the given record number to the given
+   * stream, in the format read by replay(InputStream, Alignment).
+   *
+   * @return number of the next record, to be passed to the next call
+   * @throws IllegalArgumentException if some of the records have been
+   *           overwritten
+   */
+  public synchronized long writeChanges(long sequence, OutputStream out)
+          throws IOException {
+    if(sequence < getFirstSequence()) {
+      throw new IllegalArgumentException("Records before "
+              + getFirstSequence() + " are not available any more");
+    }
+
+    DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+            out));
+    writeHeader(data);
+    writeSlots(data, 0);
+    long bufferSequence = nextSequence - size;
+    if(sequence < bufferSequence) {
+      // the older records are in the spill file
+      spillOut.flush();
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+              new FileInputStream(spillFile)));
+      try {
+        readHeader(in);
+        long current = fileSequence;
+        while(current < bufferSequence) {
+          byte op = in.readByte();
+          if(op == SLOT) {
+            // all slots have been written already
+            readSlot(in);
+            continue;
+          }
+          int srcSlot = in.readInt();
+          int srcId = in.readInt();
+          int tgtSlot = in.readInt();
+          int tgtId = in.readInt();
+          float weight = op == UNALIGN ? 0f : in.readFloat();
+          if(current++ < sequence) continue;
+          writeRecord(data, op, srcSlot, srcId, tgtSlot, tgtId, weight);
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    writeRecords(data, (int)Math.max(0, sequence - bufferSequence), size);
+    data.flush();
+    return nextSequence;
+  }
+
+  private void writeHeader(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+  }
+
+  private static void readHeader(DataInputStream in) throws IOException {
+    if(in.readInt() != MAGIC) {
+      throw new InvalidObjectException("Not an alignment journal");
+    }
+    int version = in.readInt();
+    if(version < 1 || version > FORMAT_VERSION) {
+      throw new InvalidObjectException(
+              "Unsupported alignment journal format version " + version);
+    }
+  }
+
+  private void writeSlots(DataOutputStream out, int from) throws IOException {
+    for(int slot = from; slot < slotDocumentIDs.size(); slot++) {
+      out.writeByte(SLOT);
+      out.writeInt(slot);
+      out.writeUTF(slotDocumentIDs.get(slot));
+      String asName = slotASNames.get(slot);
+      out.writeBoolean(asName != null);
+      if(asName != null) out.writeUTF(asName);
+    }
+  }
+
+  private static String[] readSlot(DataInputStream in) throws IOException {
+    in.readInt();
+    String documentID = in.readUTF();
+    String asName = in.readBoolean() ? in.readUTF() : null;
+    return new String[] {documentID, asName};
+  }
+
+  /**
+   * Writes the records at the given positions of the buffer, counted
+   * from the oldest one.
+   */
+  private void writeRecords(DataOutputStream out, int from, int to)
+          throws IOException {
+    for(int r = from; r < to; r++) {
+      int i = (head + r) % ops.length;
+      writeRecord(out, ops[i], srcSlots[i], srcIds[i], tgtSlots[i], tgtIds[i],
+              weights[i]);
+    }
+  }
+
+  private static void writeRecord(DataOutputStream out, byte op,
+          int srcSlot, int srcId, int tgtSlot, int tgtId, float weight)
+          throws IOException {
+    out.writeByte(op);
+    out.writeInt(srcSlot);
+    out.writeInt(srcId);
+    out.writeInt(tgtSlot);
+    out.writeInt(tgtId);
+    if(op != UNALIGN) out.writeFloat(weight);
+  }
+
+  /**
+   * Applies the changes read from the given file to the alignment, see
+   * replay(InputStream, Alignment).
+   */
+  public static int replay(File file, Alignment alignment) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      return replay(in, alignment);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Applies the changes read from the given stream, which has been
+   * written by writeChanges(long, OutputStream) or is a spill file, to
+   * the alignment. Annotations are looked up in the compound document
+   * of the alignment. Changes to annotations that cannot be found are
+   * skipped. A spill file that ends in the middle of a record, because
+   * the session writing it crashed, is read up to that record.
+   *
+   * @return number of changes applied
+   */
+  public static int replay(InputStream stream, Alignment alignment)
+          throws IOException {
+    CompoundDocument cd = alignment.compoundDocument;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+    readHeader(in);
+
+    List<String[]> slots = new ArrayList<String[]>();
+    int applied = 0;
+    while(true) {
+      byte op;
+      int srcSlot, srcId, tgtSlot, tgtId;
+      float weight;
+      try {
+        op = in.readByte();
+        if(op == SLOT) {
+          slots.add(readSlot(in));
+          continue;
+        }
+        srcSlot = in.readInt();
+        srcId = in.readInt();
+        tgtSlot = in.readInt();
+        tgtId = in.readInt();
+        weight = op == UNALIGN ? 0f : in.readFloat();
+      }
+      catch(EOFException eofe) {
+        break;
+      }
+
+      String[] src = slots.get(srcSlot);
+      String[] tgt = slots.get(tgtSlot);
+      Document srcDoc = cd.getDocument(src[0]);
+      Document tgtDoc = cd.getDocument(tgt[0]);
+      Annotation srcAnnot = Alignment.findAnnotation(srcDoc, src[1], srcId);
+      Annotation tgtAnnot = Alignment.findAnnotation(tgtDoc, tgt[1],
+              tgtId);
+      if(srcAnnot == null || tgtAnnot == null) continue;
+
+      switch(op) {
+        case ALIGN:
+          alignment.align(srcAnnot, src[1], srcDoc, tgtAnnot, tgt[1], tgtDoc,
+                  weight);
+          break;
+        case UNALIGN:
+          alignment.unalign(srcAnnot, src[1], srcDoc, tgtAnnot, tgt[1],
+                  tgtDoc);
+          break;
+        case WEIGHT:
+          alignment.setWeight(srcAnnot, tgtAnnot, weight);
+          break;
+        default:
+          throw new InvalidObjectException("Unknown journal record " + op);
+      }
+      applied++;
+    }
+    return applied;
+  }
+}
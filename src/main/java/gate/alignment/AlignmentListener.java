@@ -1,6 +1,7 @@
 package gate.alignment;
 
 import java.io.Serializable;
+import java.util.List;
 
 import gate.Annotation;
 import gate.Document;
@@ -45,4 +46,35 @@ public interface AlignmentListener extends Serializable {
   public void annotationsUnaligned(Annotation srcAnnotation, String srcAS,
           Document srcDocument, Annotation targetAnnotation, String tgtAS,
           Document targetDocument);
+
+  /**
+   * This method is invoked when several pairs of annotations have been
+   * aligned in one go, e.g. by Alignment.alignAll(...). By default it
+   * calls annotationsAligned(...) for every link. Listeners that can
+   * update themselves more efficiently should override it.
+   * 
+   * @param links - unmodifiable list of the links that were aligned
+   */
+  public default void annotationsAligned(List<Link> links) {
+    for(Link link : links) {
+      annotationsAligned(link.getSrcAnnotation(), link.getSrcAS(), link
+              .getSrcDocument(), link.getTgtAnnotation(), link.getTgtAS(),
+              link.getTgtDocument());
+    }
+  }
+
+  /**
+   * This method is invoked when several pairs of annotations have been
+   * unaligned in one go, e.g. by Alignment.unalignAll(...). By default it
+   * calls annotationsUnaligned(...) for every link.
+   * 
+   * @param links - unmodifiable list of the links that were unaligned
+   */
+  public default void annotationsUnaligned(List<Link> links) {
+    for(Link link : links) {
+      annotationsUnaligned(link.getSrcAnnotation(), link.getSrcAS(), link
+              .getSrcDocument(), link.getTgtAnnotation(), link.getTgtAS(),
+              link.getTgtDocument());
+    }
+  }
 }
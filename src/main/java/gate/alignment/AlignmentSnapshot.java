@@ -0,0 +1,140 @@
+package gate.alignment;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.compound.CompoundDocument;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A read-only version of an alignment as it was when
+ * {@link Alignment#snapshot()} was called. Background jobs such as
+ * exports or autosaves can query a snapshot while the alignment is being
+ * edited, without locking out the editor and without seeing half done
+ * changes.
+ *
+ * A snapshot shares the pages of the node arrays of the compact
+ * alignment it was taken from, which copies a page before changing it,
+ * see {@link CompactAlignment#snapshot()}. Annotations are still
+ * resolved from the compound document, so annotations deleted after the
+ * snapshot was taken are skipped. A snapshot does not listen to the
+ * annotation sets and never notifies its listeners. Methods that would
+ * change the links throw an UnsupportedOperationException.
+ */
+public class AlignmentSnapshot extends CompactAlignment {
+
+  private static final long serialVersionUID = -1497366410529125745L;
+
+  /**
+   * Constructor used when the snapshot is deserialized.
+   */
+  public AlignmentSnapshot() {
+    super();
+  }
+
+  /**
+   * Creates a snapshot sharing the pages of the node arrays of the given
+   * alignment. There are few slots, so their lists are copied.
+   */
+  AlignmentSnapshot(CompoundDocument compoundDocument, CompactAlignment source) {
+    super(null);
+    this.compoundDocument = compoundDocument;
+    slotDocumentIDs = new ArrayList<String>(source.slotDocumentIDs);
+    slotASNames = new ArrayList<String>(source.slotASNames);
+    nodeKeys = source.nodeKeys.share();
+    nodeLinks = source.nodeLinks.share();
+    nodeLinkCounts = source.nodeLinkCounts.share();
+    nodeWeights = source.nodeWeights == null ? null : source.nodeWeights
+            .share();
+    nodeCount = source.nodeCount;
+    keyToNode = source.keyToNode.share();
+  }
+
+  /**
+   * The snapshot does not change, so it is its own snapshot.
+   */
+  @Override
+  public AlignmentSnapshot snapshot() {
+    return this;
+  }
+
+  /**
+   * A snapshot does not listen to annotation sets.
+   */
+  @Override
+  protected void listenToAnnotationSets() {
+  }
+
+  @Override
+  protected void listenTo(Document document, String asName) {
+  }
+
+  @Override
+  protected boolean doAlign(Annotation srcAnnotation, String srcAS,
+          Document srcDocument, Annotation targetAnnotation, String tgtAS,
+          Document targetDocument) {
+    throw new UnsupportedOperationException("Alignment snapshots are read-only");
+  }
+
+  @Override
+  protected boolean doAlign(Annotation srcAnnotation, String srcAS,
+          Document srcDocument, Annotation targetAnnotation, String tgtAS,
+          Document targetDocument, float weight) {
+    throw new UnsupportedOperationException("Alignment snapshots are read-only");
+  }
+
+  @Override
+  protected boolean doUnalign(Annotation srcAnnotation, String srcAS,
+          Document srcDocument, Annotation targetAnnotation, String tgtAS,
+          Document targetDocument) {
+    throw new UnsupportedOperationException("Alignment snapshots are read-only");
+  }
+
+  @Override
+  protected boolean doSetWeight(Annotation srcAnnotation,
+          Annotation targetAnnotation, float weight) {
+    throw new UnsupportedOperationException("Alignment snapshots are read-only");
+  }
+
+  @Override
+  protected List<Link> doPruneBelow(float threshold) {
+    throw new UnsupportedOperationException("Alignment snapshots are read-only");
+  }
+
+  /**
+   * Links of deleted annotations are kept, they are not resolved any
+   * more.
+   */
+  @Override
+  protected List<Link> pruneAnnotations(AnnotationSet set,
+          Collection<Annotation> annotations) {
+    return new ArrayList<Link>();
+  }
+
+  /**
+   * Groups are built lazily, so readers of the same snapshot take turns.
+   */
+  @Override
+  public synchronized Set<Annotation> getGroup(Annotation annotation) {
+    return super.getGroup(annotation);
+  }
+
+  @Override
+  public synchronized List<Set<Annotation>> groups() {
+    return super.groups();
+  }
+
+  /**
+   * Offset indexes are built lazily, so readers of the same snapshot
+   * take turns.
+   */
+  @Override
+  public synchronized List<Annotation> getAlignedIn(String documentID,
+          String asName, long start, long end) {
+    return super.getAlignedIn(documentID, asName, start, end);
+  }
+}
@@ -0,0 +1,168 @@
+package gate.alignment;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Size and shape of an alignment at the time it was measured, see
+ * Alignment.getStatistics(). The estimated size only covers the
+ * structures of the alignment itself and not the annotations, which
+ * belong to the member documents.
+ */
+public class AlignmentStatistics {
+
+  // sizes assumed when estimating memory, those of a 64 bit JVM with
+  // compressed references
+
+  static final int REFERENCE_BYTES = 4;
+
+  /**
+   * a java.util.HashMap entry including its share of the table
+   */
+  static final int MAP_ENTRY_BYTES = 40;
+
+  /**
+   * an empty java.util.HashSet with the default table
+   */
+  static final int SET_BYTES = 144;
+
+  /**
+   * a java.lang.Float
+   */
+  static final int FLOAT_BYTES = 16;
+
+  /**
+   * Size of an array with the given number of elements of the given
+   * size, including the header and the padding.
+   */
+  static long arrayBytes(long length, int elementBytes) {
+    return (16 + length * elementBytes + 7) & ~7L;
+  }
+
+  private long linkCount;
+
+  private int alignedAnnotationCount;
+
+  /**
+   * number of annotations by the number of their links
+   */
+  private int[] fanOutHistogram = new int[8];
+
+  /**
+   * number of aligned annotations by member document and annotation set
+   */
+  private Map<String, Integer> annotationsPerSet = new TreeMap<String, Integer>();
+
+  private long estimatedBytes;
+
+  /**
+   * self links are counted once but are seen from one annotation only
+   */
+  private long selfLinkCount;
+
+  private long linkEnds;
+
+  /**
+   * Counts an aligned annotation with the given number of links.
+   */
+  void addAnnotation(String documentID, String asName, int fanOut) {
+    alignedAnnotationCount++;
+    linkEnds += fanOut;
+    if(fanOut >= fanOutHistogram.length) {
+      fanOutHistogram = Arrays.copyOf(fanOutHistogram, Math.max(fanOut + 1,
+              fanOutHistogram.length << 1));
+    }
+    fanOutHistogram[fanOut]++;
+    String key = setKey(documentID, asName);
+    Integer count = annotationsPerSet.get(key);
+    annotationsPerSet.put(key, count == null ? 1 : count + 1);
+  }
+
+  /**
+   * Counts a link between an annotation and itself.
+   */
+  void addSelfLink() {
+    selfLinkCount++;
+  }
+
+  void setEstimatedBytes(long estimatedBytes) {
+    this.estimatedBytes = estimatedBytes;
+  }
+
+  /**
+   * Computes the totals once all annotations have been counted.
+   */
+  AlignmentStatistics finish() {
+    linkCount = (linkEnds + selfLinkCount) / 2;
+    int length = fanOutHistogram.length;
+    while(length > 0 && fanOutHistogram[length - 1] == 0) {
+      length--;
+    }
+    fanOutHistogram = Arrays.copyOf(fanOutHistogram, length);
+    annotationsPerSet = Collections.unmodifiableMap(annotationsPerSet);
+    return this;
+  }
+
+  /**
+   * Key of the given member document and annotation set in
+   * getAnnotationsPerSet().
+   */
+  public static String setKey(String documentID, String asName) {
+    return documentID + "/" + (Alignment.isDefaultAS(asName) ? "" : asName);
+  }
+
+  /**
+   * Number of links
+   */
+  public long getLinkCount() {
+    return linkCount;
+  }
+
+  /**
+   * Number of annotations that have at least one link
+   */
+  public int getAlignedAnnotationCount() {
+    return alignedAnnotationCount;
+  }
+
+  /**
+   * For every number of links, the number of annotations that have that
+   * many links. The entry at index 0 is always 0.
+   */
+  public int[] getFanOutHistogram() {
+    return fanOutHistogram.clone();
+  }
+
+  /**
+   * Largest number of links an annotation has
+   */
+  public int getMaxFanOut() {
+    return Math.max(fanOutHistogram.length - 1, 0);
+  }
+
+  /**
+   * Number of aligned annotations for every member document and
+   * annotation set, keyed on "documentID/asName" with an empty name for
+   * the default annotation set.
+   */
+  public Map<String, Integer> getAnnotationsPerSet() {
+    return annotationsPerSet;
+  }
+
+  /**
+   * Estimated number of bytes taken by the alignment, not counting the
+   * annotations.
+   */
+  public long getEstimatedBytes() {
+    return estimatedBytes;
+  }
+
+  public String toString() {
+    return "links=" + linkCount + ", alignedAnnotations="
+            + alignedAnnotationCount + ", fanOut="
+            + Arrays.toString(fanOutHistogram) + ", annotationsPerSet="
+            + annotationsPerSet + ", estimatedBytes=" + estimatedBytes;
+  }
+}
@@ -0,0 +1,1512 @@
+package gate.alignment;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.alignment.utils.LongIntMap;
+import gate.alignment.utils.PagedIntArray;
+import gate.alignment.utils.PagedLongArray;
+import gate.alignment.utils.PagedObjectArray;
+import gate.compound.CompoundDocument;
+import gate.compound.impl.LazyDocumentMap;
+import gate.event.DocumentEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * An alignment that does not hold on to the annotation objects. Every
+ * aligned annotation is stored as a node that is identified by a slot
+ * (a pair of member document id and annotation set name) and the id of
+ * the annotation. Links between nodes are kept in primitive int arrays
+ * and the annotation objects are only obtained from the compound
+ * document when they are asked for. This needs a fraction of the memory
+ * used by the map based {@link Alignment} when there are many links.
+ *
+ * Lookups never hash the annotation itself. This matters because GATE
+ * annotations compare by their content, including features, and actions
+ * such as the AlignAction change features of annotations that are
+ * already aligned. Those who know the document id, annotation set name
+ * and annotation id can use the id based methods and avoid resolving
+ * annotations altogether.
+ *
+ * This is the implementation compound documents use by default.
+ * Alignments stored by older versions are converted with the
+ * CompactAlignment(CompoundDocument, Alignment) constructor when the
+ * compound document is loaded.
+ *
+ * The alignment is stored in a compact binary form, see
+ * writeExternal(ObjectOutput). Listeners are not stored.
+ *
+ * The node arrays are paged, so that snapshots can share them: after a
+ * snapshot has been taken, only the pages that are changed get copied,
+ * see snapshot().
+ */
+public class CompactAlignment extends Alignment implements Externalizable {
+
+  private static final long serialVersionUID = -2306853915371546711L;
+
+  /**
+   * version of the binary format written by writeExternal
+   */
+  protected static final int FORMAT_VERSION = 2;
+
+  /**
+   * id of the member document for each slot
+   */
+  protected List<String> slotDocumentIDs = new ArrayList<String>();
+
+  /**
+   * name of the annotation set for each slot
+   */
+  protected List<String> slotASNames = new ArrayList<String>();
+
+  /**
+   * key of each node, i.e. the slot in the upper and the annotation id
+   * in the lower 32 bits. Free nodes have the key -1.
+   */
+  protected PagedLongArray nodeKeys = new PagedLongArray(16);
+
+  /**
+   * for each node, indexes of the nodes it is aligned with
+   */
+  protected PagedObjectArray<int[]> nodeLinks = new PagedObjectArray<int[]>(16);
+
+  /**
+   * for each node, number of used entries in its nodeLinks array
+   */
+  protected PagedIntArray nodeLinkCounts = new PagedIntArray(16);
+
+  /**
+   * for each node, weights of its links in the same order as in
+   * nodeLinks. This is null as long as all links have the default
+   * weight.
+   */
+  protected PagedObjectArray<float[]> nodeWeights;
+
+  /**
+   * number of node entries used so far (including free ones)
+   */
+  protected int nodeCount = 0;
+
+  /**
+   * indexes of the nodes that have been freed and can be reused
+   */
+  protected int[] freeNodes = new int[16];
+
+  /**
+   * number of entries in freeNodes
+   */
+  protected int freeNodeCount = 0;
+
+  /**
+   * node key to node index
+   */
+  protected LongIntMap keyToNode = new LongIntMap();
+
+  /**
+   * annotation sets of the slots, obtained from the compound document
+   * when first needed
+   */
+  protected transient AnnotationSet[] slotSets;
+
+  /**
+   * union-find parent of each node, used for finding alignment groups
+   */
+  protected transient int[] groupParents;
+
+  /**
+   * number of nodes in the group, valid for the root node of a group
+   */
+  protected transient int[] groupSizes;
+
+  /**
+   * next node in the same group. The nodes of a group form a ring so
+   * that a group can be listed without looking at other nodes.
+   */
+  protected transient int[] groupNext;
+
+  /**
+   * Groups are kept up to date while links are added. Union-find cannot
+   * split groups, so removing a link invalidates them and they are
+   * rebuilt when asked for next time.
+   */
+  protected transient boolean groupsValid = false;
+
+  /**
+   * for each slot, its nodes sorted by the start offsets of their
+   * annotations. Every entry holds the start offset in the upper and the
+   * node in the lower 32 bits. An index is built when first needed and
+   * dropped when nodes are added to or removed from its slot.
+   */
+  protected transient long[][] slotOffsetIndexes;
+
+  /**
+   * nodes whose link and weight arrays have been copied since the last
+   * snapshot was taken, so that they can be changed in place. This is
+   * null if no snapshot has been taken.
+   */
+  protected transient BitSet ownedRows;
+
+  /**
+   * Constructor used when the alignment is deserialized. The compound
+   * document is set afterwards with setSourceDocument(CompoundDocument).
+   */
+  public CompactAlignment() {
+    this(null);
+  }
+
+  /**
+   * Constructor
+   */
+  public CompactAlignment(CompoundDocument compoundDocument) {
+    super(compoundDocument);
+  }
+
+  /**
+   * Creates a compact copy of the given alignment. This is used for
+   * migrating alignments that were stored as maps keyed on annotation
+   * objects. The compound document is not needed for copying, so this
+   * also works for alignments that have just been deserialized. The
+   * listeners of the given alignment are registered with the copy.
+   */
+  public CompactAlignment(CompoundDocument compoundDocument,
+          Alignment alignment) {
+    this(compoundDocument);
+    if(alignment.alignmentMatrix != null) {
+      for(Map.Entry<Annotation, Set<Annotation>> entry : alignment.alignmentMatrix
+              .entrySet()) {
+        if(alignment.annotation2Document.get(entry.getKey()) == null) continue;
+        for(Annotation tgtAnnot : entry.getValue()) {
+          // nodes are only created for links that are stored, so that no
+          // node is left without links
+          if(alignment.annotation2Document.get(tgtAnnot) == null) continue;
+          int srcNode = legacyNode(alignment, entry.getKey());
+          int tgtNode = legacyNode(alignment, tgtAnnot);
+          if(indexOfLink(srcNode, tgtNode) != -1) continue;
+          addLink(srcNode, tgtNode);
+          if(srcNode != tgtNode) addLink(tgtNode, srcNode);
+          setLinkWeight(srcNode, tgtNode, alignment.getWeight(entry.getKey(),
+                  tgtAnnot));
+        }
+      }
+    }
+
+    for(AlignmentListener listener : alignment.getAlignmentListeners()) {
+      addAlignmentListener(listener);
+    }
+    if(compoundDocument != null) listenToAnnotationSets();
+  }
+
+  /**
+   * Node for an annotation of a map based alignment whose document is
+   * known, created if necessary.
+   */
+  private int legacyNode(Alignment alignment, Annotation annotation) {
+    String documentID = alignment.annotation2Document.get(annotation);
+    return nodeFor(key(slotFor(documentID, alignment.annotation2AS
+            .get(annotation)), annotation.getId().intValue()));
+  }
+
+  /**
+   * Sets the source document, this alignment object belongs to.
+   */
+  @Override
+  public void setSourceDocument(CompoundDocument cd) {
+    super.setSourceDocument(cd);
+    dropCaches();
+  }
+
+  /**
+   * Drops the annotation sets and offset indexes obtained from the
+   * compound document.
+   */
+  protected void dropCaches() {
+    slotSets = null;
+    slotOffsetIndexes = null;
+  }
+
+  /**
+   * Starts listening to the annotation sets of all slots.
+   */
+  @Override
+  protected void listenToAnnotationSets() {
+    for(int slot = 0; slot < slotDocumentIDs.size(); slot++) {
+      // members not in memory are listened to when they are loaded, see
+      // getSlotSet(slot)
+      if(!isSlotLoaded(slot)) continue;
+      listenTo(slotDocument(slot), slotASNames.get(slot));
+    }
+  }
+
+  /**
+   * Returns the member of the given slot, or null if the compound
+   * document has no such member, e.g. because it could not be loaded.
+   */
+  protected Document slotDocument(int slot) {
+    Document doc = compoundDocument.getDocument(slotDocumentIDs.get(slot));
+    // the compound document returns itself for unknown ids
+    return doc == compoundDocument ? null : doc;
+  }
+
+  /**
+   * Tells whether the member of the given slot is in memory, so that
+   * asking for it does not load it.
+   */
+  protected boolean isSlotLoaded(int slot) {
+    if(compoundDocument == null) return false;
+    Map<String, Document> documents = compoundDocument.getDocuments();
+    if(!(documents instanceof LazyDocumentMap)) return true;
+    return ((LazyDocumentMap)documents).isLoaded(slotDocumentIDs.get(slot));
+  }
+
+  /**
+   * Returns a key for the given slot and annotation id
+   */
+  protected static long key(int slot, int annotationId) {
+    return ((long)slot << 32) | (annotationId & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Annotation id part of the node key
+   */
+  protected static int idOf(long key) {
+    return (int)key;
+  }
+
+  /**
+   * Slot part of the node key
+   */
+  protected static int slotOf(long key) {
+    return (int)(key >>> 32);
+  }
+
+  /**
+   * Returns the slot for the given document and annotation set or -1 if
+   * there isn't any.
+   */
+  protected int findSlot(String documentID, String asName) {
+    boolean defaultAS = isDefaultAS(asName);
+    for(int i = 0; i < slotDocumentIDs.size(); i++) {
+      if(!slotDocumentIDs.get(i).equals(documentID)) continue;
+      String slotAS = slotASNames.get(i);
+      if(defaultAS ? isDefaultAS(slotAS) : asName.equals(slotAS)) return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the slot for the given document and annotation set. A new
+   * slot is created if there isn't any.
+   */
+  protected int slotFor(String documentID, String asName) {
+    int slot = findSlot(documentID, asName);
+    if(slot == -1) {
+      changed();
+      slotDocumentIDs.add(documentID);
+      slotASNames.add(asName);
+      slot = slotDocumentIDs.size() - 1;
+      slotSets = null;
+    }
+    return slot;
+  }
+
+  /**
+   * Returns the annotation set of the given slot or null if the compound
+   * document is not available.
+   */
+  protected AnnotationSet getSlotSet(int slot) {
+    if(compoundDocument == null) return null;
+    // a local copy of the cache is used so that readers running in
+    // parallel at worst look up the same set twice
+    AnnotationSet[] sets = slotSets;
+    if(sets == null || sets.length != slotDocumentIDs.size()) {
+      sets = new AnnotationSet[slotDocumentIDs.size()];
+      slotSets = sets;
+    }
+
+    AnnotationSet set = sets[slot];
+    if(set == null) {
+      Document doc = slotDocument(slot);
+      if(doc == null) return null;
+      String asName = slotASNames.get(slot);
+      if(isDefaultAS(asName)) {
+        set = doc.getAnnotations();
+      }
+      else {
+        // getAnnotations(asName) would create a set that has been removed
+        Map<String, AnnotationSet> namedSets = doc.getNamedAnnotationSets();
+        if(namedSets == null) return null;
+        set = namedSets.get(asName);
+        if(set == null) return null;
+      }
+      sets[slot] = set;
+      // the member may have been unloaded and loaded again since
+      listenTo(doc, asName);
+    }
+    return set;
+  }
+
+  /**
+   * Returns the annotation the given node refers to or null if it cannot
+   * be found in the compound document.
+   */
+  protected Annotation resolve(int node) {
+    long key = nodeKeys.get(node);
+    AnnotationSet set = getSlotSet(slotOf(key));
+    if(set == null) return null;
+    return set.get(idOf(key));
+  }
+
+  /**
+   * Returns the node of the given annotation or -1 if it is not aligned.
+   * Annotation ids are only unique within a member document, so a node
+   * is accepted only if it resolves to the very same annotation object.
+   * The annotation is looked for in the members in memory first, as it
+   * most likely belongs to one of them; other members are only loaded
+   * when none of those has it.
+   */
+  protected int nodeOf(Annotation annotation) {
+    if(annotation == null) return -1;
+    // reusing the Integer of the annotation avoids boxing on lookups
+    Integer id = annotation.getId();
+    int candidate = -1;
+    BitSet unloadedSlots = null;
+    for(int slot = 0; slot < slotDocumentIDs.size(); slot++) {
+      int node = keyToNode.get(key(slot, id.intValue()));
+      if(node == LongIntMap.NO_VALUE) continue;
+      if(compoundDocument != null && !isSlotLoaded(slot)) {
+        if(unloadedSlots == null) unloadedSlots = new BitSet();
+        unloadedSlots.set(slot);
+        continue;
+      }
+      AnnotationSet set = getSlotSet(slot);
+      if(set == null) {
+        // cannot verify without the compound document
+        if(candidate == -1) candidate = node;
+        continue;
+      }
+      if(set.get(id) == annotation) return node;
+    }
+    if(unloadedSlots == null) return candidate;
+    for(int slot = unloadedSlots.nextSetBit(0); slot >= 0; slot = unloadedSlots
+            .nextSetBit(slot + 1)) {
+      int node = keyToNode.get(key(slot, id.intValue()));
+      AnnotationSet set = getSlotSet(slot);
+      if(set == null) {
+        // cannot verify without the compound document
+        if(candidate == -1) candidate = node;
+        continue;
+      }
+      if(set.get(id) == annotation) return node;
+    }
+    return candidate;
+  }
+
+  /**
+   * Returns the node for the given key creating a new one if necessary.
+   */
+  protected int nodeFor(long key) {
+    int node = keyToNode.get(key);
+    if(node != LongIntMap.NO_VALUE) return node;
+
+    changed();
+    if(freeNodeCount > 0) {
+      node = freeNodes[--freeNodeCount];
+    }
+    else {
+      if(nodeCount == nodeKeys.length()) {
+        int capacity = nodeKeys.length() << 1;
+        nodeKeys.ensureLength(capacity);
+        nodeLinks.ensureLength(capacity);
+        nodeLinkCounts.ensureLength(capacity);
+        if(nodeWeights != null) nodeWeights.ensureLength(capacity);
+      }
+      node = nodeCount++;
+    }
+    nodeKeys.set(node, key);
+    nodeLinkCounts.set(node, 0);
+    keyToNode.put(key, node);
+    dropOffsetIndex(slotOf(key));
+    return node;
+  }
+
+  /**
+   * Frees the given node so that it can be reused.
+   */
+  protected void freeNode(int node) {
+    changed();
+    dropOffsetIndex(slotOf(nodeKeys.get(node)));
+    keyToNode.remove(nodeKeys.get(node));
+    nodeKeys.set(node, -1);
+    nodeLinks.set(node, null);
+    if(nodeWeights != null) nodeWeights.set(node, null);
+    nodeLinkCounts.set(node, 0);
+    if(freeNodeCount == freeNodes.length) {
+      freeNodes = Arrays.copyOf(freeNodes, freeNodes.length << 1);
+    }
+    freeNodes[freeNodeCount++] = node;
+  }
+
+  /**
+   * Index of the target node in the links of the source node or -1.
+   */
+  protected int indexOfLink(int srcNode, int tgtNode) {
+    int[] links = nodeLinks.get(srcNode);
+    for(int i = 0; i < nodeLinkCounts.get(srcNode); i++) {
+      if(links[i] == tgtNode) return i;
+    }
+    return -1;
+  }
+
+  private void addLink(int srcNode, int tgtNode) {
+    // links are appended beyond the counts of the snapshots, so the
+    // link arrays they share can be used
+    changed();
+    int[] links = nodeLinks.get(srcNode);
+    int count = nodeLinkCounts.get(srcNode);
+    if(links == null) {
+      links = new int[2];
+    }
+    else if(count == links.length) {
+      links = Arrays.copyOf(links, count << 1);
+    }
+    links[count] = tgtNode;
+    if(links != nodeLinks.get(srcNode)) nodeLinks.set(srcNode, links);
+    nodeLinkCounts.set(srcNode, count + 1);
+
+    if(nodeWeights != null) {
+      float[] weights = nodeWeights.get(srcNode);
+      if(weights == null || weights.length < links.length) {
+        weights = weights == null ? new float[links.length] : Arrays.copyOf(
+                weights, links.length);
+        nodeWeights.set(srcNode, weights);
+      }
+      weights[count] = DEFAULT_WEIGHT;
+    }
+  }
+
+  private void removeLink(int srcNode, int tgtNode) {
+    int index = indexOfLink(srcNode, tgtNode);
+    if(index == -1) return;
+    changed();
+    ownRow(srcNode);
+    groupsValid = false;
+    int last = nodeLinkCounts.get(srcNode) - 1;
+    nodeLinkCounts.set(srcNode, last);
+    int[] links = nodeLinks.get(srcNode);
+    links[index] = links[last];
+    if(nodeWeights != null) {
+      float[] weights = nodeWeights.get(srcNode);
+      weights[index] = weights[last];
+    }
+    if(last == 0) {
+      freeNode(srcNode);
+    }
+  }
+
+  /**
+   * Weight of the link at the given index of the links of the node
+   */
+  protected float weightOf(int node, int index) {
+    return nodeWeights == null ? DEFAULT_WEIGHT : nodeWeights.get(node)[index];
+  }
+
+  /**
+   * Sets the weight of the link between the two linked nodes in both
+   * directions. The weight arrays are only allocated once a link gets a
+   * weight other than the default one.
+   */
+  private void setLinkWeight(int srcNode, int tgtNode, float weight) {
+    if(nodeWeights == null) {
+      if(weight == DEFAULT_WEIGHT) return;
+      changed();
+      nodeWeights = new PagedObjectArray<float[]>(nodeKeys.length());
+      for(int node = 0; node < nodeCount; node++) {
+        int[] links = nodeLinks.get(node);
+        if(links == null) continue;
+        float[] weights = new float[links.length];
+        Arrays.fill(weights, DEFAULT_WEIGHT);
+        nodeWeights.set(node, weights);
+      }
+    }
+    changed();
+    ownRow(srcNode);
+    ownRow(tgtNode);
+    nodeWeights.get(srcNode)[indexOfLink(srcNode, tgtNode)] = weight;
+    nodeWeights.get(tgtNode)[indexOfLink(tgtNode, srcNode)] = weight;
+  }
+
+  /**
+   * Returns a read-only snapshot of this alignment. The snapshot shares
+   * the pages of the node arrays with this alignment, so taking one
+   * takes time proportional to the number of pages and slots, not
+   * links. Afterwards, this alignment copies a page the first time it
+   * changes it, so the cost is proportional to the changes made since
+   * the last snapshot. The link arrays of a node are copied when one of
+   * its links is removed or gets a new weight. New links are appended
+   * to the shared link arrays since snapshots do not look beyond their
+   * own link counts. As long as nothing changes, the same snapshot is
+   * returned.
+   */
+  @Override
+  public AlignmentSnapshot snapshot() {
+    if(lastSnapshot == null) {
+      lastSnapshot = new AlignmentSnapshot(compoundDocument, this);
+      ownedRows = new BitSet();
+    }
+    return lastSnapshot;
+  }
+
+  /**
+   * Called before anything changes: the last snapshot does not match
+   * this alignment any more.
+   */
+  private void changed() {
+    lastSnapshot = null;
+  }
+
+  /**
+   * Copies the link and weight arrays of the node unless this has been
+   * done since the last snapshot was taken.
+   */
+  private void ownRow(int node) {
+    if(ownedRows == null || ownedRows.get(node)) return;
+    int[] links = nodeLinks.get(node);
+    if(links != null) nodeLinks.set(node, links.clone());
+    float[] weights = nodeWeights == null ? null : nodeWeights.get(node);
+    if(weights != null) nodeWeights.set(node, weights.clone());
+    ownedRows.set(node);
+  }
+
+  /**
+   * Returns the node of the annotation with the given id or -1 if it is
+   * not aligned.
+   */
+  protected int nodeOf(String documentID, String asName, int annotationId) {
+    int slot = findSlot(documentID, asName);
+    if(slot == -1) return -1;
+    int node = keyToNode.get(key(slot, annotationId));
+    return node == LongIntMap.NO_VALUE ? -1 : node;
+  }
+
+  /**
+   * Tells whether the annotation with the given id, from the given
+   * annotation set of the given member document, is aligned. No
+   * annotation needs to be resolved for this.
+   */
+  public boolean isAnnotationAligned(String documentID, String asName,
+          int annotationId) {
+    return nodeOf(documentID, asName, annotationId) != -1;
+  }
+
+  /**
+   * Tells whether the two annotations, identified by their member
+   * document ids, annotation set names and annotation ids, are aligned
+   * with each other. No annotation needs to be resolved for this.
+   */
+  public boolean areTheyAligned(String srcDocumentID, String srcAS,
+          int srcAnnotationId, String tgtDocumentID, String tgtAS,
+          int tgtAnnotationId) {
+    int srcNode = nodeOf(srcDocumentID, srcAS, srcAnnotationId);
+    if(srcNode == -1) return false;
+    int tgtNode = nodeOf(tgtDocumentID, tgtAS, tgtAnnotationId);
+    if(tgtNode == -1) return false;
+    return isLinked(srcNode, tgtNode);
+  }
+
+  /**
+   * Tells whether the two nodes are linked, searching the shorter of the
+   * two link arrays.
+   */
+  protected boolean isLinked(int srcNode, int tgtNode) {
+    if(nodeLinkCounts.get(srcNode) <= nodeLinkCounts.get(tgtNode)) {
+      return indexOfLink(srcNode, tgtNode) != -1;
+    }
+    return indexOfLink(tgtNode, srcNode) != -1;
+  }
+
+  /**
+   * Returns if two annotations are aligned with each other.
+   */
+  @Override
+  public boolean areTheyAligned(Annotation srcAnnotation,
+          Annotation targetAnnotation) {
+    int srcNode = nodeOf(srcAnnotation);
+    if(srcNode == -1) return false;
+    int tgtNode = nodeOf(targetAnnotation);
+    if(tgtNode == -1) return false;
+    return isLinked(srcNode, tgtNode);
+  }
+
+  /**
+   * Stores the link between the two annotations without notifying the
+   * listeners.
+   */
+  @Override
+  protected boolean doAlign(Annotation srcAnnotation, String srcAS,
+          Document srcDocument, Annotation targetAnnotation, String tgtAS,
+          Document targetDocument) {
+
+    if(srcAnnotation == null || targetAnnotation == null) return false;
+
+    int srcNode = nodeFor(key(slotFor(srcDocument.getName(), srcAS),
+            srcAnnotation.getId().intValue()));
+    int tgtNode = nodeFor(key(slotFor(targetDocument.getName(), tgtAS),
+            targetAnnotation.getId().intValue()));
+    if(indexOfLink(srcNode, tgtNode) != -1) return false;
+
+    boolean newSrcNode = nodeLinkCounts.get(srcNode) == 0;
+    boolean newTgtNode = nodeLinkCounts.get(tgtNode) == 0;
+    addLink(srcNode, tgtNode);
+    if(srcNode != tgtNode) addLink(tgtNode, srcNode);
+    listenTo(srcDocument, srcAS);
+    listenTo(targetDocument, tgtAS);
+
+    if(groupsValid) {
+      if(groupParents.length < nodeKeys.length()) {
+        groupParents = Arrays.copyOf(groupParents, nodeKeys.length());
+        groupSizes = Arrays.copyOf(groupSizes, nodeKeys.length());
+        groupNext = Arrays.copyOf(groupNext, nodeKeys.length());
+      }
+      if(newSrcNode) makeGroup(srcNode);
+      if(newTgtNode) makeGroup(tgtNode);
+      unionGroups(srcNode, tgtNode);
+    }
+    return true;
+  }
+
+  /**
+   * Makes the given node a group on its own.
+   */
+  private void makeGroup(int node) {
+    groupParents[node] = node;
+    groupSizes[node] = 1;
+    groupNext[node] = node;
+  }
+
+  /**
+   * Returns the root node of the group the given node belongs to.
+   */
+  private int findGroup(int node) {
+    while(groupParents[node] != node) {
+      // path halving
+      groupParents[node] = groupParents[groupParents[node]];
+      node = groupParents[node];
+    }
+    return node;
+  }
+
+  /**
+   * Merges the groups of the two nodes.
+   */
+  private void unionGroups(int node1, int node2) {
+    int root1 = findGroup(node1);
+    int root2 = findGroup(node2);
+    if(root1 == root2) return;
+    if(groupSizes[root1] < groupSizes[root2]) {
+      int temp = root1;
+      root1 = root2;
+      root2 = temp;
+    }
+    groupParents[root2] = root1;
+    groupSizes[root1] += groupSizes[root2];
+
+    // splice the two rings
+    int next = groupNext[root1];
+    groupNext[root1] = groupNext[root2];
+    groupNext[root2] = next;
+  }
+
+  /**
+   * Rebuilds the groups from the links if they are not valid.
+   */
+  protected void ensureGroups() {
+    if(groupsValid) return;
+    groupParents = new int[nodeKeys.length()];
+    groupSizes = new int[nodeKeys.length()];
+    groupNext = new int[nodeKeys.length()];
+    for(int node = 0; node < nodeCount; node++) {
+      makeGroup(node);
+    }
+    for(int node = 0; node < nodeCount; node++) {
+      int[] links = nodeLinks.get(node);
+      for(int i = 0; i < nodeLinkCounts.get(node); i++) {
+        unionGroups(node, links[i]);
+      }
+    }
+    groupsValid = true;
+  }
+
+  /**
+   * Resolves the annotations of the group the given node belongs to.
+   */
+  private Set<Annotation> resolveGroup(int node) {
+    Set<Annotation> group = new HashSet<Annotation>();
+    int member = node;
+    do {
+      Annotation annot = resolve(member);
+      if(annot != null) group.add(annot);
+      member = groupNext[member];
+    } while(member != node);
+    return group;
+  }
+
+  /**
+   * Returns the alignment group of the given annotation. The groups are
+   * maintained incrementally, so this takes time proportional to the
+   * size of the group.
+   */
+  @Override
+  public Set<Annotation> getGroup(Annotation annotation) {
+    int node = nodeOf(annotation);
+    if(node == -1) return new HashSet<Annotation>();
+    ensureGroups();
+    return resolveGroup(node);
+  }
+
+  /**
+   * Returns all the alignment groups.
+   */
+  @Override
+  public List<Set<Annotation>> groups() {
+    ensureGroups();
+    List<Set<Annotation>> groups = new ArrayList<Set<Annotation>>();
+    for(int node = 0; node < nodeCount; node++) {
+      if(nodeLinkCounts.get(node) == 0 || findGroup(node) != node) continue;
+      groups.add(resolveGroup(node));
+    }
+    return groups;
+  }
+
+  /**
+   * Removes the link between the two annotations without notifying the
+   * listeners.
+   */
+  @Override
+  protected boolean doUnalign(Annotation srcAnnotation, String srcAS,
+          Document srcDocument, Annotation targetAnnotation, String tgtAS,
+          Document targetDocument) {
+
+    if(srcAnnotation == null || targetAnnotation == null) return false;
+    int srcNode = nodeOf(srcAnnotation);
+    if(srcNode == -1) return false;
+    int tgtNode = nodeOf(targetAnnotation);
+    if(tgtNode == -1) return false;
+    if(indexOfLink(srcNode, tgtNode) == -1) return false;
+
+    removeLink(srcNode, tgtNode);
+    if(srcNode != tgtNode) removeLink(tgtNode, srcNode);
+    return true;
+  }
+
+  /**
+   * Removes all links of the given annotations, which belong or
+   * belonged to the given annotation set. Nodes are found by annotation
+   * id since deleted annotations cannot be resolved any more.
+   */
+  @Override
+  protected List<Link> pruneAnnotations(AnnotationSet set,
+          Collection<Annotation> annotations) {
+    List<Link> links = new ArrayList<Link>();
+    Document doc = set.getDocument();
+    int slot = findSlot(doc.getName(), set.getName());
+    if(slot == -1) return links;
+
+    for(Annotation annot : annotations) {
+      int node = keyToNode.get(key(slot, annot.getId().intValue()));
+      if(node == LongIntMap.NO_VALUE) continue;
+
+      // removing the last link frees the node
+      while(nodeLinkCounts.get(node) > 0) {
+        int other = nodeLinks.get(node)[nodeLinkCounts.get(node) - 1];
+        int otherSlot = slotOf(nodeKeys.get(other));
+        Annotation otherAnnot = other == node ? annot : resolve(other);
+        removeLink(node, other);
+        if(other != node) removeLink(other, node);
+        if(otherAnnot != null) {
+          links.add(new Link(annot, slotASNames.get(slot), doc, otherAnnot,
+                  slotASNames.get(otherSlot), compoundDocument
+                          .getDocument(slotDocumentIDs.get(otherSlot))));
+        }
+      }
+    }
+    return links;
+  }
+
+  /**
+   * The annotation set is gone and a set created later with the same
+   * name is a different object.
+   */
+  @Override
+  public void annotationSetRemoved(DocumentEvent de) {
+    super.annotationSetRemoved(de);
+    dropCaches();
+  }
+
+  /**
+   * Links refer to annotations by id, so they stay valid; only the sets
+   * of the unloaded member are forgotten.
+   */
+  @Override
+  public void memberUnloaded(Document document) {
+    super.memberUnloaded(document);
+    dropCaches();
+  }
+
+  /**
+   * Offsets of annotations may have changed.
+   */
+  @Override
+  public void contentEdited(DocumentEvent de) {
+    dropCaches();
+  }
+
+  /**
+   * Returns the weight of the link between the two annotations or 0 if
+   * they are not aligned.
+   */
+  @Override
+  public float getWeight(Annotation srcAnnotation, Annotation targetAnnotation) {
+    int srcNode = nodeOf(srcAnnotation);
+    if(srcNode == -1) return 0f;
+    int tgtNode = nodeOf(targetAnnotation);
+    if(tgtNode == -1) return 0f;
+    int index = indexOfLink(srcNode, tgtNode);
+    return index == -1 ? 0f : weightOf(srcNode, index);
+  }
+
+  /**
+   * Sets the weight of the link between the two annotations.
+   */
+  @Override
+  protected boolean doSetWeight(Annotation srcAnnotation,
+          Annotation targetAnnotation, float weight) {
+    int srcNode = nodeOf(srcAnnotation);
+    if(srcNode == -1) return false;
+    int tgtNode = nodeOf(targetAnnotation);
+    if(tgtNode == -1 || indexOfLink(srcNode, tgtNode) == -1) return false;
+    setLinkWeight(srcNode, tgtNode, weight);
+    return true;
+  }
+
+  /**
+   * Returns at most k annotations aligned with the given annotation, the
+   * one with the highest link weight first. The best links are picked
+   * straight from the weight array of the node.
+   */
+  @Override
+  public List<Annotation> topK(Annotation annotation, int k) {
+    List<Annotation> toReturn = new ArrayList<Annotation>();
+    int node = nodeOf(annotation);
+    if(node == -1 || k <= 0) return toReturn;
+
+    // indexes of the best links found so far, the best one first
+    int[] best = new int[Math.min(k, nodeLinkCounts.get(node))];
+    int size = 0;
+    for(int i = 0; i < nodeLinkCounts.get(node); i++) {
+      float weight = weightOf(node, i);
+      int j;
+      if(size < best.length) {
+        j = size++;
+      }
+      else if(weight > weightOf(node, best[size - 1])) {
+        j = size - 1;
+      }
+      else {
+        continue;
+      }
+      while(j > 0 && weightOf(node, best[j - 1]) < weight) {
+        best[j] = best[j - 1];
+        j--;
+      }
+      best[j] = i;
+    }
+
+    for(int i = 0; i < size; i++) {
+      Annotation annot = resolve(nodeLinks.get(node)[best[i]]);
+      if(annot != null) toReturn.add(annot);
+    }
+    return toReturn;
+  }
+
+  /**
+   * Removes all links with a weight below the given threshold. Links
+   * whose annotations cannot be resolved are removed as well but are not
+   * returned.
+   */
+  @Override
+  protected List<Link> doPruneBelow(float threshold) {
+    // collect first since removing links reorders the link arrays
+    int[] pairs = new int[16];
+    int pairCount = 0;
+    for(int node = 0; node < nodeCount; node++) {
+      for(int i = 0; i < nodeLinkCounts.get(node); i++) {
+        int other = nodeLinks.get(node)[i];
+        if(other < node || weightOf(node, i) >= threshold) continue;
+        if(pairCount + 2 > pairs.length) {
+          pairs = Arrays.copyOf(pairs, pairs.length << 1);
+        }
+        pairs[pairCount++] = node;
+        pairs[pairCount++] = other;
+      }
+    }
+
+    List<Link> links = new ArrayList<Link>();
+    for(int i = 0; i < pairCount; i += 2) {
+      int srcNode = pairs[i];
+      int tgtNode = pairs[i + 1];
+      float weight = weightOf(srcNode, indexOfLink(srcNode, tgtNode));
+      Annotation srcAnnot = resolve(srcNode);
+      Annotation tgtAnnot = resolve(tgtNode);
+      if(srcAnnot != null && tgtAnnot != null) {
+        int srcSlot = slotOf(nodeKeys.get(srcNode));
+        int tgtSlot = slotOf(nodeKeys.get(tgtNode));
+        links.add(new Link(srcAnnot, slotASNames.get(srcSlot),
+                compoundDocument.getDocument(slotDocumentIDs.get(srcSlot)),
+                tgtAnnot, slotASNames.get(tgtSlot), compoundDocument
+                        .getDocument(slotDocumentIDs.get(tgtSlot)), weight));
+      }
+      removeLink(srcNode, tgtNode);
+      if(srcNode != tgtNode) removeLink(tgtNode, srcNode);
+    }
+    return links;
+  }
+
+  /**
+   * Returns a set of aligned annotations.
+   */
+  @Override
+  public Set<Annotation> getAlignedAnnotations() {
+    Set<Annotation> toReturn = new HashSet<Annotation>();
+    for(int node = 0; node < nodeCount; node++) {
+      if(nodeLinkCounts.get(node) == 0) continue;
+      Annotation annot = resolve(node);
+      if(annot != null) toReturn.add(annot);
+    }
+    return toReturn;
+  }
+
+  /**
+   * Given the annotation, this method returns a set of the aligned
+   * annotations to that annotation.
+   */
+  @Override
+  public Set<Annotation> getAlignedAnnotations(Annotation srcAnnotation) {
+    Set<Annotation> toReturn = new HashSet<Annotation>();
+    int node = nodeOf(srcAnnotation);
+    if(node == -1) return toReturn;
+    int[] links = nodeLinks.get(node);
+    for(int i = 0; i < nodeLinkCounts.get(node); i++) {
+      Annotation annot = resolve(links[i]);
+      if(annot != null) toReturn.add(annot);
+    }
+    return toReturn;
+  }
+
+  /**
+   * Returns an unmodifiable view of the aligned annotations. Annotations
+   * are resolved from the compound document while iterating and those
+   * that cannot be found are skipped, also by size(), which therefore
+   * iterates.
+   */
+  @Override
+  public Set<Annotation> getAlignedAnnotationsView() {
+    return new AnnotationView() {
+      public Iterator<Annotation> iterator() {
+        return new NodeIterator() {
+          int next = -1;
+
+          int advance() {
+            while(++next < nodeCount && nodeLinkCounts.get(next) == 0)
+              ;
+            return next < nodeCount ? next : -1;
+          }
+        };
+      }
+
+      public boolean contains(Object o) {
+        return o instanceof Annotation && isAnnotationAligned((Annotation)o);
+      }
+    };
+  }
+
+  /**
+   * Returns an unmodifiable view of the annotations aligned with the
+   * given annotation. Annotations are resolved from the compound
+   * document while iterating and those that cannot be found are
+   * skipped, also by size().
+   */
+  @Override
+  public Set<Annotation> getAlignedAnnotationsView(
+          final Annotation srcAnnotation) {
+    return new AnnotationView() {
+      public Iterator<Annotation> iterator() {
+        final int node = nodeOf(srcAnnotation);
+        return new NodeIterator() {
+          int next = -1;
+
+          int advance() {
+            if(node == -1 || ++next >= nodeLinkCounts.get(node)) return -1;
+            return nodeLinks.get(node)[next];
+          }
+        };
+      }
+
+      public boolean contains(Object o) {
+        return o instanceof Annotation
+                && areTheyAligned(srcAnnotation, (Annotation)o);
+      }
+    };
+  }
+
+  /**
+   * A view of annotations whose size is that of its iteration, as
+   * annotations that cannot be resolved are skipped.
+   */
+  private abstract class AnnotationView extends AbstractSet<Annotation> {
+    public int size() {
+      int size = 0;
+      for(Iterator<Annotation> iter = iterator(); iter.hasNext(); iter.next()) {
+        size++;
+      }
+      return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return !iterator().hasNext();
+    }
+  }
+
+  /**
+   * Iterates over the annotations of nodes returned by advance(), which
+   * returns -1 when there are no more nodes. Nodes that cannot be
+   * resolved are skipped.
+   */
+  private abstract class NodeIterator implements Iterator<Annotation> {
+    Annotation nextAnnotation;
+
+    abstract int advance();
+
+    public boolean hasNext() {
+      while(nextAnnotation == null) {
+        int node = advance();
+        if(node == -1) return false;
+        nextAnnotation = resolve(node);
+      }
+      return true;
+    }
+
+    public Annotation next() {
+      if(!hasNext()) throw new NoSuchElementException();
+      Annotation toReturn = nextAnnotation;
+      nextAnnotation = null;
+      return toReturn;
+    }
+  }
+
+  /**
+   * Calls the consumer for every annotation aligned with the given
+   * annotation.
+   */
+  @Override
+  public void forEachAligned(Annotation srcAnnotation,
+          Consumer<? super Annotation> consumer) {
+    int node = nodeOf(srcAnnotation);
+    if(node == -1) return;
+    int[] links = nodeLinks.get(node);
+    for(int i = 0; i < nodeLinkCounts.get(node); i++) {
+      Annotation annot = resolve(links[i]);
+      if(annot != null) consumer.accept(annot);
+    }
+  }
+
+  /**
+   * Returns the number of annotations aligned with the given annotation.
+   */
+  @Override
+  public int alignedCount(Annotation srcAnnotation) {
+    int node = nodeOf(srcAnnotation);
+    return node == -1 ? 0 : nodeLinkCounts.get(node);
+  }
+
+  /**
+   * Drops the offset index of the given slot.
+   */
+  private void dropOffsetIndex(int slot) {
+    if(slotOffsetIndexes != null && slot < slotOffsetIndexes.length) {
+      slotOffsetIndexes[slot] = null;
+    }
+  }
+
+  /**
+   * Returns the offset index of the given slot, building it if needed.
+   * Annotations that cannot be resolved are left out.
+   */
+  protected long[] getOffsetIndex(int slot) {
+    // a local copy, as resolving may load members and drop the caches
+    long[][] indexes = slotOffsetIndexes;
+    if(indexes == null) {
+      indexes = new long[slotDocumentIDs.size()][];
+      slotOffsetIndexes = indexes;
+    }
+    else if(indexes.length < slotDocumentIDs.size()) {
+      indexes = Arrays.copyOf(indexes, slotDocumentIDs.size());
+      slotOffsetIndexes = indexes;
+    }
+
+    long[] index = indexes[slot];
+    if(index != null) return index;
+
+    index = new long[16];
+    int size = 0;
+    for(int node = 0; node < nodeCount; node++) {
+      if(nodeLinkCounts.get(node) == 0 || slotOf(nodeKeys.get(node)) != slot) continue;
+      Annotation annot = resolve(node);
+      if(annot == null) continue;
+      if(size == index.length) index = Arrays.copyOf(index, size << 1);
+      // offsets fit in 32 bits since the content of a document is a string
+      index[size++] = (annot.getStartNode().getOffset().longValue() << 32)
+              | node;
+    }
+    index = Arrays.copyOf(index, size);
+    Arrays.sort(index);
+    indexes[slot] = index;
+    return index;
+  }
+
+  /**
+   * Returns the aligned annotations from the given annotation set of the
+   * given member document that lie within the given offsets, sorted by
+   * their start offsets. A binary search on the offset index of the slot
+   * finds the first annotation, so only the annotations starting within
+   * the offsets are looked at.
+   */
+  @Override
+  public List<Annotation> getAlignedIn(String documentID, String asName,
+          long start, long end) {
+    List<Annotation> toReturn = new ArrayList<Annotation>();
+    int slot = findSlot(documentID, asName);
+    if(slot == -1) return toReturn;
+
+    long[] index = getOffsetIndex(slot);
+    int i = Arrays.binarySearch(index, Math.max(start, 0) << 32);
+    if(i < 0) i = -i - 1;
+    for(; i < index.length && (index[i] >>> 32) <= end; i++) {
+      Annotation annot = resolve((int)index[i]);
+      if(annot != null && annot.getEndNode().getOffset().longValue() <= end) {
+        toReturn.add(annot);
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * This method tells which document the given annotation belongs to.
+   */
+  @Override
+  public Document getDocument(Annotation annotation) {
+    int node = nodeOf(annotation);
+    if(node == -1) return compoundDocument.getDocument(null);
+    return compoundDocument.getDocument(slotDocumentIDs.get(slotOf(
+            nodeKeys.get(node))));
+  }
+
+  @Override
+  public String getAnnotationSetName(Annotation annotation) {
+    int node = nodeOf(annotation);
+    if(node == -1) return null;
+    return slotASNames.get(slotOf(nodeKeys.get(node)));
+  }
+
+  /**
+   * This method tells whether the given annotation is aligned or not.
+   */
+  @Override
+  public boolean isAnnotationAligned(Annotation srcAnnotation) {
+    return nodeOf(srcAnnotation) != -1;
+  }
+
+  /**
+   * Tells whether any annotation of the member document with the given
+   * id is aligned, from the arrays; the member is not loaded for it.
+   */
+  @Override
+  public boolean isMemberAligned(String documentID) {
+    for(int node = 0; node < nodeCount; node++) {
+      if(nodeLinkCounts.get(node) == 0) continue;
+      if(slotDocumentIDs.get(slotOf(nodeKeys.get(node))).equals(documentID)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Visits every link once, straight from the arrays.
+   */
+  @Override
+  protected void visitLinkIds(LinkIdVisitor visitor) {
+    for(int node = 0; node < nodeCount; node++) {
+      for(int i = 0; i < nodeLinkCounts.get(node); i++) {
+        int other = nodeLinks.get(node)[i];
+        if(other < node) continue;
+        int srcSlot = slotOf(nodeKeys.get(node));
+        int tgtSlot = slotOf(nodeKeys.get(other));
+        visitor.link(slotDocumentIDs.get(srcSlot), slotASNames.get(srcSlot),
+                idOf(nodeKeys.get(node)), slotDocumentIDs.get(tgtSlot), slotASNames
+                        .get(tgtSlot), idOf(nodeKeys.get(other)), weightOf(node, i));
+      }
+    }
+  }
+
+  /**
+   * Measures the size and shape of this alignment from the arrays, no
+   * annotation is resolved. The estimated size includes the caches built
+   * so far.
+   */
+  @Override
+  public AlignmentStatistics getStatistics() {
+    AlignmentStatistics statistics = new AlignmentStatistics();
+    long bytes = AlignmentStatistics.arrayBytes(nodeKeys.length(), 8)
+            + AlignmentStatistics.arrayBytes(nodeLinks.length(),
+                    AlignmentStatistics.REFERENCE_BYTES)
+            + AlignmentStatistics.arrayBytes(nodeLinkCounts.length(), 4)
+            + AlignmentStatistics.arrayBytes(freeNodes.length, 4)
+            + AlignmentStatistics.arrayBytes(keyToNode.capacity(), 8 + 4);
+    if(nodeWeights != null) {
+      bytes += AlignmentStatistics.arrayBytes(nodeWeights.length(),
+              AlignmentStatistics.REFERENCE_BYTES);
+    }
+    for(int node = 0; node < nodeCount; node++) {
+      if(nodeLinks.get(node) != null) {
+        bytes += AlignmentStatistics.arrayBytes(nodeLinks.get(node).length, 4);
+      }
+      if(nodeWeights != null && nodeWeights.get(node) != null) {
+        bytes += AlignmentStatistics.arrayBytes(nodeWeights.get(node).length, 4);
+      }
+      if(nodeLinkCounts.get(node) == 0) continue;
+      int slot = slotOf(nodeKeys.get(node));
+      statistics.addAnnotation(slotDocumentIDs.get(slot),
+              slotASNames.get(slot), nodeLinkCounts.get(node));
+      if(indexOfLink(node, node) != -1) statistics.addSelfLink();
+    }
+    if(groupParents != null) {
+      bytes += 3 * AlignmentStatistics.arrayBytes(groupParents.length, 4);
+    }
+    long[][] offsetIndexes = slotOffsetIndexes;
+    if(offsetIndexes != null) {
+      for(long[] index : offsetIndexes) {
+        if(index != null) bytes += AlignmentStatistics.arrayBytes(index.length, 8);
+      }
+    }
+    statistics.setEstimatedBytes(bytes);
+    return statistics.finish();
+  }
+
+  /**
+   * Writes the alignment in a compact binary form. After the version
+   * number, the slots are written followed by the links grouped by the
+   * slots of their two ends. Within a group the links are sorted and
+   * each pair of annotation ids is written as varint encoded deltas to
+   * the previous pair, followed by the weight of the link if any link
+   * has a weight other than the default one. The whole thing is written
+   * as a single byte array, which XStream also stores as a single base64
+   * encoded element.
+   */
+  public void writeExternal(ObjectOutput out) throws IOException {
+    // first the number of links for every pair of slots
+    LongIntMap groupIndexes = new LongIntMap();
+    long[] groupSlots = new long[16];
+    int[] groupSizes = new int[16];
+    int groupCount = 0;
+    for(int node = 0; node < nodeCount; node++) {
+      for(int i = 0; i < nodeLinkCounts.get(node); i++) {
+        int other = nodeLinks.get(node)[i];
+        if(other < node) continue;
+        long slots = slotPair(node, other);
+        int group = groupIndexes.get(slots);
+        if(group == LongIntMap.NO_VALUE) {
+          if(groupCount == groupSlots.length) {
+            groupSlots = Arrays.copyOf(groupSlots, groupCount << 1);
+            groupSizes = Arrays.copyOf(groupSizes, groupCount << 1);
+          }
+          group = groupCount++;
+          groupIndexes.put(slots, group);
+          groupSlots[group] = slots;
+        }
+        groupSizes[group]++;
+      }
+    }
+
+    // then the id pairs of each group
+    long[][] groupLinks = new long[groupCount][];
+    for(int group = 0; group < groupCount; group++) {
+      groupLinks[group] = new long[groupSizes[group]];
+      groupSizes[group] = 0;
+    }
+    for(int node = 0; node < nodeCount; node++) {
+      for(int i = 0; i < nodeLinkCounts.get(node); i++) {
+        int other = nodeLinks.get(node)[i];
+        if(other < node) continue;
+        int group = groupIndexes.get(slotPair(node, other));
+        int srcSlot = slotOf(nodeKeys.get(node));
+        int tgtSlot = slotOf(nodeKeys.get(other));
+        int srcId = idOf(nodeKeys.get(node));
+        int tgtId = idOf(nodeKeys.get(other));
+        // ids in the same order as the slots in the group key
+        if(srcSlot > tgtSlot || (srcSlot == tgtSlot && srcId > tgtId)) {
+          int temp = srcId;
+          srcId = tgtId;
+          tgtId = temp;
+        }
+        groupLinks[group][groupSizes[group]++] = ((long)srcId << 32)
+                | (tgtId & 0xFFFFFFFFL);
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream data = new DataOutputStream(bytes);
+    writeVarInt(data, slotDocumentIDs.size());
+    for(int slot = 0; slot < slotDocumentIDs.size(); slot++) {
+      data.writeUTF(slotDocumentIDs.get(slot));
+      String asName = slotASNames.get(slot);
+      data.writeBoolean(asName != null);
+      if(asName != null) data.writeUTF(asName);
+    }
+
+    boolean weighted = nodeWeights != null;
+    data.writeBoolean(weighted);
+    writeVarInt(data, groupCount);
+    for(int group = 0; group < groupCount; group++) {
+      long[] links = groupLinks[group];
+      Arrays.sort(links);
+      writeVarInt(data, (int)(groupSlots[group] >>> 32));
+      writeVarInt(data, (int)groupSlots[group]);
+      writeVarInt(data, links.length);
+      int previousSrcId = 0;
+      int previousTgtId = 0;
+      for(long link : links) {
+        int srcId = (int)(link >>> 32);
+        int tgtId = (int)link;
+        writeVarInt(data, srcId - previousSrcId);
+        // target ids are not sorted, so the delta can be negative
+        int delta = tgtId - previousTgtId;
+        writeVarInt(data, (delta << 1) ^ (delta >> 31));
+        previousSrcId = srcId;
+        previousTgtId = tgtId;
+        if(weighted) {
+          int srcNode = keyToNode.get(key((int)(groupSlots[group] >>> 32),
+                  srcId));
+          int tgtNode = keyToNode.get(key((int)groupSlots[group], tgtId));
+          data.writeFloat(weightOf(srcNode, indexOfLink(srcNode, tgtNode)));
+        }
+      }
+    }
+    data.flush();
+
+    out.writeInt(FORMAT_VERSION);
+    out.writeObject(bytes.toByteArray());
+  }
+
+  /**
+   * Reads the alignment written by writeExternal(ObjectOutput). Only
+   * ids are read, the annotations are resolved against the member
+   * documents of the compound document when they are asked for.
+   */
+  public void readExternal(ObjectInput in) throws IOException,
+          ClassNotFoundException {
+    int version = in.readInt();
+    if(version < 1 || version > FORMAT_VERSION) {
+      throw new InvalidObjectException("Unsupported alignment format version "
+              + version);
+    }
+
+    DataInputStream data = new DataInputStream(new ByteArrayInputStream(
+            (byte[])in.readObject()));
+    int slotCount = readVarInt(data);
+    for(int slot = 0; slot < slotCount; slot++) {
+      slotDocumentIDs.add(data.readUTF());
+      slotASNames.add(data.readBoolean() ? data.readUTF() : null);
+    }
+
+    // weights were added in version 2
+    boolean weighted = version >= 2 && data.readBoolean();
+    int groupCount = readVarInt(data);
+    for(int group = 0; group < groupCount; group++) {
+      int srcSlot = readVarInt(data);
+      int tgtSlot = readVarInt(data);
+      int linkCount = readVarInt(data);
+      int srcId = 0;
+      int tgtId = 0;
+      for(int i = 0; i < linkCount; i++) {
+        srcId += readVarInt(data);
+        int delta = readVarInt(data);
+        tgtId += (delta >>> 1) ^ -(delta & 1);
+        int srcNode = nodeFor(key(srcSlot, srcId));
+        int tgtNode = nodeFor(key(tgtSlot, tgtId));
+        addLink(srcNode, tgtNode);
+        if(srcNode != tgtNode) addLink(tgtNode, srcNode);
+        if(weighted) setLinkWeight(srcNode, tgtNode, data.readFloat());
+      }
+    }
+  }
+
+  /**
+   * Slots of the two nodes, the smaller one in the upper 32 bits.
+   */
+  private long slotPair(int node1, int node2) {
+    int slot1 = slotOf(nodeKeys.get(node1));
+    int slot2 = slotOf(nodeKeys.get(node2));
+    return slot1 <= slot2 ? ((long)slot1 << 32) | slot2 : ((long)slot2 << 32)
+            | slot1;
+  }
+
+  /**
+   * Writes the value using seven bits per byte, the highest bit telling
+   * whether more bytes follow.
+   */
+  private static void writeVarInt(DataOutput out, int value)
+          throws IOException {
+    while((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  /**
+   * Reads a value written by writeVarInt(DataOutput, int).
+   */
+  private static int readVarInt(DataInput in) throws IOException {
+    int value = 0;
+    for(int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if((b & 0x80) == 0) return value;
+    }
+    throw new InvalidObjectException("Malformed varint");
+  }
+}
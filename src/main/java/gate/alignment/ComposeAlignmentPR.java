@@ -0,0 +1,344 @@
+package gate.alignment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.ProcessingResource;
+import gate.Resource;
+import gate.compound.CompoundDocument;
+import gate.creole.AbstractLanguageAnalyser;
+import gate.creole.ExecutionException;
+import gate.creole.ResourceInstantiationException;
+import gate.creole.metadata.CreoleParameter;
+import gate.creole.metadata.CreoleResource;
+import gate.creole.metadata.Optional;
+import gate.creole.metadata.RunTime;
+
+/**
+ * A PR that composes two alignments through a pivot member of the
+ * compound document. Given an alignment between the source and the
+ * pivot document (e.g. en-fr) and one between the pivot and the target
+ * document (e.g. fr-de), a source annotation is aligned with every
+ * target annotation that is aligned with one of its pivot annotations.
+ * This is the boolean product of the two sparse link matrices, computed
+ * by following the links of each source annotation, so its cost is
+ * proportional to the number of links rather than the number of
+ * annotations cubed. Source annotations are processed in parallel, one
+ * parent of unit of alignment (e.g. sentence) at a time.
+ */
+@CreoleResource(comment = "A PR to compose two alignments through a pivot document.")
+public class ComposeAlignmentPR extends AbstractLanguageAnalyser implements
+                                                                ProcessingResource {
+
+  private static final long serialVersionUID = 4625470366474328617L;
+
+  /**
+   * name of the document feature with the source to pivot alignment
+   */
+  private String srcToPivotAlignmentFeatureName;
+
+  /**
+   * name of the document feature with the pivot to target alignment
+   */
+  private String pivotToTgtAlignmentFeatureName;
+
+  /**
+   * name of the document feature where the composed alignment is stored
+   */
+  private String outputAlignmentFeatureName;
+
+  /**
+   * annotation type that has been used as parent of unit of alignment.
+   */
+  private String parentOfUnitOfAlignment;
+
+  /**
+   * annotation type that has been used as unit of alignment.
+   */
+  private String unitOfAlignment;
+
+  /**
+   * id of the source document
+   */
+  private String sourceDocumentID;
+
+  /**
+   * id of the pivot document
+   */
+  private String pivotDocumentID;
+
+  /**
+   * id of the target document
+   */
+  private String targetDocumentID;
+
+  /**
+   * name of the annotation set of the source document which has
+   * annotations for the unit of alignment and parent of unit of
+   * alignment
+   */
+  private String inputASName;
+
+  /**
+   * number of threads, all available processors if not positive
+   */
+  private Integer numberOfThreads;
+
+  /** Initialise this resource, and return it. */
+  public Resource init() throws ResourceInstantiationException {
+    return this;
+  }
+
+  /* this method is called to re-initialise the resource */
+  public void reInit() throws ResourceInstantiationException {
+    init();
+  }
+
+  /**
+   * The main logic of the PR.
+   */
+  public void execute() throws ExecutionException {
+
+    // check if the right document provided
+    if(!(this.document instanceof CompoundDocument)) {
+      throw new ExecutionException(this.document.getName()
+              + "not instance of CompoundDocument");
+    }
+
+    CompoundDocument cd = (CompoundDocument)this.document;
+    final Document srcDoc = cd.getDocument(sourceDocumentID);
+    final Document pivotDoc = cd.getDocument(pivotDocumentID);
+    final Document tgtDoc = cd.getDocument(targetDocumentID);
+    if(srcDoc == null || pivotDoc == null || tgtDoc == null) {
+      throw new ExecutionException("Document " + sourceDocumentID + ", "
+              + pivotDocumentID + " or " + targetDocumentID
+              + " not found in " + cd.getName());
+    }
+
+    // getAlignmentInformation would silently create empty alignments
+    Set<String> alignmentFeatureNames = cd.getAllAlignmentFeatureNames();
+    if(!alignmentFeatureNames.contains(srcToPivotAlignmentFeatureName)
+            || !alignmentFeatureNames.contains(pivotToTgtAlignmentFeatureName)) {
+      throw new ExecutionException("Alignment " + srcToPivotAlignmentFeatureName
+              + " or " + pivotToTgtAlignmentFeatureName + " not found in "
+              + cd.getName());
+    }
+
+    final Alignment srcToPivot = cd
+            .getAlignmentInformation(srcToPivotAlignmentFeatureName);
+    final Alignment pivotToTgt = cd
+            .getAlignmentInformation(pivotToTgtAlignmentFeatureName);
+    Alignment output = cd.getAlignmentInformation(outputAlignmentFeatureName);
+
+    // the units are looked up here since annotation sets build their
+    // offset indexes lazily and must not be used by several threads
+    final String srcASName = inputASName == null
+            || inputASName.trim().length() == 0 ? null : inputASName;
+    List<List<Annotation>> chunks = getUnitChunks(srcASName == null ? srcDoc
+            .getAnnotations() : srcDoc.getAnnotations(srcASName));
+
+    int threads = numberOfThreads == null || numberOfThreads.intValue() <= 0
+            ? Runtime.getRuntime().availableProcessors()
+            : numberOfThreads.intValue();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math
+            .min(threads, chunks.size())));
+    List<Link> links = new ArrayList<Link>();
+    try {
+      List<Future<List<Link>>> futures = new ArrayList<Future<List<Link>>>();
+      for(final List<Annotation> chunk : chunks) {
+        futures.add(executor.submit(new Callable<List<Link>>() {
+          public List<Link> call() {
+            return compose(chunk, srcASName, srcDoc, srcToPivot, pivotDoc,
+                    pivotToTgt, tgtDoc);
+          }
+        }));
+      }
+      for(Future<List<Link>> future : futures) {
+        links.addAll(future.get());
+      }
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExecutionException(e);
+    }
+    catch(java.util.concurrent.ExecutionException e) {
+      throw new ExecutionException(e.getCause());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    // the output alignment is only changed from this thread
+    output.alignAll(links);
+  }
+
+  /**
+   * Splits the units of the source document by their parents. Units
+   * outside every parent are put in a chunk of their own, and without
+   * parents all units make a single chunk.
+   */
+  private List<List<Annotation>> getUnitChunks(AnnotationSet inputAS) {
+    List<List<Annotation>> chunks = new ArrayList<List<Annotation>>();
+    AnnotationSet units = inputAS.get(unitOfAlignment);
+    if(parentOfUnitOfAlignment == null
+            || parentOfUnitOfAlignment.trim().length() == 0) {
+      chunks.add(new ArrayList<Annotation>(units));
+      return chunks;
+    }
+
+    // annotations compare by their contents, so identity is used
+    Set<Annotation> remaining = Collections
+            .newSetFromMap(new IdentityHashMap<Annotation, Boolean>());
+    remaining.addAll(units);
+    for(Annotation parent : inputAS.get(parentOfUnitOfAlignment)) {
+      List<Annotation> chunk = new ArrayList<Annotation>();
+      for(Annotation unit : units.getContained(parent.getStartNode()
+              .getOffset(), parent.getEndNode().getOffset())) {
+        if(remaining.remove(unit)) chunk.add(unit);
+      }
+      if(!chunk.isEmpty()) chunks.add(chunk);
+    }
+    if(!remaining.isEmpty()) chunks.add(new ArrayList<Annotation>(remaining));
+    return chunks;
+  }
+
+  /**
+   * Returns the links between the given source units and the target
+   * annotations reachable from them through an annotation of the pivot
+   * document.
+   */
+  static List<Link> compose(List<Annotation> srcUnits, String srcASName,
+          Document srcDoc, Alignment srcToPivot, Document pivotDoc,
+          Alignment pivotToTgt, Document tgtDoc) {
+    List<Link> links = new ArrayList<Link>();
+    for(Annotation srcUnit : srcUnits) {
+      Set<Annotation> targets = Collections
+              .newSetFromMap(new IdentityHashMap<Annotation, Boolean>());
+      for(Annotation pivot : srcToPivot.getAlignedAnnotationsView(srcUnit)) {
+        if(srcToPivot.getDocument(pivot) != pivotDoc) continue;
+        for(Annotation tgt : pivotToTgt.getAlignedAnnotationsView(pivot)) {
+          if(pivotToTgt.getDocument(tgt) != tgtDoc || !targets.add(tgt))
+            continue;
+          links.add(new Link(srcUnit, srcASName, srcDoc, tgt, pivotToTgt
+                  .getAnnotationSetName(tgt), tgtDoc));
+        }
+      }
+    }
+    return links;
+  }
+
+  public String getSrcToPivotAlignmentFeatureName() {
+    return srcToPivotAlignmentFeatureName;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "word-alignment")
+  public void setSrcToPivotAlignmentFeatureName(
+          String srcToPivotAlignmentFeatureName) {
+    this.srcToPivotAlignmentFeatureName = srcToPivotAlignmentFeatureName;
+  }
+
+  public String getPivotToTgtAlignmentFeatureName() {
+    return pivotToTgtAlignmentFeatureName;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "word-alignment")
+  public void setPivotToTgtAlignmentFeatureName(
+          String pivotToTgtAlignmentFeatureName) {
+    this.pivotToTgtAlignmentFeatureName = pivotToTgtAlignmentFeatureName;
+  }
+
+  public String getOutputAlignmentFeatureName() {
+    return outputAlignmentFeatureName;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "pivot-word-alignment")
+  public void setOutputAlignmentFeatureName(String outputAlignmentFeatureName) {
+    this.outputAlignmentFeatureName = outputAlignmentFeatureName;
+  }
+
+  public String getParentOfUnitOfAlignment() {
+    return parentOfUnitOfAlignment;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "Sentence")
+  public void setParentOfUnitOfAlignment(String parentOfUnitOfAlignment) {
+    this.parentOfUnitOfAlignment = parentOfUnitOfAlignment;
+  }
+
+  public String getUnitOfAlignment() {
+    return unitOfAlignment;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "Token")
+  public void setUnitOfAlignment(String unitOfAlignment) {
+    this.unitOfAlignment = unitOfAlignment;
+  }
+
+  public String getSourceDocumentID() {
+    return sourceDocumentID;
+  }
+
+  @RunTime
+  @CreoleParameter
+  public void setSourceDocumentID(String sourceDocumentID) {
+    this.sourceDocumentID = sourceDocumentID;
+  }
+
+  public String getPivotDocumentID() {
+    return pivotDocumentID;
+  }
+
+  @RunTime
+  @CreoleParameter
+  public void setPivotDocumentID(String pivotDocumentID) {
+    this.pivotDocumentID = pivotDocumentID;
+  }
+
+  public String getTargetDocumentID() {
+    return targetDocumentID;
+  }
+
+  @RunTime
+  @CreoleParameter
+  public void setTargetDocumentID(String targetDocumentID) {
+    this.targetDocumentID = targetDocumentID;
+  }
+
+  public String getInputASName() {
+    return inputASName;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "")
+  public void setInputASName(String inputASName) {
+    this.inputASName = inputASName;
+  }
+
+  public Integer getNumberOfThreads() {
+    return numberOfThreads;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(comment = "number of threads, all available processors if not positive", defaultValue = "0")
+  public void setNumberOfThreads(Integer numberOfThreads) {
+    this.numberOfThreads = numberOfThreads;
+  }
+}
@@ -0,0 +1,447 @@
+package gate.alignment;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.compound.CompoundDocument;
+
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * A compact alignment that can be shared by several threads, e.g. by
+ * workers that align different sentence pairs of the same compound
+ * document at the same time. Links are kept in the arrays of the
+ * {@link CompactAlignment}, which are shared by all nodes, so they are
+ * guarded by a single read/write lock: queries run in parallel and
+ * changes are exclusive. A change and its record in the journal are
+ * made under the same lock. Listeners are kept in a copy-on-write list
+ * and are notified outside the lock.
+ *
+ * Since the links may change at any time, the views returned by this
+ * class are copies taken when they are asked for.
+ *
+ * An alignment of this type can be obtained with
+ * compoundDocument.getAlignmentInformation(featureName,
+ * ConcurrentAlignment.class).
+ */
+public class ConcurrentAlignment extends CompactAlignment {
+
+  private static final long serialVersionUID = 6130416745628393187L;
+
+  /**
+   * lock guarding the links
+   */
+  protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Constructor used when the alignment is deserialized.
+   */
+  public ConcurrentAlignment() {
+    this(null);
+  }
+
+  /**
+   * Constructor
+   */
+  public ConcurrentAlignment(CompoundDocument compoundDocument) {
+    super(compoundDocument);
+    listeners = new CopyOnWriteArrayList<AlignmentListener>();
+  }
+
+  @Override
+  public void setSourceDocument(CompoundDocument cd) {
+    lock.writeLock().lock();
+    try {
+      super.setSourceDocument(cd);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Sets the dispatcher that delivers events to the listeners from now
+   * on, null to notify them on the thread changing the alignment again.
+   * Listeners may read this alignment while it is being changed.
+   */
+  @Override
+  public void setEventDispatcher(AlignmentEventDispatcher eventDispatcher) {
+    this.eventDispatcher = eventDispatcher;
+  }
+
+  /**
+   * Resolving an annotation under the read lock may load a member of a
+   * compound document and unload another one, which drops the caches in
+   * the same thread. The lock cannot be upgraded then; the caches are
+   * read through local copies, so they are simply dropped.
+   */
+  @Override
+  protected void dropCaches() {
+    if(lock.getReadHoldCount() > 0) {
+      super.dropCaches();
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      super.dropCaches();
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Holds the write lock until endChange(), so that changes are
+   * recorded in the journal in the order they are made.
+   */
+  @Override
+  protected void beginChange() {
+    lock.writeLock().lock();
+  }
+
+  @Override
+  protected void endChange() {
+    lock.writeLock().unlock();
+  }
+
+  @Override
+  protected List<Link> pruneAnnotations(AnnotationSet set,
+          Collection<Annotation> annotations) {
+    lock.writeLock().lock();
+    try {
+      return super.pruneAnnotations(set, annotations);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  protected boolean doAlign(Annotation srcAnnotation, String srcAS,
+          Document srcDocument, Annotation targetAnnotation, String tgtAS,
+          Document targetDocument) {
+    lock.writeLock().lock();
+    try {
+      return super.doAlign(srcAnnotation, srcAS, srcDocument,
+              targetAnnotation, tgtAS, targetDocument);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  protected boolean doUnalign(Annotation srcAnnotation, String srcAS,
+          Document srcDocument, Annotation targetAnnotation, String tgtAS,
+          Document targetDocument) {
+    lock.writeLock().lock();
+    try {
+      return super.doUnalign(srcAnnotation, srcAS, srcDocument,
+              targetAnnotation, tgtAS, targetDocument);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  protected boolean doAlign(Annotation srcAnnotation, String srcAS,
+          Document srcDocument, Annotation targetAnnotation, String tgtAS,
+          Document targetDocument, float weight) {
+    lock.writeLock().lock();
+    try {
+      return super.doAlign(srcAnnotation, srcAS, srcDocument,
+              targetAnnotation, tgtAS, targetDocument, weight);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public float getWeight(Annotation srcAnnotation, Annotation targetAnnotation) {
+    lock.readLock().lock();
+    try {
+      return super.getWeight(srcAnnotation, targetAnnotation);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  protected boolean doSetWeight(Annotation srcAnnotation,
+          Annotation targetAnnotation, float weight) {
+    lock.writeLock().lock();
+    try {
+      return super.doSetWeight(srcAnnotation, targetAnnotation, weight);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Annotation> topK(Annotation annotation, int k) {
+    lock.readLock().lock();
+    try {
+      return super.topK(annotation, k);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  protected List<Link> doPruneBelow(float threshold) {
+    lock.writeLock().lock();
+    try {
+      return super.doPruneBelow(threshold);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Taking a snapshot is cheap, but it marks the arrays as shared and
+   * must not overlap with changes.
+   */
+  @Override
+  public AlignmentSnapshot snapshot() {
+    lock.writeLock().lock();
+    try {
+      return super.snapshot();
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    lock.readLock().lock();
+    try {
+      super.writeExternal(out);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean areTheyAligned(Annotation srcAnnotation,
+          Annotation targetAnnotation) {
+    lock.readLock().lock();
+    try {
+      return super.areTheyAligned(srcAnnotation, targetAnnotation);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean areTheyAligned(String srcDocumentID, String srcAS,
+          int srcAnnotationId, String tgtDocumentID, String tgtAS,
+          int tgtAnnotationId) {
+    lock.readLock().lock();
+    try {
+      return super.areTheyAligned(srcDocumentID, srcAS, srcAnnotationId,
+              tgtDocumentID, tgtAS, tgtAnnotationId);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean isAnnotationAligned(Annotation srcAnnotation) {
+    lock.readLock().lock();
+    try {
+      return super.isAnnotationAligned(srcAnnotation);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean isAnnotationAligned(String documentID, String asName,
+          int annotationId) {
+    lock.readLock().lock();
+    try {
+      return super.isAnnotationAligned(documentID, asName, annotationId);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean isMemberAligned(String documentID) {
+    lock.readLock().lock();
+    try {
+      return super.isMemberAligned(documentID);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Set<Annotation> getAlignedAnnotations() {
+    lock.readLock().lock();
+    try {
+      return super.getAlignedAnnotations();
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Set<Annotation> getAlignedAnnotations(Annotation srcAnnotation) {
+    lock.readLock().lock();
+    try {
+      return super.getAlignedAnnotations(srcAnnotation);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns an unmodifiable copy of the aligned annotations.
+   */
+  @Override
+  public Set<Annotation> getAlignedAnnotationsView() {
+    return Collections.unmodifiableSet(getAlignedAnnotations());
+  }
+
+  /**
+   * Returns an unmodifiable copy of the annotations aligned with the
+   * given annotation.
+   */
+  @Override
+  public Set<Annotation> getAlignedAnnotationsView(Annotation srcAnnotation) {
+    return Collections.unmodifiableSet(getAlignedAnnotations(srcAnnotation));
+  }
+
+  /**
+   * Calls the consumer for every annotation aligned with the given
+   * annotation. The consumer is called outside the lock, on a copy of
+   * the aligned annotations.
+   */
+  @Override
+  public void forEachAligned(Annotation srcAnnotation,
+          Consumer<? super Annotation> consumer) {
+    for(Annotation annot : getAlignedAnnotations(srcAnnotation)) {
+      consumer.accept(annot);
+    }
+  }
+
+  @Override
+  public int alignedCount(Annotation srcAnnotation) {
+    lock.readLock().lock();
+    try {
+      return super.alignedCount(srcAnnotation);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Groups are rebuilt lazily and union-find compresses paths on
+   * lookups, so the write lock is needed.
+   */
+  @Override
+  public Set<Annotation> getGroup(Annotation annotation) {
+    lock.writeLock().lock();
+    try {
+      return super.getGroup(annotation);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public List<Set<Annotation>> groups() {
+    lock.writeLock().lock();
+    try {
+      return super.groups();
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Offset indexes are built lazily, so the write lock is needed.
+   */
+  @Override
+  public List<Annotation> getAlignedIn(String documentID, String asName,
+          long start, long end) {
+    lock.writeLock().lock();
+    try {
+      return super.getAlignedIn(documentID, asName, start, end);
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  protected void visitLinkIds(LinkIdVisitor visitor) {
+    lock.readLock().lock();
+    try {
+      super.visitLinkIds(visitor);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public AlignmentStatistics getStatistics() {
+    lock.readLock().lock();
+    try {
+      return super.getStatistics();
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public Document getDocument(Annotation annotation) {
+    lock.readLock().lock();
+    try {
+      return super.getDocument(annotation);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public String getAnnotationSetName(Annotation annotation) {
+    lock.readLock().lock();
+    try {
+      return super.getAnnotationSetName(annotation);
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,450 @@
+package gate.alignment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Controller;
+import gate.Corpus;
+import gate.CorpusController;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.Resource;
+import gate.compound.CompoundDocument;
+import gate.creole.AbstractLanguageAnalyser;
+import gate.creole.ControllerAwarePR;
+import gate.creole.ExecutionException;
+import gate.creole.ResourceInstantiationException;
+import gate.creole.metadata.CreoleParameter;
+import gate.creole.metadata.CreoleResource;
+import gate.creole.metadata.Optional;
+import gate.creole.metadata.RunTime;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A PR that evaluates an alignment against a gold alignment of the same
+ * compound document. The gold alignment has the sure links, and another
+ * gold alignment may have the possible ones; without it every gold link
+ * is sure. Precision, recall, F-measure and AER (see
+ * {@link AlignmentEvaluation}) are stored as a feature of every compound
+ * document, and they are accumulated over the corpus and stored in the
+ * same feature of the corpus once the controller has finished; they can
+ * also be read with getCorpusEvaluation().
+ *
+ * The links of each parent of unit of alignment (e.g. sentence) are
+ * held in link matrices, and parents are evaluated in parallel.
+ */
+@CreoleResource(comment = "A PR to evaluate an alignment against a gold alignment.")
+public class EvaluateAlignmentPR extends AbstractLanguageAnalyser implements
+                                                                 ControllerAwarePR {
+
+  private static final long serialVersionUID = 7265519841126320337L;
+
+  private static final Logger log = Logger
+          .getLogger(EvaluateAlignmentPR.class);
+
+  /**
+   * name of the document feature with the alignment to evaluate
+   */
+  private String testAlignmentFeatureName;
+
+  /**
+   * name of the document feature with the sure gold links
+   */
+  private String sureAlignmentFeatureName;
+
+  /**
+   * name of the document feature with the possible gold links, if any
+   */
+  private String possibleAlignmentFeatureName;
+
+  /**
+   * name of the document feature the results are stored in
+   */
+  private String outputFeatureName;
+
+  /**
+   * annotation type that has been used as parent of unit of alignment.
+   */
+  private String parentOfUnitOfAlignment;
+
+  /**
+   * annotation type that has been used as unit of alignment.
+   */
+  private String unitOfAlignment;
+
+  /**
+   * id of the source document
+   */
+  private String sourceDocumentID;
+
+  /**
+   * id of the target document
+   */
+  private String targetDocumentID;
+
+  /**
+   * name of the annotation set which has annotations for the unit of
+   * alignment and parent of unit of alignment
+   */
+  private String inputASName;
+
+  /**
+   * number of threads, all available processors if not positive
+   */
+  private Integer numberOfThreads;
+
+  /**
+   * counts of all documents processed since the controller started
+   */
+  private final AlignmentEvaluation corpusEvaluation = new AlignmentEvaluation();
+
+  /** Initialise this resource, and return it. */
+  public Resource init() throws ResourceInstantiationException {
+    return this;
+  }
+
+  /* this method is called to re-initialise the resource */
+  public void reInit() throws ResourceInstantiationException {
+    init();
+  }
+
+  /**
+   * The main logic of the PR.
+   */
+  public void execute() throws ExecutionException {
+
+    // check if the right document provided
+    if(!(this.document instanceof CompoundDocument)) {
+      throw new ExecutionException(this.document.getName()
+              + "not instance of CompoundDocument");
+    }
+
+    CompoundDocument cd = (CompoundDocument)this.document;
+    Document srcDoc = cd.getDocument(sourceDocumentID);
+    final Document tgtDoc = cd.getDocument(targetDocumentID);
+    if(srcDoc == null || tgtDoc == null) {
+      throw new ExecutionException("Document " + sourceDocumentID + " or "
+              + targetDocumentID + " not found in " + cd.getName());
+    }
+
+    boolean withPossible = possibleAlignmentFeatureName != null
+            && possibleAlignmentFeatureName.trim().length() > 0;
+    // getAlignmentInformation would silently create empty alignments
+    Set<String> alignmentFeatureNames = cd.getAllAlignmentFeatureNames();
+    if(!alignmentFeatureNames.contains(testAlignmentFeatureName)
+            || !alignmentFeatureNames.contains(sureAlignmentFeatureName)
+            || (withPossible && !alignmentFeatureNames
+                    .contains(possibleAlignmentFeatureName))) {
+      throw new ExecutionException("Alignment " + testAlignmentFeatureName
+              + (withPossible ? ", " + sureAlignmentFeatureName + " or "
+                      + possibleAlignmentFeatureName : " or "
+                      + sureAlignmentFeatureName) + " not found in "
+              + cd.getName());
+    }
+
+    final Alignment test = cd.getAlignmentInformation(testAlignmentFeatureName);
+    final Alignment sure = cd.getAlignmentInformation(sureAlignmentFeatureName);
+    final Alignment possible = withPossible ? cd
+            .getAlignmentInformation(possibleAlignmentFeatureName) : null;
+
+    // the units are looked up here since annotation sets build their
+    // offset indexes lazily and must not be used by several threads
+    AnnotationSet inputAS = inputASName == null
+            || inputASName.trim().length() == 0
+            ? srcDoc.getAnnotations()
+            : srcDoc.getAnnotations(inputASName);
+    List<List<Annotation>> chunks = getUnitChunks(inputAS);
+
+    final AlignmentEvaluation evaluation = new AlignmentEvaluation();
+    int threads = numberOfThreads == null || numberOfThreads.intValue() <= 0
+            ? Runtime.getRuntime().availableProcessors()
+            : numberOfThreads.intValue();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math
+            .min(threads, chunks.size())));
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for(final List<Annotation> chunk : chunks) {
+        futures.add(executor.submit(new Runnable() {
+          public void run() {
+            evaluate(chunk, tgtDoc, test, sure, possible, evaluation);
+          }
+        }));
+      }
+      for(Future<?> future : futures) {
+        future.get();
+      }
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExecutionException(e);
+    }
+    catch(java.util.concurrent.ExecutionException e) {
+      throw new ExecutionException(e.getCause());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    corpusEvaluation.add(evaluation);
+    cd.getFeatures().put(outputFeatureName, toFeatures(evaluation));
+  }
+
+  /**
+   * The results as they are stored in the output feature.
+   */
+  private static FeatureMap toFeatures(AlignmentEvaluation evaluation) {
+    FeatureMap results = Factory.newFeatureMap();
+    results.put("precision", evaluation.getPrecision());
+    results.put("recall", evaluation.getRecall());
+    results.put("fMeasure", evaluation.getFMeasure());
+    results.put("aer", evaluation.getAER());
+    results.put("testLinks", evaluation.getTestLinks());
+    results.put("sureLinks", evaluation.getSureLinks());
+    results.put("possibleLinks", evaluation.getPossibleLinks());
+    return results;
+  }
+
+  /**
+   * Splits the units of the source document by their parents. Units
+   * outside every parent are put in a chunk of their own, and without
+   * parents all units make a single chunk.
+   */
+  private List<List<Annotation>> getUnitChunks(AnnotationSet inputAS) {
+    List<List<Annotation>> chunks = new ArrayList<List<Annotation>>();
+    AnnotationSet units = inputAS.get(unitOfAlignment);
+    if(parentOfUnitOfAlignment == null
+            || parentOfUnitOfAlignment.trim().length() == 0) {
+      chunks.add(new ArrayList<Annotation>(units));
+      return chunks;
+    }
+
+    // annotations compare by their contents, so identity is used
+    Set<Annotation> remaining = Collections
+            .newSetFromMap(new IdentityHashMap<Annotation, Boolean>());
+    remaining.addAll(units);
+    for(Annotation parent : inputAS.get(parentOfUnitOfAlignment)) {
+      List<Annotation> chunk = new ArrayList<Annotation>();
+      for(Annotation unit : units.getContained(parent.getStartNode()
+              .getOffset(), parent.getEndNode().getOffset())) {
+        if(remaining.remove(unit)) chunk.add(unit);
+      }
+      if(!chunk.isEmpty()) chunks.add(chunk);
+    }
+    if(!remaining.isEmpty()) chunks.add(new ArrayList<Annotation>(remaining));
+    return chunks;
+  }
+
+  /**
+   * Counts the links of the given source units with the target
+   * document. Link (i, j) of a matrix tells whether the i-th source
+   * unit is aligned with the j-th target annotation met.
+   */
+  static void evaluate(List<Annotation> srcUnits, Document tgtDoc,
+          Alignment test, Alignment sure, Alignment possible,
+          AlignmentEvaluation evaluation) {
+    if(srcUnits.isEmpty()) return;
+    // annotations compare by their contents, so identity is used
+    Map<Annotation, Integer> tgtIndexes = new IdentityHashMap<Annotation, Integer>();
+    indexTargets(srcUnits, tgtDoc, test, tgtIndexes);
+    indexTargets(srcUnits, tgtDoc, sure, tgtIndexes);
+    if(possible != null) indexTargets(srcUnits, tgtDoc, possible, tgtIndexes);
+
+    LinkMatrix a = matrix(srcUnits, test, tgtIndexes);
+    LinkMatrix s = matrix(srcUnits, sure, tgtIndexes);
+    LinkMatrix p = s;
+    if(possible != null) {
+      // sure links are possible too
+      p = matrix(srcUnits, possible, tgtIndexes);
+      p.or(s);
+    }
+
+    LinkMatrix aAndS = a.copy();
+    aAndS.and(s);
+    LinkMatrix aAndP = a.copy();
+    aAndP.and(p);
+    evaluation.add(a.cardinality(), s.cardinality(), p.cardinality(), aAndS
+            .cardinality(), aAndP.cardinality());
+  }
+
+  /**
+   * Numbers the annotations of the target document the given source
+   * units are aligned with, in the order they are met.
+   */
+  private static void indexTargets(List<Annotation> srcUnits,
+          Document tgtDoc, Alignment alignment,
+          Map<Annotation, Integer> tgtIndexes) {
+    for(Annotation srcUnit : srcUnits) {
+      for(Annotation tgt : alignment.getAlignedAnnotationsView(srcUnit)) {
+        if(alignment.getDocument(tgt) != tgtDoc) continue;
+        if(!tgtIndexes.containsKey(tgt)) tgtIndexes.put(tgt, tgtIndexes.size());
+      }
+    }
+  }
+
+  private static LinkMatrix matrix(List<Annotation> srcUnits,
+          Alignment alignment, Map<Annotation, Integer> tgtIndexes) {
+    int m = srcUnits.size();
+    LinkMatrix matrix = new LinkMatrix(m, tgtIndexes.size());
+    for(int i = 0; i < m; i++) {
+      for(Annotation tgt : alignment.getAlignedAnnotationsView(srcUnits.get(i))) {
+        // annotations of other documents have not been numbered
+        Integer j = tgtIndexes.get(tgt);
+        if(j != null) matrix.set(i, j);
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * Starts counting the corpus afresh.
+   */
+  public void controllerExecutionStarted(Controller c)
+          throws ExecutionException {
+    corpusEvaluation.reset();
+  }
+
+  /**
+   * Stores the results of the corpus in the output feature of the
+   * corpus, if the controller runs over one, and logs them.
+   */
+  public void controllerExecutionFinished(Controller c)
+          throws ExecutionException {
+    if(c instanceof CorpusController) {
+      Corpus corpus = ((CorpusController)c).getCorpus();
+      if(corpus != null) {
+        corpus.getFeatures().put(outputFeatureName,
+                toFeatures(corpusEvaluation));
+      }
+    }
+    log.info("Corpus: " + corpusEvaluation);
+  }
+
+  public void controllerExecutionAborted(Controller c, Throwable t)
+          throws ExecutionException {
+    // do nothing
+  }
+
+  /**
+   * Returns the counts of all documents processed since the controller
+   * started.
+   */
+  public AlignmentEvaluation getCorpusEvaluation() {
+    return corpusEvaluation;
+  }
+
+  public String getTestAlignmentFeatureName() {
+    return testAlignmentFeatureName;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "word-alignment")
+  public void setTestAlignmentFeatureName(String testAlignmentFeatureName) {
+    this.testAlignmentFeatureName = testAlignmentFeatureName;
+  }
+
+  public String getSureAlignmentFeatureName() {
+    return sureAlignmentFeatureName;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "gold-word-alignment")
+  public void setSureAlignmentFeatureName(String sureAlignmentFeatureName) {
+    this.sureAlignmentFeatureName = sureAlignmentFeatureName;
+  }
+
+  public String getPossibleAlignmentFeatureName() {
+    return possibleAlignmentFeatureName;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(comment = "alignment with the possible gold links, every gold link is sure if not given")
+  public void setPossibleAlignmentFeatureName(
+          String possibleAlignmentFeatureName) {
+    this.possibleAlignmentFeatureName = possibleAlignmentFeatureName;
+  }
+
+  public String getOutputFeatureName() {
+    return outputFeatureName;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "alignment-evaluation")
+  public void setOutputFeatureName(String outputFeatureName) {
+    this.outputFeatureName = outputFeatureName;
+  }
+
+  public String getParentOfUnitOfAlignment() {
+    return parentOfUnitOfAlignment;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "Sentence")
+  public void setParentOfUnitOfAlignment(String parentOfUnitOfAlignment) {
+    this.parentOfUnitOfAlignment = parentOfUnitOfAlignment;
+  }
+
+  public String getUnitOfAlignment() {
+    return unitOfAlignment;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "Token")
+  public void setUnitOfAlignment(String unitOfAlignment) {
+    this.unitOfAlignment = unitOfAlignment;
+  }
+
+  public String getSourceDocumentID() {
+    return sourceDocumentID;
+  }
+
+  @RunTime
+  @CreoleParameter
+  public void setSourceDocumentID(String sourceDocumentID) {
+    this.sourceDocumentID = sourceDocumentID;
+  }
+
+  public String getTargetDocumentID() {
+    return targetDocumentID;
+  }
+
+  @RunTime
+  @CreoleParameter
+  public void setTargetDocumentID(String targetDocumentID) {
+    this.targetDocumentID = targetDocumentID;
+  }
+
+  public String getInputASName() {
+    return inputASName;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "")
+  public void setInputASName(String inputASName) {
+    this.inputASName = inputASName;
+  }
+
+  public Integer getNumberOfThreads() {
+    return numberOfThreads;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(comment = "number of threads, all available processors if not positive", defaultValue = "0")
+  public void setNumberOfThreads(Integer numberOfThreads) {
+    this.numberOfThreads = numberOfThreads;
+  }
+}
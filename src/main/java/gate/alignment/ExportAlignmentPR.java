@@ -10,6 +10,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
 
@@ -209,22 +210,19 @@ public class ExportAlignmentPR extends AbstractLanguageAnalyser implements
 
       Alignment puAlignment = cd
               .getAlignmentInformation(parentOfUnitOfAlignmentFeatureName);
-      Set<Annotation> annots = puAlignment.getAlignedAnnotations();
-      annots.retainAll(parentSrcAS);
-
-      for(Annotation srcPU : annots) {
-
-        Set<Annotation> tgtPUs = puAlignment.getAlignedAnnotations(srcPU);
-        Set<Annotation> srcPUs = new HashSet<Annotation>();
-
-        for(Annotation tgtPU : tgtPUs) {
-          srcPUs.addAll(puAlignment.getAlignedAnnotations(tgtPU));
-        }
 
+      for(Set<Annotation> group : puAlignment.groups()) {
         PUPair pair = new PUPair();
-        pair.srcAnnots.addAll(srcPUs);
-        pair.tgtAnnots.addAll(tgtPUs);
-        puPairs.add(pair);
+        for(Annotation pu : group) {
+          // contains() matches ids, which the members share, so the very
+          // annotation is looked for
+          if(parentSrcAS.get(pu.getId()) == pu)
+            pair.srcAnnots.add(pu);
+          else if(parentTgtAS.get(pu.getId()) == pu) pair.tgtAnnots.add(pu);
+        }
+        if(!pair.srcAnnots.isEmpty() && !pair.tgtAnnots.isEmpty()) {
+          puPairs.add(pair);
+        }
       }
     }
 
@@ -238,8 +236,14 @@ public class ExportAlignmentPR extends AbstractLanguageAnalyser implements
     for(PUPair puPair : puPairs) {
 
       xml = xml.append("<PUPair>\n");
-      Set<Annotation> srcUAnnots = new HashSet<Annotation>();
-      Set<Annotation> tgtUAnnots = new HashSet<Annotation>();
+      // annotations of different members may be equal, e.g. same id, type
+      // and offsets, so the very annotations are looked for
+      Set<Annotation> srcUAnnots = Collections
+              .newSetFromMap(new IdentityHashMap<Annotation, Boolean>());
+      Set<Annotation> tgtUAnnots = Collections
+              .newSetFromMap(new IdentityHashMap<Annotation, Boolean>());
+      // the source annotations in document order
+      List<Annotation> srcUAnnotsInOrder = new ArrayList<Annotation>();
 
       xml = xml.append("\n<Source>\n");
       if(puPair.srcAnnots.isEmpty()) {
@@ -255,6 +259,7 @@ public class ExportAlignmentPR extends AbstractLanguageAnalyser implements
           xml = xml.append("</" + unitOfAlignment + ">");
         }
         srcUAnnots.addAll(srcUAnnotsList);
+        srcUAnnotsInOrder.addAll(srcUAnnotsList);
       }
       else {
         for(Annotation puAnnot : puPair.srcAnnots) {
@@ -274,6 +279,7 @@ public class ExportAlignmentPR extends AbstractLanguageAnalyser implements
             xml = xml.append("</" + unitOfAlignment + ">");
           }
           srcUAnnots.addAll(srcUAnnotsList);
+          srcUAnnotsInOrder.addAll(srcUAnnotsList);
           xml = xml.append("</" + parentOfUnitOfAlignment + ">");
         }
       }
@@ -322,22 +328,26 @@ public class ExportAlignmentPR extends AbstractLanguageAnalyser implements
       Alignment uAlignment = cd
               .getAlignmentInformation(unitAlignmentFeatureName);
 
-      for(Annotation srcUAnnot : srcUAnnots) {
+      Set<Annotation> visitedUAnnots = Collections
+              .newSetFromMap(new IdentityHashMap<Annotation, Boolean>());
+      for(Annotation srcUAnnot : srcUAnnotsInOrder) {
 
-        Set<Annotation> tgtAlignedAnnots = uAlignment
-                .getAlignedAnnotations(srcUAnnot);
-        if(tgtAlignedAnnots == null || tgtAlignedAnnots.isEmpty()) {
+        if(visitedUAnnots.contains(srcUAnnot)) continue;
+
+        Set<Annotation> group = uAlignment.getGroup(srcUAnnot);
+        if(group.isEmpty()) {
           continue;
         }
+        visitedUAnnots.addAll(group);
 
         Set<Annotation> srcAlignedAnnots = new HashSet<Annotation>();
-        for(Annotation tgtUAnnot : tgtAlignedAnnots) {
-          srcAlignedAnnots.addAll(uAlignment.getAlignedAnnotations(tgtUAnnot));
+        Set<Annotation> tgtAlignedAnnots = new HashSet<Annotation>();
+        for(Annotation uAnnot : group) {
+          if(srcUAnnots.contains(uAnnot))
+            srcAlignedAnnots.add(uAnnot);
+          else if(tgtUAnnots.contains(uAnnot)) tgtAlignedAnnots.add(uAnnot);
         }
 
-        srcAlignedAnnots.retainAll(srcUAnnots);
-        tgtAlignedAnnots.retainAll(tgtUAnnots);
-
         for(Annotation srcAA : srcAlignedAnnots) {
           for(Annotation tgtAA : tgtAlignedAnnots) {
             xml = xml.append("<Alignment source=\"" + srcAA.getId().intValue()
@@ -0,0 +1,118 @@
+package gate.alignment;
+
+import gate.Annotation;
+import gate.Document;
+
+/**
+ * A link between a source and a target annotation. It is used for
+ * aligning or unaligning several pairs of annotations in one go and for
+ * telling listeners about them.
+ */
+public class Link {
+
+  /**
+   * source annotation
+   */
+  private Annotation srcAnnotation;
+
+  /**
+   * annotation set the source annotation belongs to
+   */
+  private String srcAS;
+
+  /**
+   * document the source annotation belongs to
+   */
+  private Document srcDocument;
+
+  /**
+   * target annotation
+   */
+  private Annotation tgtAnnotation;
+
+  /**
+   * annotation set the target annotation belongs to
+   */
+  private String tgtAS;
+
+  /**
+   * document the target annotation belongs to
+   */
+  private Document tgtDocument;
+
+  /**
+   * weight of the link
+   */
+  private float weight = Alignment.DEFAULT_WEIGHT;
+
+  /**
+   * tells whether the weight was given
+   */
+  private boolean weighted = false;
+
+  /**
+   * Constructor
+   */
+  public Link(Annotation srcAnnotation, String srcAS, Document srcDocument,
+          Annotation tgtAnnotation, String tgtAS, Document tgtDocument) {
+    this.srcAnnotation = srcAnnotation;
+    this.srcAS = srcAS;
+    this.srcDocument = srcDocument;
+    this.tgtAnnotation = tgtAnnotation;
+    this.tgtAS = tgtAS;
+    this.tgtDocument = tgtDocument;
+  }
+
+  /**
+   * Constructor for a link with a weight, e.g. the confidence of an
+   * automatic aligner.
+   */
+  public Link(Annotation srcAnnotation, String srcAS, Document srcDocument,
+          Annotation tgtAnnotation, String tgtAS, Document tgtDocument,
+          float weight) {
+    this(srcAnnotation, srcAS, srcDocument, tgtAnnotation, tgtAS,
+            tgtDocument);
+    this.weight = weight;
+    this.weighted = true;
+  }
+
+  public Annotation getSrcAnnotation() {
+    return srcAnnotation;
+  }
+
+  public String getSrcAS() {
+    return srcAS;
+  }
+
+  public Document getSrcDocument() {
+    return srcDocument;
+  }
+
+  public Annotation getTgtAnnotation() {
+    return tgtAnnotation;
+  }
+
+  public String getTgtAS() {
+    return tgtAS;
+  }
+
+  public Document getTgtDocument() {
+    return tgtDocument;
+  }
+
+  public float getWeight() {
+    return weight;
+  }
+
+  /**
+   * Tells whether a weight was given for the link
+   */
+  public boolean isWeighted() {
+    return weighted;
+  }
+
+  public String toString() {
+    return srcDocument.getName() + ":" + srcAnnotation.getId() + " -> "
+            + tgtDocument.getName() + ":" + tgtAnnotation.getId();
+  }
+}
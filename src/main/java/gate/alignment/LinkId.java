@@ -0,0 +1,92 @@
+package gate.alignment;
+
+import gate.Annotation;
+import gate.Document;
+import gate.compound.CompoundDocument;
+
+/**
+ * A link identified by the member document ids, annotation set names and
+ * annotation ids of its annotations. Unlike a {@link Link}, it does not
+ * depend on a particular compound document and can be used for
+ * comparing alignments of different copies of the same document.
+ */
+public class LinkId {
+
+  private String srcDocumentID;
+
+  private String srcAS;
+
+  private int srcId;
+
+  private String tgtDocumentID;
+
+  private String tgtAS;
+
+  private int tgtId;
+
+  private float weight;
+
+  /**
+   * Constructor
+   */
+  public LinkId(String srcDocumentID, String srcAS, int srcId,
+          String tgtDocumentID, String tgtAS, int tgtId, float weight) {
+    this.srcDocumentID = srcDocumentID;
+    this.srcAS = srcAS;
+    this.srcId = srcId;
+    this.tgtDocumentID = tgtDocumentID;
+    this.tgtAS = tgtAS;
+    this.tgtId = tgtId;
+    this.weight = weight;
+  }
+
+  public String getSrcDocumentID() {
+    return srcDocumentID;
+  }
+
+  public String getSrcAS() {
+    return srcAS;
+  }
+
+  public int getSrcId() {
+    return srcId;
+  }
+
+  public String getTgtDocumentID() {
+    return tgtDocumentID;
+  }
+
+  public String getTgtAS() {
+    return tgtAS;
+  }
+
+  public int getTgtId() {
+    return tgtId;
+  }
+
+  public float getWeight() {
+    return weight;
+  }
+
+  /**
+   * Returns the link between the annotations of the given compound
+   * document or null if one of them cannot be found.
+   */
+  public Link resolve(CompoundDocument compoundDocument) {
+    Document srcDocument = compoundDocument.getDocument(srcDocumentID);
+    Document tgtDocument = compoundDocument.getDocument(tgtDocumentID);
+    Annotation srcAnnotation = Alignment.findAnnotation(srcDocument, srcAS,
+            srcId);
+    Annotation tgtAnnotation = Alignment.findAnnotation(tgtDocument, tgtAS,
+            tgtId);
+    if(srcAnnotation == null || tgtAnnotation == null) return null;
+    return new Link(srcAnnotation, srcAS, srcDocument, tgtAnnotation, tgtAS,
+            tgtDocument, weight);
+  }
+
+  public String toString() {
+    return srcDocumentID + "/" + (srcAS == null ? "" : srcAS) + ":" + srcId
+            + " -> " + tgtDocumentID + "/" + (tgtAS == null ? "" : tgtAS)
+            + ":" + tgtId + " (" + weight + ")";
+  }
+}
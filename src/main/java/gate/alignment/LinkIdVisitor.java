@@ -0,0 +1,14 @@
+package gate.alignment;
+
+/**
+ * Receives the links of an alignment identified by ids, see
+ * Alignment.visitLinkIds(LinkIdVisitor).
+ */
+interface LinkIdVisitor {
+
+  /**
+   * Called for a link between two annotations.
+   */
+  void link(String srcDocumentID, String srcAS, int srcId,
+          String tgtDocumentID, String tgtAS, int tgtId, float weight);
+}
@@ -0,0 +1,102 @@
+package gate.alignment;
+
+import java.util.BitSet;
+import java.util.TreeSet;
+
+/**
+ * An m x n matrix of links between source and target units. Link (i,
+ * j) has the index i * n + j, links being visited in that order. Small
+ * matrices, such as those of sentence pairs, are bitsets. Larger ones,
+ * e.g. when a whole document is a single pair, would need too much
+ * memory or more bits than an int can index, so only their links are
+ * kept, as sorted long indexes.
+ *
+ * @see SymmetrizeAlignmentPR
+ * @see EvaluateAlignmentPR
+ */
+final class LinkMatrix {
+
+  /** the largest number of cells held in a bitset, 8MB worth */
+  static final long MAX_DENSE_SIZE = 1L << 26;
+
+  final int m;
+
+  final int n;
+
+  private final BitSet bits;
+
+  private final TreeSet<Long> links;
+
+  LinkMatrix(int m, int n) {
+    this(m, n, (long)m * n <= MAX_DENSE_SIZE);
+  }
+
+  LinkMatrix(int m, int n, boolean dense) {
+    this.m = m;
+    this.n = n;
+    this.bits = dense ? new BitSet(m * n) : null;
+    this.links = dense ? null : new TreeSet<Long>();
+  }
+
+  private LinkMatrix(LinkMatrix matrix) {
+    this.m = matrix.m;
+    this.n = matrix.n;
+    this.bits = matrix.bits == null ? null : (BitSet)matrix.bits.clone();
+    this.links = matrix.links == null ? null : new TreeSet<Long>(
+            matrix.links);
+  }
+
+  LinkMatrix copy() {
+    return new LinkMatrix(this);
+  }
+
+  boolean get(int i, int j) {
+    long index = (long)i * n + j;
+    return bits != null ? bits.get((int)index) : links.contains(index);
+  }
+
+  void set(int i, int j) {
+    long index = (long)i * n + j;
+    if(bits != null)
+      bits.set((int)index);
+    else links.add(index);
+  }
+
+  /**
+   * Returns the index of the first link at or after the given index,
+   * -1 if there is none.
+   */
+  long next(long from) {
+    if(bits != null) return from > Integer.MAX_VALUE ? -1 : bits
+            .nextSetBit((int)from);
+    Long index = links.ceiling(from);
+    return index == null ? -1 : index;
+  }
+
+  int row(long index) {
+    return (int)(index / n);
+  }
+
+  int column(long index) {
+    return (int)(index % n);
+  }
+
+  /** Adds the links of the given matrix of the same size. */
+  void or(LinkMatrix matrix) {
+    if(bits != null)
+      bits.or(matrix.bits);
+    else links.addAll(matrix.links);
+  }
+
+  /** Keeps the links the given matrix of the same size has too. */
+  void and(LinkMatrix matrix) {
+    if(bits != null)
+      bits.and(matrix.bits);
+    else links.retainAll(matrix.links);
+  }
+
+  /** Returns the number of links. */
+  int cardinality() {
+    return bits != null ? bits.cardinality() : links.size();
+  }
+}
@@ -0,0 +1,540 @@
+package gate.alignment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.ProcessingResource;
+import gate.Resource;
+import gate.compound.CompoundDocument;
+import gate.creole.AbstractLanguageAnalyser;
+import gate.creole.ExecutionException;
+import gate.creole.ResourceInstantiationException;
+import gate.creole.metadata.CreoleParameter;
+import gate.creole.metadata.CreoleResource;
+import gate.creole.metadata.Optional;
+import gate.creole.metadata.RunTime;
+import gate.util.InvalidOffsetException;
+import gate.util.OffsetComparator;
+
+/**
+ * A PR that projects annotations (e.g. named entities, chunks or parts
+ * of speech) from the source member of a compound document to the target
+ * member through a word alignment. Every source annotation of the given
+ * types is projected onto the span from the first to the last target
+ * unit aligned with one of the units it contains, with its features.
+ * Source annotations whose units are not aligned are not projected.
+ *
+ * The links are followed in parallel, one parent of unit of alignment
+ * (e.g. sentence) at a time, and the projected annotations are then
+ * added to the output annotation set one parent after the other,
+ * applying the {@link ProjectionConflictPolicy}. Unlike the
+ * FeatureTransferrerAction of the alignment editor this works on whole
+ * documents, so it can be run over a corpus.
+ */
+@CreoleResource(comment = "A PR to project annotations to the aligned member of a compound document.")
+public class ProjectAnnotationsPR extends AbstractLanguageAnalyser implements
+                                                                  ProcessingResource {
+
+  private static final long serialVersionUID = 2917503487163359212L;
+
+  /**
+   * name of the document feature with the alignment of the units
+   */
+  private String alignmentFeatureName;
+
+  /**
+   * annotation type that has been used as parent of unit of alignment.
+   */
+  private String parentOfUnitOfAlignment;
+
+  /**
+   * annotation type that has been used as unit of alignment.
+   */
+  private String unitOfAlignment;
+
+  /**
+   * id of the source document
+   */
+  private String sourceDocumentID;
+
+  /**
+   * id of the target document
+   */
+  private String targetDocumentID;
+
+  /**
+   * name of the annotation set which has annotations for the unit of
+   * alignment and parent of unit of alignment
+   */
+  private String inputASName;
+
+  /**
+   * name of the annotation set of the source document with the
+   * annotations to project
+   */
+  private String sourceASName;
+
+  /**
+   * types of the annotations to project
+   */
+  private List<String> annotationTypes;
+
+  /**
+   * features to project, all if none are given
+   */
+  private List<String> featureNames;
+
+  /**
+   * name of the annotation set of the target document the annotations
+   * are projected to
+   */
+  private String outputASName;
+
+  /**
+   * what to do with projected annotations that overlap existing ones
+   */
+  private ProjectionConflictPolicy conflictPolicy;
+
+  /**
+   * number of threads, all available processors if not positive
+   */
+  private Integer numberOfThreads;
+
+  /** Initialise this resource, and return it. */
+  public Resource init() throws ResourceInstantiationException {
+    return this;
+  }
+
+  /* this method is called to re-initialise the resource */
+  public void reInit() throws ResourceInstantiationException {
+    init();
+  }
+
+  /**
+   * Internal class to store the source annotations within a parent of
+   * unit of alignment and the units they may contain, sorted by their
+   * offsets.
+   */
+  static class Chunk {
+    List<Annotation> annotations = new ArrayList<Annotation>();
+
+    Annotation[] units;
+
+    long[] unitStarts;
+  }
+
+  /**
+   * Internal class to store the target span of a source annotation.
+   */
+  static class Projection {
+    Annotation annotation;
+
+    long start;
+
+    long end;
+  }
+
+  /**
+   * The main logic of the PR.
+   */
+  public void execute() throws ExecutionException {
+
+    // check if the right document provided
+    if(!(this.document instanceof CompoundDocument)) {
+      throw new ExecutionException(this.document.getName()
+              + "not instance of CompoundDocument");
+    }
+
+    CompoundDocument cd = (CompoundDocument)this.document;
+    Document srcDoc = cd.getDocument(sourceDocumentID);
+    final Document tgtDoc = cd.getDocument(targetDocumentID);
+    if(srcDoc == null || tgtDoc == null) {
+      throw new ExecutionException("Document " + sourceDocumentID + " or "
+              + targetDocumentID + " not found in " + cd.getName());
+    }
+    if(annotationTypes == null || annotationTypes.isEmpty()) {
+      throw new ExecutionException("No annotation types to project");
+    }
+
+    // getAlignmentInformation would silently create an empty alignment
+    if(!cd.getAllAlignmentFeatureNames().contains(alignmentFeatureName)) {
+      throw new ExecutionException("Alignment " + alignmentFeatureName
+              + " not found in " + cd.getName());
+    }
+
+    final Alignment alignment = cd.getAlignmentInformation(alignmentFeatureName);
+
+    // the annotations are looked up here since annotation sets build
+    // their offset indexes lazily and must not be used by several
+    // threads
+    AnnotationSet inputAS = isEmpty(inputASName) ? srcDoc.getAnnotations()
+            : srcDoc.getAnnotations(inputASName);
+    AnnotationSet sourceAS = isEmpty(sourceASName) ? srcDoc.getAnnotations()
+            : srcDoc.getAnnotations(sourceASName);
+    List<Chunk> chunks = getChunks(inputAS, sourceAS);
+
+    int threads = numberOfThreads == null || numberOfThreads.intValue() <= 0
+            ? Runtime.getRuntime().availableProcessors()
+            : numberOfThreads.intValue();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math
+            .min(threads, chunks.size())));
+    List<Projection> projections = new ArrayList<Projection>();
+    try {
+      List<Future<List<Projection>>> futures = new ArrayList<Future<List<Projection>>>();
+      for(final Chunk chunk : chunks) {
+        futures.add(executor.submit(new Callable<List<Projection>>() {
+          public List<Projection> call() {
+            return project(chunk, alignment, tgtDoc);
+          }
+        }));
+      }
+      for(Future<List<Projection>> future : futures) {
+        projections.addAll(future.get());
+      }
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExecutionException(e);
+    }
+    catch(java.util.concurrent.ExecutionException e) {
+      throw new ExecutionException(e.getCause());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    // the target document is only changed from this thread
+    AnnotationSet outputAS = isEmpty(outputASName) ? tgtDoc.getAnnotations()
+            : tgtDoc.getAnnotations(outputASName);
+    for(Projection projection : projections) {
+      try {
+        addProjection(outputAS, projection);
+      }
+      catch(InvalidOffsetException e) {
+        throw new ExecutionException(e);
+      }
+    }
+  }
+
+  private static boolean isEmpty(String name) {
+    return name == null || name.trim().length() == 0;
+  }
+
+  /**
+   * Splits the annotations to project by the parents of unit of
+   * alignment. Annotations outside every parent are put in a chunk of
+   * their own, and without parents all annotations make a single chunk.
+   */
+  private List<Chunk> getChunks(AnnotationSet inputAS, AnnotationSet sourceAS) {
+    // annotations compare by their contents, so identity is used
+    Set<Annotation> remaining = Collections
+            .newSetFromMap(new IdentityHashMap<Annotation, Boolean>());
+    for(String type : annotationTypes) {
+      remaining.addAll(sourceAS.get(type));
+    }
+
+    List<Chunk> chunks = new ArrayList<Chunk>();
+    AnnotationSet units = inputAS.get(unitOfAlignment);
+    if(!isEmpty(parentOfUnitOfAlignment)) {
+      List<Annotation> parents = new ArrayList<Annotation>(inputAS
+              .get(parentOfUnitOfAlignment));
+      Collections.sort(parents, new OffsetComparator());
+      for(Annotation parent : parents) {
+        Long start = parent.getStartNode().getOffset();
+        Long end = parent.getEndNode().getOffset();
+        Chunk chunk = new Chunk();
+        for(Annotation annot : sourceAS.getContained(start, end)) {
+          if(remaining.remove(annot)) chunk.annotations.add(annot);
+        }
+        if(chunk.annotations.isEmpty()) continue;
+        setUnits(chunk, units.getContained(start, end));
+        chunks.add(chunk);
+      }
+    }
+    if(!remaining.isEmpty()) {
+      Chunk chunk = new Chunk();
+      chunk.annotations.addAll(remaining);
+      setUnits(chunk, units);
+      chunks.add(chunk);
+    }
+    for(Chunk chunk : chunks) {
+      Collections.sort(chunk.annotations, new OffsetComparator());
+    }
+    return chunks;
+  }
+
+  private static void setUnits(Chunk chunk, AnnotationSet units) {
+    chunk.units = units.toArray(new Annotation[units.size()]);
+    Arrays.sort(chunk.units, new OffsetComparator());
+    chunk.unitStarts = new long[chunk.units.length];
+    for(int i = 0; i < chunk.units.length; i++) {
+      chunk.unitStarts[i] = chunk.units[i].getStartNode().getOffset()
+              .longValue();
+    }
+  }
+
+  /**
+   * Finds the target spans of the annotations of the given chunk. Only
+   * the alignment is consulted, so chunks can be projected in parallel.
+   */
+  List<Projection> project(Chunk chunk, Alignment alignment, Document tgtDoc) {
+    List<Projection> projections = new ArrayList<Projection>();
+    for(Annotation annot : chunk.annotations) {
+      long start = annot.getStartNode().getOffset().longValue();
+      long end = annot.getEndNode().getOffset().longValue();
+      int i = Arrays.binarySearch(chunk.unitStarts, start);
+      if(i < 0) {
+        i = -i - 1;
+      }
+      else {
+        // the first of several units starting there
+        while(i > 0 && chunk.unitStarts[i - 1] == start) {
+          i--;
+        }
+      }
+
+      Projection projection = null;
+      for(; i < chunk.units.length && chunk.unitStarts[i] < end; i++) {
+        Annotation unit = chunk.units[i];
+        if(unit.getEndNode().getOffset().longValue() > end) continue;
+        for(Annotation tgtUnit : alignment.getAlignedAnnotationsView(unit)) {
+          if(!tgtUnit.getType().equals(unitOfAlignment)
+                  || alignment.getDocument(tgtUnit) != tgtDoc) continue;
+          long tgtStart = tgtUnit.getStartNode().getOffset().longValue();
+          long tgtEnd = tgtUnit.getEndNode().getOffset().longValue();
+          if(projection == null) {
+            projection = new Projection();
+            projection.annotation = annot;
+            projection.start = tgtStart;
+            projection.end = tgtEnd;
+          }
+          else {
+            projection.start = Math.min(projection.start, tgtStart);
+            projection.end = Math.max(projection.end, tgtEnd);
+          }
+        }
+      }
+      if(projection != null) projections.add(projection);
+    }
+    return projections;
+  }
+
+  /**
+   * Adds the projected annotation to the output annotation set,
+   * applying the conflict policy.
+   */
+  private void addProjection(AnnotationSet outputAS, Projection projection)
+          throws InvalidOffsetException {
+    String type = projection.annotation.getType();
+    Long start = projection.start;
+    Long end = projection.end;
+    FeatureMap features = projectedFeatures(projection.annotation);
+
+    ProjectionConflictPolicy policy = conflictPolicy == null
+            ? ProjectionConflictPolicy.KEEP_EXISTING
+            : conflictPolicy;
+    if(policy != ProjectionConflictPolicy.KEEP_ALL) {
+      List<Annotation> overlapping = new ArrayList<Annotation>(outputAS.get(
+              type, start, end));
+      switch(policy) {
+        case KEEP_EXISTING:
+          if(!overlapping.isEmpty()) return;
+          break;
+        case REPLACE:
+          for(Annotation annot : overlapping) {
+            outputAS.remove(annot);
+          }
+          break;
+        case MERGE:
+          for(Annotation annot : overlapping) {
+            if(annot.getStartNode().getOffset().equals(start)
+                    && annot.getEndNode().getOffset().equals(end)) {
+              mergeFeatures(annot.getFeatures(), features);
+              return;
+            }
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    outputAS.add(start, end, type, features);
+  }
+
+  /**
+   * Returns a copy of the features of the annotation that are projected.
+   */
+  private FeatureMap projectedFeatures(Annotation annotation) {
+    FeatureMap features = Factory.newFeatureMap();
+    FeatureMap srcFeatures = annotation.getFeatures();
+    if(srcFeatures == null) return features;
+    if(featureNames == null || featureNames.isEmpty()) {
+      features.putAll(srcFeatures);
+    }
+    else {
+      for(String featureName : featureNames) {
+        if(srcFeatures.containsKey(featureName)) {
+          features.put(featureName, srcFeatures.get(featureName));
+        }
+      }
+    }
+    return features;
+  }
+
+  /**
+   * Adds the projected features to those of an existing annotation.
+   * Where the values differ both are kept, separated by a comma, as the
+   * FeatureTransferrerAction does.
+   */
+  private static void mergeFeatures(FeatureMap features, FeatureMap projected) {
+    for(Object key : projected.keySet()) {
+      Object value = projected.get(key);
+      Object existing = features.get(key);
+      if(existing == null) {
+        features.put(key, value);
+      }
+      else if(value != null && !existing.equals(value)) {
+        features.put(key, existing.toString() + "," + value.toString());
+      }
+    }
+  }
+
+  public String getAlignmentFeatureName() {
+    return alignmentFeatureName;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "word-alignment")
+  public void setAlignmentFeatureName(String alignmentFeatureName) {
+    this.alignmentFeatureName = alignmentFeatureName;
+  }
+
+  public String getParentOfUnitOfAlignment() {
+    return parentOfUnitOfAlignment;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "Sentence")
+  public void setParentOfUnitOfAlignment(String parentOfUnitOfAlignment) {
+    this.parentOfUnitOfAlignment = parentOfUnitOfAlignment;
+  }
+
+  public String getUnitOfAlignment() {
+    return unitOfAlignment;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "Token")
+  public void setUnitOfAlignment(String unitOfAlignment) {
+    this.unitOfAlignment = unitOfAlignment;
+  }
+
+  public String getSourceDocumentID() {
+    return sourceDocumentID;
+  }
+
+  @RunTime
+  @CreoleParameter
+  public void setSourceDocumentID(String sourceDocumentID) {
+    this.sourceDocumentID = sourceDocumentID;
+  }
+
+  public String getTargetDocumentID() {
+    return targetDocumentID;
+  }
+
+  @RunTime
+  @CreoleParameter
+  public void setTargetDocumentID(String targetDocumentID) {
+    this.targetDocumentID = targetDocumentID;
+  }
+
+  public String getInputASName() {
+    return inputASName;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "")
+  public void setInputASName(String inputASName) {
+    this.inputASName = inputASName;
+  }
+
+  public String getSourceASName() {
+    return sourceASName;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(comment = "annotation set of the source document with the annotations to project", defaultValue = "")
+  public void setSourceASName(String sourceASName) {
+    this.sourceASName = sourceASName;
+  }
+
+  public List<String> getAnnotationTypes() {
+    return annotationTypes;
+  }
+
+  @RunTime
+  @CreoleParameter(comment = "types of the annotations to project")
+  public void setAnnotationTypes(List<String> annotationTypes) {
+    this.annotationTypes = annotationTypes;
+  }
+
+  public List<String> getFeatureNames() {
+    return featureNames;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(comment = "features to project, all if none are given")
+  public void setFeatureNames(List<String> featureNames) {
+    this.featureNames = featureNames;
+  }
+
+  public String getOutputASName() {
+    return outputASName;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(comment = "annotation set of the target document the annotations are projected to", defaultValue = "Projected")
+  public void setOutputASName(String outputASName) {
+    this.outputASName = outputASName;
+  }
+
+  public ProjectionConflictPolicy getConflictPolicy() {
+    return conflictPolicy;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "KEEP_EXISTING")
+  public void setConflictPolicy(ProjectionConflictPolicy conflictPolicy) {
+    this.conflictPolicy = conflictPolicy;
+  }
+
+  public Integer getNumberOfThreads() {
+    return numberOfThreads;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(comment = "number of threads, all available processors if not positive", defaultValue = "0")
+  public void setNumberOfThreads(Integer numberOfThreads) {
+    this.numberOfThreads = numberOfThreads;
+  }
+}
@@ -0,0 +1,34 @@
+package gate.alignment;
+
+/**
+ * What to do when an annotation projected by the
+ * {@link ProjectAnnotationsPR} overlaps an annotation of the same type
+ * in the output annotation set, which may have been there before or
+ * have been projected earlier.
+ */
+public enum ProjectionConflictPolicy {
+
+  /**
+   * the projected annotation is added anyway
+   */
+  KEEP_ALL,
+
+  /**
+   * the projected annotation is dropped
+   */
+  KEEP_EXISTING,
+
+  /**
+   * the overlapping annotations are removed and the projected annotation
+   * is added
+   */
+  REPLACE,
+
+  /**
+   * if an annotation of the same type has exactly the same span, the
+   * projected features are added to it, and where it has a different
+   * value already both values are kept, separated by a comma. Otherwise
+   * the projected annotation is added.
+   */
+  MERGE
+}
@@ -0,0 +1,37 @@
+package gate.alignment;
+
+/**
+ * Heuristics for combining two directional word alignments into one.
+ *
+ * @see SymmetrizeAlignmentPR
+ */
+public enum SymmetrizationHeuristic {
+
+  /**
+   * only the links found in both directions
+   */
+  INTERSECTION,
+
+  /**
+   * the links found in either direction
+   */
+  UNION,
+
+  /**
+   * the intersection, grown with neighbouring links (diagonal
+   * neighbours included) from the union that connect an unaligned word
+   */
+  GROW_DIAG,
+
+  /**
+   * grow-diag, after which the links of either direction that connect
+   * an unaligned word are added
+   */
+  GROW_DIAG_FINAL,
+
+  /**
+   * grow-diag, after which the links of either direction that connect
+   * two unaligned words are added
+   */
+  GROW_DIAG_FINAL_AND
+}
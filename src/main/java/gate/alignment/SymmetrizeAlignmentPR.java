@@ -0,0 +1,543 @@
+package gate.alignment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.ProcessingResource;
+import gate.Resource;
+import gate.compound.CompoundDocument;
+import gate.creole.AbstractLanguageAnalyser;
+import gate.creole.ExecutionException;
+import gate.creole.ResourceInstantiationException;
+import gate.creole.metadata.CreoleParameter;
+import gate.creole.metadata.CreoleResource;
+import gate.creole.metadata.Optional;
+import gate.creole.metadata.RunTime;
+import gate.util.OffsetComparator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A PR that combines two directional word alignments, e.g. imported
+ * from the two runs of a statistical aligner, into a third alignment.
+ * The document is processed one pair of parent units (e.g. sentences) at
+ * a time. The links of each pair are held in link matrices, and pairs
+ * are symmetrized in parallel.
+ *
+ * @see SymmetrizationHeuristic
+ */
+@CreoleResource(comment = "A PR to combine two directional alignments into one.")
+public class SymmetrizeAlignmentPR extends AbstractLanguageAnalyser implements
+                                                                   ProcessingResource {
+
+  private static final long serialVersionUID = -6212962526817408514L;
+
+  private static final Logger log = Logger
+          .getLogger(SymmetrizeAlignmentPR.class);
+
+  /**
+   * name of the document feature with the source to target alignment
+   */
+  private String srcToTgtAlignmentFeatureName;
+
+  /**
+   * name of the document feature with the target to source alignment
+   */
+  private String tgtToSrcAlignmentFeatureName;
+
+  /**
+   * name of the document feature where the combined alignment is stored
+   */
+  private String outputAlignmentFeatureName;
+
+  /**
+   * name of the document feature that has the information about
+   * alignments of the parent of the alignment units.
+   */
+  private String parentOfUnitOfAlignmentFeatureName;
+
+  /**
+   * annotation type that has been used as parent of unit of alignment.
+   */
+  private String parentOfUnitOfAlignment;
+
+  /**
+   * annotation type that has been used as unit of alignment.
+   */
+  private String unitOfAlignment;
+
+  /**
+   * id of the source document
+   */
+  private String sourceDocumentID;
+
+  /**
+   * id of the target document
+   */
+  private String targetDocumentID;
+
+  /**
+   * name of the annotation set which has annotations for the unit of
+   * alignment and parent of unit of alignment
+   */
+  private String inputASName;
+
+  /**
+   * heuristic used for combining the alignments
+   */
+  private SymmetrizationHeuristic heuristic;
+
+  /**
+   * number of threads, all available processors if not positive
+   */
+  private Integer numberOfThreads;
+
+  /** Initialise this resource, and return it. */
+  public Resource init() throws ResourceInstantiationException {
+    return this;
+  }
+
+  /* this method is called to re-initialise the resource */
+  public void reInit() throws ResourceInstantiationException {
+    init();
+  }
+
+  /**
+   * Internal class to store the units of a pair of parent of unit of
+   * alignment, sorted by their offsets.
+   */
+  class UnitPair {
+    List<Annotation> srcUnits;
+
+    List<Annotation> tgtUnits;
+  }
+
+  /**
+   * The main logic of the PR.
+   */
+  public void execute() throws ExecutionException {
+
+    // check if the right document provided
+    if(!(this.document instanceof CompoundDocument)) {
+      throw new ExecutionException(this.document.getName()
+              + "not instance of CompoundDocument");
+    }
+
+    CompoundDocument cd = (CompoundDocument)this.document;
+    Document srcDoc = cd.getDocument(sourceDocumentID);
+    Document tgtDoc = cd.getDocument(targetDocumentID);
+    if(srcDoc == null || tgtDoc == null) {
+      throw new ExecutionException("Document " + sourceDocumentID + " or "
+              + targetDocumentID + " not found in " + cd.getName());
+    }
+
+    boolean defaultAS = inputASName == null || inputASName.trim().length() == 0;
+    AnnotationSet srcAS = defaultAS ? srcDoc.getAnnotations() : srcDoc
+            .getAnnotations(inputASName);
+    AnnotationSet tgtAS = defaultAS ? tgtDoc.getAnnotations() : tgtDoc
+            .getAnnotations(inputASName);
+
+    // the units are looked up here since annotation sets build their
+    // offset indexes lazily and must not be used by several threads
+    final List<UnitPair> pairs = getUnitPairs(cd, srcAS, tgtAS);
+
+    // getAlignmentInformation would silently create empty alignments
+    Set<String> alignmentFeatureNames = cd.getAllAlignmentFeatureNames();
+    if(!alignmentFeatureNames.contains(srcToTgtAlignmentFeatureName)
+            || !alignmentFeatureNames.contains(tgtToSrcAlignmentFeatureName)) {
+      throw new ExecutionException("Alignment " + srcToTgtAlignmentFeatureName
+              + " or " + tgtToSrcAlignmentFeatureName + " not found in "
+              + cd.getName());
+    }
+    final Alignment srcToTgt = cd
+            .getAlignmentInformation(srcToTgtAlignmentFeatureName);
+    final Alignment tgtToSrc = cd
+            .getAlignmentInformation(tgtToSrcAlignmentFeatureName);
+    Alignment output = cd.getAlignmentInformation(outputAlignmentFeatureName);
+
+    int threads = numberOfThreads == null || numberOfThreads.intValue() <= 0
+            ? Runtime.getRuntime().availableProcessors()
+            : numberOfThreads.intValue();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math
+            .min(threads, pairs.size())));
+    List<LinkMatrix> matrices = new ArrayList<LinkMatrix>();
+    try {
+      List<Future<LinkMatrix>> futures = new ArrayList<Future<LinkMatrix>>();
+      for(final UnitPair pair : pairs) {
+        futures.add(executor.submit(new Callable<LinkMatrix>() {
+          public LinkMatrix call() {
+            return symmetrize(pair, srcToTgt, tgtToSrc);
+          }
+        }));
+      }
+      for(Future<LinkMatrix> future : futures) {
+        matrices.add(future.get());
+      }
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExecutionException(e);
+    }
+    catch(java.util.concurrent.ExecutionException e) {
+      throw new ExecutionException(e.getCause());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    // the output alignment is only changed from this thread
+    String asName = defaultAS ? null : inputASName;
+    List<Link> links = new ArrayList<Link>();
+    for(int p = 0; p < pairs.size(); p++) {
+      UnitPair pair = pairs.get(p);
+      LinkMatrix matrix = matrices.get(p);
+      for(long b = matrix.next(0); b >= 0; b = matrix.next(b + 1)) {
+        Annotation srcUnit = pair.srcUnits.get(matrix.row(b));
+        Annotation tgtUnit = pair.tgtUnits.get(matrix.column(b));
+        setAlignMethod(srcUnit);
+        setAlignMethod(tgtUnit);
+        links.add(new Link(srcUnit, asName, srcDoc, tgtUnit, asName, tgtDoc));
+      }
+    }
+    output.alignAll(links);
+  }
+
+  /**
+   * Records the heuristic as the alignment method of the annotation
+   * unless it has one already.
+   */
+  private void setAlignMethod(Annotation annotation) {
+    if(!annotation.getFeatures().containsKey(
+            Alignment.ALIGNMENT_METHOD_FEATURE_NAME)) {
+      annotation.getFeatures().put(Alignment.ALIGNMENT_METHOD_FEATURE_NAME,
+              heuristic.name().toLowerCase().replace('_', '-'));
+    }
+  }
+
+  /**
+   * Returns the pairs of units to symmetrize. If the parent of unit of
+   * alignment is aligned, every group of aligned parents is a pair. If
+   * it is not, parents are paired in sequence, and without parents the
+   * whole document is a single pair. If the parent alignment is not
+   * found, parents are paired in sequence too.
+   */
+  private List<UnitPair> getUnitPairs(CompoundDocument cd,
+          AnnotationSet srcAS, AnnotationSet tgtAS) {
+    List<UnitPair> pairs = new ArrayList<UnitPair>();
+    if(parentOfUnitOfAlignment == null
+            || parentOfUnitOfAlignment.trim().length() == 0) {
+      pairs.add(unitPair(srcAS, Collections.<Annotation> emptyList(), tgtAS,
+              Collections.<Annotation> emptyList()));
+      return pairs;
+    }
+
+    AnnotationSet parentSrcAS = srcAS.get(parentOfUnitOfAlignment);
+    AnnotationSet parentTgtAS = tgtAS.get(parentOfUnitOfAlignment);
+    boolean parentsAligned = parentOfUnitOfAlignmentFeatureName != null
+            && parentOfUnitOfAlignmentFeatureName.trim().length() > 0;
+    if(parentsAligned
+            && !cd.getAllAlignmentFeatureNames().contains(
+                    parentOfUnitOfAlignmentFeatureName)) {
+      log.warn("Alignment " + parentOfUnitOfAlignmentFeatureName
+              + " not found in " + cd.getName() + ", "
+              + parentOfUnitOfAlignment + " annotations are paired in sequence");
+      parentsAligned = false;
+    }
+    if(!parentsAligned) {
+      List<Annotation> srcParents = new ArrayList<Annotation>(parentSrcAS);
+      List<Annotation> tgtParents = new ArrayList<Annotation>(parentTgtAS);
+      Collections.sort(srcParents, new OffsetComparator());
+      Collections.sort(tgtParents, new OffsetComparator());
+      for(int i = 0; i < srcParents.size() && i < tgtParents.size(); i++) {
+        pairs.add(unitPair(srcAS, Collections.singletonList(srcParents.get(i)),
+                tgtAS, Collections.singletonList(tgtParents.get(i))));
+      }
+      return pairs;
+    }
+
+    Alignment parentAlignment = cd
+            .getAlignmentInformation(parentOfUnitOfAlignmentFeatureName);
+    for(Set<Annotation> group : parentAlignment.groups()) {
+      List<Annotation> srcParents = new ArrayList<Annotation>();
+      List<Annotation> tgtParents = new ArrayList<Annotation>();
+      for(Annotation parent : group) {
+        // contains() matches ids, which the members share, so the very
+        // annotation is looked for; parents of other members are skipped
+        if(parentSrcAS.get(parent.getId()) == parent)
+          srcParents.add(parent);
+        else if(parentTgtAS.get(parent.getId()) == parent) tgtParents.add(parent);
+      }
+      if(!srcParents.isEmpty() && !tgtParents.isEmpty()) {
+        pairs.add(unitPair(srcAS, srcParents, tgtAS, tgtParents));
+      }
+    }
+    return pairs;
+  }
+
+  /**
+   * Collects the units within the given parents, all units of the
+   * annotation set if no parents are given.
+   */
+  private UnitPair unitPair(AnnotationSet srcAS, List<Annotation> srcParents,
+          AnnotationSet tgtAS, List<Annotation> tgtParents) {
+    UnitPair pair = new UnitPair();
+    pair.srcUnits = getUnits(srcAS, srcParents);
+    pair.tgtUnits = getUnits(tgtAS, tgtParents);
+    return pair;
+  }
+
+  private List<Annotation> getUnits(AnnotationSet inputAS,
+          List<Annotation> parents) {
+    List<Annotation> units = new ArrayList<Annotation>();
+    if(parents.isEmpty()) {
+      units.addAll(inputAS.get(unitOfAlignment));
+    }
+    else {
+      for(Annotation parent : parents) {
+        units.addAll(inputAS.getContained(parent.getStartNode().getOffset(),
+                parent.getEndNode().getOffset()).get(unitOfAlignment));
+      }
+    }
+    Collections.sort(units, new OffsetComparator());
+    return units;
+  }
+
+  /**
+   * Symmetrizes the links of one pair. Link (i, j) of the returned
+   * matrix tells whether the i-th source unit is aligned with the j-th
+   * target unit.
+   */
+  LinkMatrix symmetrize(UnitPair pair, Alignment srcToTgt,
+          Alignment tgtToSrc) {
+    int m = pair.srcUnits.size();
+    int n = pair.tgtUnits.size();
+    LinkMatrix s2t = new LinkMatrix(m, n);
+    LinkMatrix t2s = new LinkMatrix(m, n);
+    if(m == 0 || n == 0) return s2t;
+
+    // annotations compare by their contents, so identity is used
+    Map<Annotation, Integer> tgtIndexes = new IdentityHashMap<Annotation, Integer>();
+    for(int j = 0; j < n; j++) {
+      tgtIndexes.put(pair.tgtUnits.get(j), j);
+    }
+    Map<Annotation, Integer> srcIndexes = new IdentityHashMap<Annotation, Integer>();
+    for(int i = 0; i < m; i++) {
+      srcIndexes.put(pair.srcUnits.get(i), i);
+    }
+
+    for(int i = 0; i < m; i++) {
+      for(Annotation tgtUnit : srcToTgt.getAlignedAnnotationsView(pair.srcUnits
+              .get(i))) {
+        Integer j = tgtIndexes.get(tgtUnit);
+        if(j != null) s2t.set(i, j);
+      }
+    }
+    for(int j = 0; j < n; j++) {
+      for(Annotation srcUnit : tgtToSrc.getAlignedAnnotationsView(pair.tgtUnits
+              .get(j))) {
+        Integer i = srcIndexes.get(srcUnit);
+        if(i != null) t2s.set(i, j);
+      }
+    }
+    return symmetrize(s2t, t2s, heuristic);
+  }
+
+  /**
+   * Combines two m x n alignment matrices with the given heuristic.
+   */
+  static LinkMatrix symmetrize(LinkMatrix s2t, LinkMatrix t2s,
+          SymmetrizationHeuristic heuristic) {
+    int m = s2t.m;
+    int n = s2t.n;
+    LinkMatrix union = s2t.copy();
+    union.or(t2s);
+    if(heuristic == SymmetrizationHeuristic.UNION) return union;
+
+    LinkMatrix alignment = s2t.copy();
+    alignment.and(t2s);
+    if(heuristic == SymmetrizationHeuristic.INTERSECTION) return alignment;
+
+    boolean[] srcAligned = new boolean[m];
+    boolean[] tgtAligned = new boolean[n];
+    for(long b = alignment.next(0); b >= 0; b = alignment.next(b + 1)) {
+      srcAligned[alignment.row(b)] = true;
+      tgtAligned[alignment.column(b)] = true;
+    }
+
+    // grow-diag: keep adding neighbouring links of the union that
+    // connect a unit not aligned so far
+    boolean added = true;
+    while(added) {
+      added = false;
+      for(long b = alignment.next(0); b >= 0; b = alignment.next(b + 1)) {
+        int i = alignment.row(b);
+        int j = alignment.column(b);
+        for(int di = -1; di <= 1; di++) {
+          for(int dj = -1; dj <= 1; dj++) {
+            int ni = i + di;
+            int nj = j + dj;
+            if(ni < 0 || ni >= m || nj < 0 || nj >= n) continue;
+            if(!union.get(ni, nj) || alignment.get(ni, nj)) continue;
+            if(srcAligned[ni] && tgtAligned[nj]) continue;
+            alignment.set(ni, nj);
+            srcAligned[ni] = true;
+            tgtAligned[nj] = true;
+            added = true;
+          }
+        }
+      }
+    }
+    if(heuristic == SymmetrizationHeuristic.GROW_DIAG) return alignment;
+
+    boolean and = heuristic == SymmetrizationHeuristic.GROW_DIAG_FINAL_AND;
+    addFinal(alignment, s2t, srcAligned, tgtAligned, and);
+    addFinal(alignment, t2s, srcAligned, tgtAligned, and);
+    return alignment;
+  }
+
+  /**
+   * The final step: adds the links of the directional alignment that
+   * connect an unaligned unit, or two unaligned units.
+   */
+  private static void addFinal(LinkMatrix alignment, LinkMatrix directional,
+          boolean[] srcAligned, boolean[] tgtAligned, boolean and) {
+    for(long b = directional.next(0); b >= 0; b = directional.next(b + 1)) {
+      int i = directional.row(b);
+      int j = directional.column(b);
+      if(and ? !srcAligned[i] && !tgtAligned[j] : !srcAligned[i]
+              || !tgtAligned[j]) {
+        alignment.set(i, j);
+        srcAligned[i] = true;
+        tgtAligned[j] = true;
+      }
+    }
+  }
+
+  public String getSrcToTgtAlignmentFeatureName() {
+    return srcToTgtAlignmentFeatureName;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "src-tgt-word-alignment")
+  public void setSrcToTgtAlignmentFeatureName(
+          String srcToTgtAlignmentFeatureName) {
+    this.srcToTgtAlignmentFeatureName = srcToTgtAlignmentFeatureName;
+  }
+
+  public String getTgtToSrcAlignmentFeatureName() {
+    return tgtToSrcAlignmentFeatureName;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "tgt-src-word-alignment")
+  public void setTgtToSrcAlignmentFeatureName(
+          String tgtToSrcAlignmentFeatureName) {
+    this.tgtToSrcAlignmentFeatureName = tgtToSrcAlignmentFeatureName;
+  }
+
+  public String getOutputAlignmentFeatureName() {
+    return outputAlignmentFeatureName;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "word-alignment")
+  public void setOutputAlignmentFeatureName(String outputAlignmentFeatureName) {
+    this.outputAlignmentFeatureName = outputAlignmentFeatureName;
+  }
+
+  public String getParentOfUnitOfAlignment() {
+    return parentOfUnitOfAlignment;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "Sentence")
+  public void setParentOfUnitOfAlignment(String parentOfUnitOfAlignment) {
+    this.parentOfUnitOfAlignment = parentOfUnitOfAlignment;
+  }
+
+  public String getUnitOfAlignment() {
+    return unitOfAlignment;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "Token")
+  public void setUnitOfAlignment(String unitOfAlignment) {
+    this.unitOfAlignment = unitOfAlignment;
+  }
+
+  public String getParentOfUnitOfAlignmentFeatureName() {
+    return parentOfUnitOfAlignmentFeatureName;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "sentence-alignment")
+  public void setParentOfUnitOfAlignmentFeatureName(
+          String parentOfUnitOfAlignmentFeatureName) {
+    this.parentOfUnitOfAlignmentFeatureName = parentOfUnitOfAlignmentFeatureName;
+  }
+
+  public String getSourceDocumentID() {
+    return sourceDocumentID;
+  }
+
+  @RunTime
+  @CreoleParameter
+  public void setSourceDocumentID(String sourceDocumentID) {
+    this.sourceDocumentID = sourceDocumentID;
+  }
+
+  public String getTargetDocumentID() {
+    return targetDocumentID;
+  }
+
+  @RunTime
+  @CreoleParameter
+  public void setTargetDocumentID(String targetDocumentID) {
+    this.targetDocumentID = targetDocumentID;
+  }
+
+  public String getInputASName() {
+    return inputASName;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(defaultValue = "")
+  public void setInputASName(String inputASName) {
+    this.inputASName = inputASName;
+  }
+
+  public SymmetrizationHeuristic getHeuristic() {
+    return heuristic;
+  }
+
+  @RunTime
+  @CreoleParameter(defaultValue = "GROW_DIAG_FINAL")
+  public void setHeuristic(SymmetrizationHeuristic heuristic) {
+    this.heuristic = heuristic;
+  }
+
+  public Integer getNumberOfThreads() {
+    return numberOfThreads;
+  }
+
+  @RunTime
+  @Optional
+  @CreoleParameter(comment = "number of threads, all available processors if not positive", defaultValue = "0")
+  public void setNumberOfThreads(Integer numberOfThreads) {
+    this.numberOfThreads = numberOfThreads;
+  }
+}
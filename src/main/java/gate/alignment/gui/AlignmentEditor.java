@@ -810,10 +810,10 @@ public class AlignmentEditor extends JFrame implements FeatureMapListener,
    * @param inputAS
    */
   private void addHighlights(JTextArea editorPane, AnnotationSet inputAS) {
-    for(Annotation a : inputAS) {
-      if(alignment.isAnnotationAligned(a)) {
-        addHighlight(a, editorPane, HIGHLIGHT);
-      }
+    Document doc = inputAS.getDocument();
+    for(Annotation a : alignment.getAlignedIn(doc.getName(), inputAS
+        .getName(), 0, doc.getContent().size())) {
+      addHighlight(a, editorPane, HIGHLIGHT);
     }
   }
 
@@ -1238,7 +1238,7 @@ public class AlignmentEditor extends JFrame implements FeatureMapListener,
       Set<Annotation> srcAlignedAnnots = new HashSet<Annotation>();
 
       for(Annotation ta : tgtAlignedAnnots) {
-        srcAlignedAnnots.addAll(alignment.getAlignedAnnotations(ta));
+        alignment.forEachAligned(ta, srcAlignedAnnots::add);
       }
 
       if(container == targetEditor) {
@@ -124,15 +124,15 @@ public class AlignmentTask {
 
         if(puaAlignment.isAnnotationAligned(srcAnnot)) {
           Set<Annotation> srcAnnots = new HashSet<Annotation>();
-          Set<Annotation> tgtAnnots = puaAlignment
-                  .getAlignedAnnotations(srcAnnot);
-          for(Annotation tgtAnnot : tgtAnnots) {
-            srcAnnots.addAll(puaAlignment.getAlignedAnnotations(tgtAnnot));
+          Set<Annotation> tgtAnnots = new HashSet<Annotation>();
+          for(Annotation annot : puaAlignment.getGroup(srcAnnot)) {
+            // contains() matches ids, which the members share, so the
+            // very annotation is looked for
+            if(srcAS.get(annot.getId()) == annot)
+              srcAnnots.add(annot);
+            else if(tgtAS.get(annot.getId()) == annot) tgtAnnots.add(annot);
           }
 
-          srcAnnots.retainAll(srcAS);
-          tgtAnnots.retainAll(tgtAS);
-
           srcVisitedAnnots.addAll(srcAnnots);
           puaList.add(new PUAPair(this, srcAnnots, tgtAnnots));
         }
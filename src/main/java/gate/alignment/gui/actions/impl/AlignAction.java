@@ -3,9 +3,12 @@ package gate.alignment.gui.actions.impl;
 import gate.Annotation;
 import gate.alignment.Alignment;
 import gate.alignment.AlignmentException;
+import gate.alignment.Link;
 import gate.alignment.gui.AlignmentTask;
 import gate.alignment.gui.AlignmentView;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -30,26 +33,33 @@ public class AlignAction extends AbstractAlignmentAction {
       return;
     if(tgtAlignedAnnotations == null || tgtAlignedAnnotations.isEmpty())
       return;
-    for(Annotation srcAnnotation : srcAlignedAnnotations) {
-      for(Annotation tgtAnnotation : tgtAlignedAnnotations) {
-        if(!alignment.areTheyAligned(srcAnnotation, tgtAnnotation)) {
-
-          if(!alignment.isAnnotationAligned(srcAnnotation)) {
-            srcAnnotation.getFeatures().put(
-                    Alignment.ALIGNMENT_METHOD_FEATURE_NAME, "manual");
-          }
 
-          if(!alignment.isAnnotationAligned(tgtAnnotation)) {
-            tgtAnnotation.getFeatures().put(
-                    Alignment.ALIGNMENT_METHOD_FEATURE_NAME, "manual");
-          }
+    // annotations that are not aligned yet are marked as manually aligned
+    for(Annotation srcAnnotation : srcAlignedAnnotations) {
+      if(!alignment.isAnnotationAligned(srcAnnotation)) {
+        srcAnnotation.getFeatures().put(
+                Alignment.ALIGNMENT_METHOD_FEATURE_NAME, "manual");
+      }
+    }
 
-          alignment.align(srcAnnotation, task.getSrcASName(), task.getSrcDoc(),
-                  tgtAnnotation, task.getTgtASName(), task.getTgtDoc());
+    for(Annotation tgtAnnotation : tgtAlignedAnnotations) {
+      if(!alignment.isAnnotationAligned(tgtAnnotation)) {
+        tgtAnnotation.getFeatures().put(
+                Alignment.ALIGNMENT_METHOD_FEATURE_NAME, "manual");
+      }
+    }
 
-        }
+    // all links are aligned in one go so that listeners receive a
+    // single event
+    List<Link> links = new ArrayList<Link>();
+    for(Annotation srcAnnotation : srcAlignedAnnotations) {
+      for(Annotation tgtAnnotation : tgtAlignedAnnotations) {
+        links.add(new Link(srcAnnotation, task.getSrcASName(), task
+                .getSrcDoc(), tgtAnnotation, task.getTgtASName(), task
+                .getTgtDoc()));
       }
     }
+    alignment.alignAll(links);
   }
 
   /**
@@ -6,6 +6,7 @@ import gate.Document;
 import gate.alignment.Alignment;
 import gate.alignment.AlignmentActionInitializationException;
 import gate.alignment.AlignmentException;
+import gate.alignment.Link;
 import gate.alignment.gui.AlignmentTask;
 import gate.alignment.gui.FinishedAlignmentAction;
 import gate.alignment.gui.PUAPair;
@@ -225,30 +226,30 @@ public class AlignmentCache implements PreDisplayAction,
               if(alignment.isAnnotationAligned(tAnnot)) continue whileLoop;
             }
 
+            // none of the tokens is aligned yet
+            for(int k = sst; k <= sen; k++) {
+              srcTokens.get(k).getFeatures().put(
+                      Alignment.ALIGNMENT_METHOD_FEATURE_NAME,
+                      "phraseAlignAction");
+            }
+
+            for(int kk = tst; kk <= ten; kk++) {
+              tgtTokens.get(kk).getFeatures().put(
+                      Alignment.ALIGNMENT_METHOD_FEATURE_NAME,
+                      "phraseAlignAction");
+            }
+
+            // the whole phrase is aligned with a single event
+            List<Link> links = new ArrayList<Link>();
             for(int k = sst; k <= sen; k++) {
               Annotation sAnnot = srcTokens.get(k);
               for(int kk = tst; kk <= ten; kk++) {
-                Annotation tAnnot = tgtTokens.get(kk);
-                if(!alignment.areTheyAligned(sAnnot, tAnnot)) {
-                  if(!alignment.isAnnotationAligned(sAnnot)) {
-                    sAnnot.getFeatures().put(
-                            Alignment.ALIGNMENT_METHOD_FEATURE_NAME,
-                            "phraseAlignAction");
-                  }
-
-                  if(!alignment.isAnnotationAligned(tAnnot)) {
-                    tAnnot.getFeatures().put(
-                            Alignment.ALIGNMENT_METHOD_FEATURE_NAME,
-                            "phraseAlignAction");
-                  }
-
-                  alignment.align(sAnnot, task.getSrcASName(),
-                          task.getSrcDoc(), tAnnot, task.getTgtASName(), task
-                                  .getTgtDoc());
-
-                }
+                links.add(new Link(sAnnot, task.getSrcASName(), task
+                        .getSrcDoc(), tgtTokens.get(kk), task.getTgtASName(),
+                        task.getTgtDoc()));
               }
             }
+            alignment.alignAll(links);
             continue outer;
           }
           tStartIndex = 0;
@@ -375,17 +376,20 @@ public class AlignmentCache implements PreDisplayAction,
         continue;
       }
 
-      Set<Annotation> srcAlignedAnnots = new HashSet<Annotation>();
-      srcAlignedAnnots.add(srcAnnot);
-      Set<Annotation> tgtAlignedAnnots = alignment
-              .getAlignedAnnotations(srcAnnot);
-      if(tgtAlignedAnnots == null || tgtAlignedAnnots.isEmpty()) {
+      Set<Annotation> group = alignment.getGroup(srcAnnot);
+      if(group.isEmpty()) {
         continue;
       }
+      consideredAnnots.addAll(group);
 
-      for(Annotation tgtAnnot : tgtAlignedAnnots) {
-        consideredAnnots.add(tgtAnnot);
-        srcAlignedAnnots.addAll(alignment.getAlignedAnnotations(tgtAnnot));
+      Set<Annotation> srcAlignedAnnots = new HashSet<Annotation>();
+      Set<Annotation> tgtAlignedAnnots = new HashSet<Annotation>();
+      for(Annotation annot : group) {
+        // contains() matches ids, which the members share, so the very
+        // annotation is looked for
+        if(sas.get(annot.getId()) == annot)
+          srcAlignedAnnots.add(annot);
+        else if(tas.get(annot.getId()) == annot) tgtAlignedAnnots.add(annot);
       }
 
       String sourceText = getText(srcAlignedAnnots, task.getSrcDoc(), sas);
@@ -69,8 +69,8 @@ public class FeatureTransferrerAction implements FinishedAlignmentAction {
 
     for(Annotation srcAnnot : pair.getSourceUnitAnnotations()) {
       Set<Annotation> tgtAlignedAnnots = alignment
-              .getAlignedAnnotations(srcAnnot);
-      if(tgtAlignedAnnots == null || tgtAlignedAnnots.isEmpty()) {
+              .getAlignedAnnotationsView(srcAnnot);
+      if(tgtAlignedAnnots.isEmpty()) {
         continue;
       }
 
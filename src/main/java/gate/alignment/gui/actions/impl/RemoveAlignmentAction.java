@@ -3,9 +3,12 @@ package gate.alignment.gui.actions.impl;
 import gate.Annotation;
 import gate.alignment.Alignment;
 import gate.alignment.AlignmentException;
+import gate.alignment.Link;
 import gate.alignment.gui.AlignmentTask;
 import gate.alignment.gui.AlignmentView;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -28,23 +31,29 @@ public class RemoveAlignmentAction extends AbstractAlignmentAction {
       return;
     if(tgtAlignedAnnotations == null || tgtAlignedAnnotations.isEmpty())
       return;
+    List<Link> links = new ArrayList<Link>();
     for(Annotation srcAnnotation : srcAlignedAnnotations) {
       for(Annotation tgtAnnotation : tgtAlignedAnnotations) {
         if(alignment.areTheyAligned(srcAnnotation, tgtAnnotation)) {
-          alignment.unalign(srcAnnotation, task.getSrcASName(), task
+          links.add(new Link(srcAnnotation, task.getSrcASName(), task
                   .getSrcDoc(), tgtAnnotation, task.getTgtASName(), task
-                  .getTgtDoc());
+                  .getTgtDoc()));
+        }
+      }
+    }
 
-          if(alignment.getAlignedAnnotations(srcAnnotation).size() == 0) {
-            srcAnnotation.getFeatures().remove(
-                    Alignment.ALIGNMENT_METHOD_FEATURE_NAME);
-          } 
+    // unaligned in one go so that listeners receive a single event
+    alignment.unalignAll(links);
 
-          if(alignment.getAlignedAnnotations(tgtAnnotation).size() == 0) {
-            tgtAnnotation.getFeatures().remove(
-                    Alignment.ALIGNMENT_METHOD_FEATURE_NAME);
-          }
-        }
+    for(Link link : links) {
+      if(alignment.alignedCount(link.getSrcAnnotation()) == 0) {
+        link.getSrcAnnotation().getFeatures().remove(
+                Alignment.ALIGNMENT_METHOD_FEATURE_NAME);
+      }
+
+      if(alignment.alignedCount(link.getTgtAnnotation()) == 0) {
+        link.getTgtAnnotation().getFeatures().remove(
+                Alignment.ALIGNMENT_METHOD_FEATURE_NAME);
       }
     }
     alignmentView.clearLatestAnnotationsSelection();
@@ -3,6 +3,7 @@ package gate.alignment.gui.views;
 import gate.Annotation;
 import gate.Document;
 import gate.alignment.AlignmentListener;
+import gate.alignment.Link;
 import gate.alignment.gui.AlignmentAction;
 import gate.alignment.gui.AlignmentTask;
 import gate.alignment.gui.AlignmentView;
@@ -16,6 +17,7 @@ import java.awt.event.MouseEvent;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
@@ -26,6 +28,7 @@ import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.SwingUtilities;
 import javax.swing.event.MouseInputAdapter;
 import javax.swing.table.DefaultTableModel;
 
@@ -161,7 +164,7 @@ public class MatrixView extends JPanel implements AlignmentListener,
   public void annotationsAligned(Annotation srcAnnotation, String srcAS,
           Document srcDocument, Annotation tgtAnnotation, String tgtAS,
           Document tgtDocument) {
-    matrix.updateUI();
+    updateMatrix();
   }
 
   /**
@@ -172,7 +175,38 @@ public class MatrixView extends JPanel implements AlignmentListener,
           Document srcDocument, Annotation tgtAnnotation, String tgtAS,
           Document tgtDocument) {
 
-    matrix.updateUI();
+    updateMatrix();
+  }
+
+  /**
+   * updates the GUI once for all the aligned links.
+   */
+  public void annotationsAligned(List<Link> links) {
+    updateMatrix();
+  }
+
+  /**
+   * updates the GUI once for all the unaligned links.
+   */
+  public void annotationsUnaligned(List<Link> links) {
+    updateMatrix();
+  }
+
+  /**
+   * Updates the matrix on the event dispatch thread. Alignments with an
+   * event dispatcher deliver events on its thread.
+   */
+  private void updateMatrix() {
+    if(SwingUtilities.isEventDispatchThread()) {
+      matrix.updateUI();
+    }
+    else {
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          matrix.updateUI();
+        }
+      });
+    }
   }
 
   /**
@@ -4,6 +4,7 @@ import gate.Annotation;
 import gate.Document;
 import gate.alignment.Alignment;
 import gate.alignment.AlignmentListener;
+import gate.alignment.Link;
 import gate.alignment.gui.AlignmentAction;
 import gate.alignment.gui.AlignmentEditor;
 import gate.alignment.gui.AlignmentTask;
@@ -352,33 +353,15 @@ public class ParallelTextView extends JPanel implements AlignmentListener,
       // if already highlighted, don't do it again
       if(highlightedAnnotations.contains(srcAnnotation)) continue;
 
-      Set<Annotation> targetAnnots =
-              alignment.getAlignedAnnotations(srcAnnotation);
-      targetAnnots.retainAll(targetHighlights.keySet());
-
+      // all shown annotations of the same group get the same colour
       Set<Annotation> sourceAnnots = new HashSet<Annotation>();
-      sourceAnnots.add(srcAnnotation);
-      highlightedAnnotations.add(srcAnnotation);
-
-      for(int j = i + 1; j < srcAnnotList.size(); j++) {
-
-        Annotation sAnnotation = srcAnnotList.get(j);
-
-        // if not aligned
-        if(!alignment.isAnnotationAligned(sAnnotation)) continue;
-
-        // if already highlighted, don't do it again
-        if(highlightedAnnotations.contains(sAnnotation)) continue;
-
-        Set<Annotation> alignedAnnots1 =
-                alignment.getAlignedAnnotations(sAnnotation);
-        alignedAnnots1.retainAll(targetHighlights.keySet());
-
-        if(targetAnnots.containsAll(alignedAnnots1)) {
-          sourceAnnots.add(sAnnotation);
-          highlightedAnnotations.add(sAnnotation);
-        }
+      Set<Annotation> targetAnnots = new HashSet<Annotation>();
+      for(Annotation annot : alignment.getGroup(srcAnnotation)) {
+        if(sourceHighlights.containsKey(annot))
+          sourceAnnots.add(annot);
+        else if(targetHighlights.containsKey(annot)) targetAnnots.add(annot);
       }
+      highlightedAnnotations.addAll(sourceAnnots);
 
       Color newColor = AlignmentEditor.getColor(null, 0.2f);
       boolean firstTime = true;
@@ -656,11 +639,48 @@ public class ParallelTextView extends JPanel implements AlignmentListener,
   public void annotationsAligned(Annotation srcAnnotation, String srcAS,
           Document srcDocument, Annotation tgtAnnotation, String tgtAS,
           Document tgtDocument) {
+    annotationsAligned(Collections.singletonList(new Link(srcAnnotation,
+            srcAS, srcDocument, tgtAnnotation, tgtAS, tgtDocument)));
+  }
+
+  /**
+   * listens to the batch annotationsAligned event and updates the GUI only
+   * once for all the links. Alignments with an event dispatcher deliver
+   * events on its thread, so the GUI is then updated later on the event
+   * dispatch thread.
+   */
+  public void annotationsAligned(final List<Link> links) {
+    if(!SwingUtilities.isEventDispatchThread()) {
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          annotationsAligned(links);
+        }
+      });
+      return;
+    }
+    boolean updated = false;
+    for(Link link : links) {
+      updated |= addLinkHighlight(link.getSrcAnnotation(), link
+              .getSrcDocument(), link.getTgtAnnotation(), link.getTgtDocument());
+    }
+    if(updated) {
+      linesCanvas.updateUI();
+      waPanel.updateUI();
+    }
+  }
+
+  /**
+   * highlights the two annotations and adds an edge between them.
+   * 
+   * @return false if the annotations are not shown in the current pair
+   */
+  private boolean addLinkHighlight(Annotation srcAnnotation,
+          Document srcDocument, Annotation tgtAnnotation, Document tgtDocument) {
 
     if(srcAnnotation == null || tgtAnnotation == null || srcDocument == null
             || tgtDocument == null) {
       System.err.println("One of the src/tgt annotation/document is null");
-      return;
+      return false;
     }
 
     AnnotationHighlight sAh = sourceHighlights.get(srcAnnotation);
@@ -668,7 +688,7 @@ public class ParallelTextView extends JPanel implements AlignmentListener,
 
     // may be not related to current highlight
     if(sAh == null || tAh == null) {
-      return;
+      return false;
     }
     
     // otherwise, highlight it
@@ -687,8 +707,7 @@ public class ParallelTextView extends JPanel implements AlignmentListener,
     e.srcAH = sAh;
     e.tgtAH = tAh;
     linesCanvas.addEdge(e);
-    linesCanvas.updateUI();
-    waPanel.updateUI();
+    return true;
   }
 
   /**
@@ -698,11 +717,47 @@ public class ParallelTextView extends JPanel implements AlignmentListener,
   public void annotationsUnaligned(Annotation srcAnnotation, String srcAS,
           Document srcDocument, Annotation tgtAnnotation, String tgtAS,
           Document tgtDocument) {
+    annotationsUnaligned(Collections.singletonList(new Link(srcAnnotation,
+            srcAS, srcDocument, tgtAnnotation, tgtAS, tgtDocument)));
+  }
+
+  /**
+   * listens to the batch annotationsUnaligned event and updates the GUI
+   * only once for all the links, on the event dispatch thread.
+   */
+  public void annotationsUnaligned(final List<Link> links) {
+    if(!SwingUtilities.isEventDispatchThread()) {
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          annotationsUnaligned(links);
+        }
+      });
+      return;
+    }
+    boolean updated = false;
+    for(Link link : links) {
+      updated |= removeLinkHighlight(link.getSrcAnnotation(), link
+              .getSrcDocument(), link.getTgtAnnotation(), link.getTgtDocument());
+    }
+    if(updated) {
+      linesCanvas.updateUI();
+      waPanel.updateUI();
+    }
+  }
+
+  /**
+   * removes the edge between the two annotations and their highlights if
+   * they are not aligned any more.
+   * 
+   * @return false if the annotations are not shown in the current pair
+   */
+  private boolean removeLinkHighlight(Annotation srcAnnotation,
+          Document srcDocument, Annotation tgtAnnotation, Document tgtDocument) {
 
     if(srcAnnotation == null || tgtAnnotation == null || srcDocument == null
             || tgtDocument == null) {
       System.err.println("One of the src/tgt annotation/document is null");
-      return;
+      return false;
     }
 
     AnnotationHighlight sAh = sourceHighlights.get(srcAnnotation);
@@ -710,7 +765,7 @@ public class ParallelTextView extends JPanel implements AlignmentListener,
 
     // may be not related to current highlight
     if(sAh == null || tAh == null) {
-      return;
+      return false;
     }
 
     if(linesCanvas.removeEdges(sAh, tAh)) {
@@ -722,9 +777,7 @@ public class ParallelTextView extends JPanel implements AlignmentListener,
         tAh.setHighlighted(false, Color.WHITE);
       }
     }
-    
-    linesCanvas.updateUI();
-    waPanel.updateUI();
+    return true;
   }
 
   /**
@@ -0,0 +1,228 @@
+package gate.alignment.utils;
+
+import java.io.Serializable;
+
+/**
+ * A small open addressing hash map from primitive long keys to
+ * primitive int values. It avoids boxing as well as the entry objects
+ * of a java.util.HashMap and is used by the compact alignment storage
+ * to find the node of an annotation. Negative values cannot be stored
+ * since -1 is used to indicate a missing key.
+ *
+ * The table is kept in paged arrays, so share() makes a copy that
+ * shares the unchanged pages of the table with this map.
+ */
+public class LongIntMap implements Serializable {
+
+  private static final long serialVersionUID = -3529418342174390718L;
+
+  /**
+   * marks an unused position in the table, this value cannot be used as
+   * a key
+   */
+  private static final long EMPTY = Long.MIN_VALUE;
+
+  /**
+   * value returned when the key is not present in the map
+   */
+  public static final int NO_VALUE = -1;
+
+  private PagedLongArray keys;
+
+  private PagedIntArray values;
+
+  private int size;
+
+  /**
+   * Constructor
+   */
+  public LongIntMap() {
+    this(16);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param expectedSize number of entries the map should be able to
+   *          hold without resizing
+   */
+  public LongIntMap(int expectedSize) {
+    int capacity = 16;
+    while(capacity < expectedSize * 2) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  /**
+   * Creates a copy of the given map.
+   */
+  public LongIntMap(LongIntMap map) {
+    this(map, false);
+  }
+
+  /**
+   * Creates a copy of the given map that shares the pages of its table,
+   * or copies the whole table.
+   */
+  private LongIntMap(LongIntMap map, boolean share) {
+    if(share) {
+      keys = map.keys.share();
+      values = map.values.share();
+    }
+    else {
+      keys = new PagedLongArray(map.keys.length(), EMPTY);
+      values = new PagedIntArray(map.values.length());
+      for(int i = 0; i < keys.length(); i++) {
+        keys.set(i, map.keys.get(i));
+        values.set(i, map.values.get(i));
+      }
+    }
+    size = map.size;
+  }
+
+  /**
+   * Returns a copy of this map. The two maps share the pages of their
+   * tables until either of them changes a page, so this takes time
+   * proportional to the number of pages rather than entries.
+   */
+  public LongIntMap share() {
+    return new LongIntMap(this, true);
+  }
+
+  private void allocate(int capacity) {
+    keys = new PagedLongArray(capacity, EMPTY);
+    values = new PagedIntArray(capacity);
+    size = 0;
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int)(h ^ (h >>> 32));
+  }
+
+  private int indexOf(long key) {
+    int mask = keys.length() - 1;
+    int i = hash(key) & mask;
+    long k;
+    while((k = keys.get(i)) != EMPTY) {
+      if(k == key) return i;
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the value stored for the given key or NO_VALUE if the map
+   * does not contain the key.
+   */
+  public int get(long key) {
+    int i = indexOf(key);
+    return i == -1 ? NO_VALUE : values.get(i);
+  }
+
+  /**
+   * Tells whether the map has an entry for the given key.
+   */
+  public boolean containsKey(long key) {
+    return indexOf(key) != -1;
+  }
+
+  /**
+   * Stores the value for the given key and returns the previous value or
+   * NO_VALUE if there wasn't any.
+   */
+  public int put(long key, int value) {
+    if(key == EMPTY) {
+      throw new IllegalArgumentException(key + " cannot be used as a key");
+    }
+
+    if((size + 1) * 2 > keys.length()) {
+      rehash(keys.length() << 1);
+    }
+
+    int mask = keys.length() - 1;
+    int i = hash(key) & mask;
+    long k;
+    while((k = keys.get(i)) != EMPTY) {
+      if(k == key) {
+        int previous = values.get(i);
+        values.set(i, value);
+        return previous;
+      }
+      i = (i + 1) & mask;
+    }
+    keys.set(i, key);
+    values.set(i, value);
+    size++;
+    return NO_VALUE;
+  }
+
+  /**
+   * Removes the entry for the given key and returns its value or
+   * NO_VALUE if there wasn't any.
+   */
+  public int remove(long key) {
+    int i = indexOf(key);
+    if(i == -1) return NO_VALUE;
+    int previous = values.get(i);
+
+    // shift back the entries that follow in the same cluster so that
+    // lookups never stop at the slot being freed
+    int mask = keys.length() - 1;
+    int j = i;
+    while(true) {
+      j = (j + 1) & mask;
+      long keyJ = keys.get(j);
+      if(keyJ == EMPTY) break;
+      int k = hash(keyJ) & mask;
+      if(i <= j ? (i < k && k <= j) : (i < k || k <= j)) continue;
+      keys.set(i, keyJ);
+      values.set(i, values.get(j));
+      i = j;
+    }
+    keys.set(i, EMPTY);
+    size--;
+    return previous;
+  }
+
+  private void rehash(int capacity) {
+    PagedLongArray oldKeys = keys;
+    PagedIntArray oldValues = values;
+    allocate(capacity);
+    for(int i = 0; i < oldKeys.length(); i++) {
+      if(oldKeys.get(i) != EMPTY) {
+        put(oldKeys.get(i), oldValues.get(i));
+      }
+    }
+  }
+
+  /**
+   * Number of entries in the map
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Number of positions in the table, used for estimating the memory
+   * taken by the map.
+   */
+  public int capacity() {
+    return keys.length();
+  }
+
+  /**
+   * Tells whether the map is empty.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Removes all entries from the map
+   */
+  public void clear() {
+    allocate(keys.length());
+  }
+}
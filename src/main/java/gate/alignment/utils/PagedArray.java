@@ -0,0 +1,145 @@
+package gate.alignment.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Base of the arrays that are split into pages of PAGE_SIZE entries so
+ * that they can be copied cheaply. A copy made with share() starts with
+ * the same pages as the original, which takes time proportional to the
+ * number of pages. Afterwards, the original and the copy both copy a
+ * page the first time they change it, so neither sees the changes of
+ * the other and only the pages that are changed are ever copied.
+ *
+ * Arrays shorter than a page have a single page of their own length.
+ * Longer arrays have a whole number of pages.
+ */
+public abstract class PagedArray<P> implements Serializable {
+
+  private static final long serialVersionUID = 4120939556382375624L;
+
+  static final int PAGE_BITS = 10;
+
+  static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+  static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  /**
+   * the pages, each an array of the type the subclass stores
+   */
+  protected Object[] pages;
+
+  /**
+   * tells for every page whether it has been allocated or copied by
+   * this array, in which case it can be changed in place
+   */
+  private boolean[] owned;
+
+  private int length;
+
+  /**
+   * Creates an array of at least the given length.
+   */
+  protected PagedArray(int length) {
+    this.pages = new Object[0];
+    this.owned = new boolean[0];
+    ensureLength(length);
+  }
+
+  /**
+   * Creates a copy sharing the pages of the given array.
+   */
+  protected PagedArray(PagedArray<P> array) {
+    this.pages = array.pages.clone();
+    this.owned = new boolean[pages.length];
+    this.length = array.length;
+    Arrays.fill(array.owned, false);
+  }
+
+  /**
+   * Returns a new page holding the given number of entries.
+   */
+  protected abstract P newPage(int size);
+
+  /**
+   * Returns a copy of the given page with the given number of entries.
+   */
+  protected abstract P copyPage(P page, int size);
+
+  /**
+   * Returns a copy of this array that shares its pages, see the class
+   * description.
+   */
+  public abstract PagedArray<P> share();
+
+  /**
+   * Returns the page holding the entry at the given index for reading.
+   */
+  @SuppressWarnings("unchecked")
+  protected final P page(int index) {
+    return (P)pages[index >>> PAGE_BITS];
+  }
+
+  /**
+   * Returns the page holding the entry at the given index for writing,
+   * copying it first if it is shared.
+   */
+  @SuppressWarnings("unchecked")
+  protected final P writablePage(int index) {
+    int page = index >>> PAGE_BITS;
+    if(!owned[page]) {
+      pages[page] = copyPage((P)pages[page], pageSize(page));
+      owned[page] = true;
+    }
+    return (P)pages[page];
+  }
+
+  private int pageSize(int page) {
+    return length < PAGE_SIZE ? length : PAGE_SIZE;
+  }
+
+  /**
+   * Number of entries the array can hold
+   */
+  public final int length() {
+    return length;
+  }
+
+  /**
+   * Grows the array so that it holds at least the given number of
+   * entries. New entries have the default value of the subclass.
+   */
+  @SuppressWarnings("unchecked")
+  public final void ensureLength(int minLength) {
+    if(minLength <= length) return;
+    if(minLength < PAGE_SIZE) {
+      // a single short page
+      pages = new Object[] {length == 0 ? newPage(minLength) : copyPage(
+              (P)pages[0], minLength)};
+      owned = new boolean[] {true};
+      length = minLength;
+      return;
+    }
+
+    if(length > 0 && length < PAGE_SIZE) {
+      pages[0] = copyPage((P)pages[0], PAGE_SIZE);
+      owned[0] = true;
+    }
+    int pageCount = (int)(((long)minLength + PAGE_MASK) >>> PAGE_BITS);
+    int oldPageCount = pages.length;
+    pages = Arrays.copyOf(pages, pageCount);
+    owned = Arrays.copyOf(owned, pageCount);
+    for(int page = oldPageCount; page < pageCount; page++) {
+      pages[page] = newPage(PAGE_SIZE);
+      owned[page] = true;
+    }
+    length = pageCount << PAGE_BITS;
+  }
+
+  /**
+   * Number of pages, used for estimating the memory taken by the array.
+   */
+  public final int pageCount() {
+    return pages.length;
+  }
+}
@@ -0,0 +1,46 @@
+package gate.alignment.utils;
+
+import java.util.Arrays;
+
+/**
+ * An array of primitive ints whose copies share the unchanged pages, see
+ * {@link PagedArray}.
+ */
+public class PagedIntArray extends PagedArray<int[]> {
+
+  private static final long serialVersionUID = 2951813608437150269L;
+
+  /**
+   * Creates an array of at least the given length filled with zeros.
+   */
+  public PagedIntArray(int length) {
+    super(length);
+  }
+
+  private PagedIntArray(PagedIntArray array) {
+    super(array);
+  }
+
+  @Override
+  protected int[] newPage(int size) {
+    return new int[size];
+  }
+
+  @Override
+  protected int[] copyPage(int[] page, int size) {
+    return Arrays.copyOf(page, size);
+  }
+
+  @Override
+  public PagedIntArray share() {
+    return new PagedIntArray(this);
+  }
+
+  public int get(int index) {
+    return page(index)[index & PAGE_MASK];
+  }
+
+  public void set(int index, int value) {
+    writablePage(index)[index & PAGE_MASK] = value;
+  }
+}
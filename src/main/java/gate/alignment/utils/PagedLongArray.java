@@ -0,0 +1,68 @@
+package gate.alignment.utils;
+
+import java.util.Arrays;
+
+/**
+ * An array of primitive longs whose copies share the unchanged pages,
+ * see {@link PagedArray}.
+ */
+public class PagedLongArray extends PagedArray<long[]> {
+
+  private static final long serialVersionUID = -7064285301574935012L;
+
+  /**
+   * value of the entries that have not been set
+   */
+  private final long defaultValue;
+
+  /**
+   * Creates an array of at least the given length filled with zeros.
+   */
+  public PagedLongArray(int length) {
+    this(length, 0L);
+  }
+
+  /**
+   * Creates an array of at least the given length filled with the given
+   * value, which new entries get as well when the array grows.
+   */
+  public PagedLongArray(int length, long defaultValue) {
+    super(0);
+    this.defaultValue = defaultValue;
+    ensureLength(length);
+  }
+
+  private PagedLongArray(PagedLongArray array) {
+    super(array);
+    this.defaultValue = array.defaultValue;
+  }
+
+  @Override
+  protected long[] newPage(int size) {
+    long[] page = new long[size];
+    if(defaultValue != 0L) Arrays.fill(page, defaultValue);
+    return page;
+  }
+
+  @Override
+  protected long[] copyPage(long[] page, int size) {
+    long[] copy = Arrays.copyOf(page, size);
+    if(defaultValue != 0L && size > page.length) {
+      Arrays.fill(copy, page.length, size, defaultValue);
+    }
+    return copy;
+  }
+
+  @Override
+  public PagedLongArray share() {
+    return new PagedLongArray(this);
+  }
+
+  public long get(int index) {
+    return page(index)[index & PAGE_MASK];
+  }
+
+  public void set(int index, long value) {
+    writablePage(index)[index & PAGE_MASK] = value;
+  }
+}
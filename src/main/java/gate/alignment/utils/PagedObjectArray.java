@@ -0,0 +1,48 @@
+package gate.alignment.utils;
+
+import java.util.Arrays;
+
+/**
+ * An array of references whose copies share the unchanged pages, see
+ * {@link PagedArray}. Only the references are copied, so the objects
+ * they refer to are shared as well.
+ */
+public class PagedObjectArray<T> extends PagedArray<Object[]> {
+
+  private static final long serialVersionUID = -3379206414092807186L;
+
+  /**
+   * Creates an array of at least the given length filled with nulls.
+   */
+  public PagedObjectArray(int length) {
+    super(length);
+  }
+
+  private PagedObjectArray(PagedObjectArray<T> array) {
+    super(array);
+  }
+
+  @Override
+  protected Object[] newPage(int size) {
+    return new Object[size];
+  }
+
+  @Override
+  protected Object[] copyPage(Object[] page, int size) {
+    return Arrays.copyOf(page, size);
+  }
+
+  @Override
+  public PagedObjectArray<T> share() {
+    return new PagedObjectArray<T>(this);
+  }
+
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    return (T)page(index)[index & PAGE_MASK];
+  }
+
+  public void set(int index, T value) {
+    writablePage(index)[index & PAGE_MASK] = value;
+  }
+}
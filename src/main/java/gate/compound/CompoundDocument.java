@@ -72,6 +72,16 @@ public interface CompoundDocument extends TextualDocument {
 	 * empty alignment object and returns it.
 	 */
 	public Alignment getAlignmentInformation(String alignmentFeatureName);
+
+	/**
+	 * Same as getAlignmentInformation(alignmentFeatureName) except that a new
+	 * alignment object is created as an instance of the given class. The class
+	 * must have a public constructor that takes the compound document as its
+	 * only argument. If the alignment with given name already exists, it is
+	 * returned as it is.
+	 */
+	public Alignment getAlignmentInformation(String alignmentFeatureName,
+			Class<? extends Alignment> alignmentClass);
 	
 	/**
 	 * This method returns all available alignment feature names
@@ -0,0 +1,50 @@
+package gate.compound;
+
+import gate.creole.ResourceInstantiationException;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exception thrown when none of the members of a compound document could
+ * be loaded, or any could not with failOnMemberLoadingError set. It
+ * tells why each of them failed. Otherwise members that fail while
+ * others load are skipped, see
+ * CompoundDocumentImpl.getMemberLoadingFailures().
+ */
+public class MemberLoadingException extends ResourceInstantiationException {
+
+  private static final long serialVersionUID = -3260846157962318493L;
+
+  private Map<String, Throwable> failures;
+
+  /**
+   * @param failures - the cause of the failure of every member that
+   *          could not be loaded, keyed on the document id
+   */
+  public MemberLoadingException(Map<String, Throwable> failures) {
+    super(message(failures));
+    this.failures = Collections
+            .unmodifiableMap(new LinkedHashMap<String, Throwable>(failures));
+    if(failures.size() == 1) initCause(failures.values().iterator().next());
+  }
+
+  private static String message(Map<String, Throwable> failures) {
+    StringBuilder message = new StringBuilder("Could not load ");
+    message.append(failures.size() == 1 ? "member" : "members");
+    for(Map.Entry<String, Throwable> entry : failures.entrySet()) {
+      message.append("\n  ").append(entry.getKey()).append(": ").append(
+              entry.getValue());
+    }
+    return message.toString();
+  }
+
+  /**
+   * The cause of the failure of every member that could not be loaded,
+   * keyed on the document id, in the order of the document ids.
+   */
+  public Map<String, Throwable> getFailures() {
+    return failures;
+  }
+}
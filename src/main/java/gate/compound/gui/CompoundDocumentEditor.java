@@ -10,9 +10,12 @@ import gate.compound.CompoundDocument;
 import gate.compound.CompoundDocumentEvent;
 import gate.compound.CompoundDocumentListener;
 import gate.compound.impl.AbstractCompoundDocument;
+import gate.compound.impl.LazyDocumentMap;
 import gate.corpora.DocumentImpl;
 import gate.creole.AbstractVisualResource;
 import gate.creole.ResourceInstantiationException;
+import gate.event.CreoleEvent;
+import gate.event.CreoleListener;
 import gate.event.ProgressListener;
 import gate.gui.ActionsPublisher;
 import gate.gui.Handle;
@@ -30,7 +33,6 @@ import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -135,13 +137,18 @@ public class CompoundDocumentEditor extends AbstractVisualResource
    */
   public void setHandle(Handle handle) {
     super.setHandle(handle);
-    Map<String,Document> documents = ((CompoundDocument)this.document).getDocuments();
-    ((CompoundDocument)this.document).addCompoundDocumentListener(this);
+    CompoundDocument compoundDocument = (CompoundDocument)this.document;
+    Map<String,Document> documents = compoundDocument.getDocuments();
+    compoundDocument.addCompoundDocumentListener(this);
+    Gate.getCreoleRegister().addCreoleListener(memberUnloadListener);
 
-    Iterator<Document> iter = documents.values().iterator();
     try {
-      while(iter.hasNext()) {
-        Document doc = iter.next();
+      // members that are loaded lazily are not loaded for the views
+      for(String documentID : new ArrayList<String>(documents.keySet())) {
+        if(documents instanceof LazyDocumentMap
+                && !((LazyDocumentMap)documents).isLoaded(documentID)) continue;
+        Document doc = documents.get(documentID);
+        if(doc == null) continue;
         NameBearerHandle nbHandle = new NameBearerHandle(doc, Main
                 .getMainFrame());
         JComponent largeView = nbHandle.getLargeView();
@@ -158,6 +165,42 @@ public class CompoundDocumentEditor extends AbstractVisualResource
     }
   }
 
+  /**
+   * Closes the view of a member when the compound document unloads it,
+   * as the member is deleted then.
+   */
+  private final CreoleListener memberUnloadListener = new CreoleListener() {
+    public void resourceUnloaded(CreoleEvent e) {
+      if(!(e.getResource() instanceof Document)) return;
+      final Document doc = (Document)e.getResource();
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          Handle handle = documentsMap.get(doc.getName());
+          if(handle == null || handle.getTarget() != doc) return;
+          documentsMap.remove(doc.getName());
+          tabbedPane.remove(handle.getLargeView());
+          handle.cleanup();
+        }
+      });
+    }
+
+    public void resourceLoaded(CreoleEvent e) {
+    }
+
+    public void datastoreOpened(CreoleEvent e) {
+    }
+
+    public void datastoreCreated(CreoleEvent e) {
+    }
+
+    public void datastoreClosed(CreoleEvent e) {
+    }
+
+    public void resourceRenamed(Resource resource, String oldName,
+            String newName) {
+    }
+  };
+
   /**
    * Allows adding an existing GATE document as a member to the compound document 
    * @author niraj
@@ -332,12 +375,11 @@ public class CompoundDocumentEditor extends AbstractVisualResource
           return;
         }
 
-        String xml = AbstractCompoundDocument.toXmlAsASingleDocument(cd);
-        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
-            new FileOutputStream(fileToSaveIn), cd.getEncoding()))) {
-          bw.write(xml);
-          bw.flush();
-        }
+        // the members are streamed to the file, compressed if its name
+        // says so
+        AbstractCompoundDocument.writeAsASingleDocument(cd,
+            new FileOutputStream(fileToSaveIn), fileToSaveIn.getName()
+                .endsWith(".gz"));
       }
       catch(Exception e) {
         e.printStackTrace();
@@ -430,6 +472,7 @@ public class CompoundDocumentEditor extends AbstractVisualResource
 
   public void cleanup() {
     super.cleanup();
+    Gate.getCreoleRegister().removeCreoleListener(memberUnloadListener);
     
     // close all open alignment editors
     for(AlignmentEditor editor : alignmentEditors) {
@@ -9,9 +9,11 @@ import gate.Factory;
 import gate.FeatureMap;
 import gate.Gate;
 import gate.Resource;
+import gate.alignment.Alignment;
 import gate.compound.CompoundDocument;
 import gate.corpora.DocumentContentImpl;
 import gate.corpora.DocumentImpl;
+import gate.corpora.DocumentStaxUtils;
 import gate.event.CreoleEvent;
 import gate.event.DatastoreEvent;
 import gate.event.DocumentListener;
@@ -19,18 +21,28 @@ import gate.util.GateRuntimeException;
 import gate.util.InvalidOffsetException;
 import gate.util.Strings;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectInputValidation;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 /**
  * This is an abstract implementation of the AbstractAlignedDocument This class
@@ -71,6 +83,11 @@ public abstract class AbstractCompoundDocument extends DocumentImpl implements
    */
   protected Map<String, Document> documents;
 
+  /**
+   * Maximum number of members kept loaded, no limit if not positive
+   */
+  protected Integer maxLoadedMembers = 0;
+
   /** Freeze the serialization UID. */
   static final long serialVersionUID = -8456893608311510260L;
 
@@ -87,7 +104,7 @@ public abstract class AbstractCompoundDocument extends DocumentImpl implements
   public void cleanup() {
     super.cleanup();
     setCurrentDocument(null);
-    Iterator<Document> iter = documents.values().iterator();
+    Iterator<Document> iter = loadedDocuments().iterator();
     while(iter.hasNext()) {
       Document doc = iter.next();
       if(Gate.getHiddenAttribute(doc.getFeatures())) {
@@ -96,6 +113,10 @@ public abstract class AbstractCompoundDocument extends DocumentImpl implements
         Factory.deleteResource(doc);
       }
     }
+    if(documents instanceof LazyDocumentMap) {
+      // deletes the files of unloaded members
+      documents.clear();
+    }
   } // cleanup()
 
   /**
@@ -415,25 +436,44 @@ public abstract class AbstractCompoundDocument extends DocumentImpl implements
 
   /**
    * Gives a single XML representation for the entire document.
+   * 
+   * @see #writeAsASingleDocument(CompoundDocument, Writer)
    */
   public static String toXmlAsASingleDocument(CompoundDocument aCompoundDoc) {
-    Map<String, String> docXmls = new HashMap<String, String>();
-    Map<String, Object> globalMap = new HashMap<String, Object>();
-
-    for(String id : aCompoundDoc.getDocumentIDs()) {
-      docXmls.put(id, aCompoundDoc.getDocument(id).toXml());
+    StringWriter stringToReturn = new StringWriter();
+    try {
+      writeAsASingleDocument(aCompoundDoc, stringToReturn);
     }
+    catch(IOException e) {
+      // a StringWriter does not throw any
+      throw new GateRuntimeException(e);
+    }
+    return stringToReturn.toString();
+  }
 
-    // add document xmls
-    globalMap.put("docXmls", docXmls);
-
-    // we would use XStream library to store annic patterns
-    com.thoughtworks.xstream.XStream xstream =
-        new com.thoughtworks.xstream.XStream();
-
-    // Saving is accomplished just using XML serialization of the map.
-    StringWriter stringToReturn = new StringWriter();
+  /**
+   * Writes the single XML representation of the entire document to the
+   * given stream, in the encoding of the compound document, compressing
+   * it with gzip if asked to. The stream is closed.
+   */
+  public static void writeAsASingleDocument(CompoundDocument aCompoundDoc,
+          OutputStream out, boolean gzip) throws IOException {
+    if(gzip) out = new GZIPOutputStream(out, 65536);
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(out,
+            aCompoundDoc.getEncoding()))) {
+      writeAsASingleDocument(aCompoundDoc, writer);
+    }
+  }
 
+  /**
+   * Writes the single XML representation of the entire document, as
+   * read by CompoundDocumentFromXml, to the given writer. The GATE XML of
+   * each member is escaped into the output as it is produced, one member
+   * at a time, so the whole representation is never held in memory. The
+   * writer is flushed but not closed.
+   */
+  public static void writeAsASingleDocument(CompoundDocument aCompoundDoc,
+          Writer writer) throws IOException {
     Document currentDoc = aCompoundDoc.getCurrentDocument();
     aCompoundDoc.setCurrentDocument(null);
 
@@ -447,15 +487,105 @@ public abstract class AbstractCompoundDocument extends DocumentImpl implements
     features.put("documentIDs", aCompoundDoc.getDocumentIDs());
     features.put("markupAware", new Boolean(true));
     features.put("name", aCompoundDoc.getName());
-    globalMap.put("feats", features);
-    globalMap.put("docFeats", aCompoundDoc.getFeatures());
 
-    // restore the original settings
-    aCompoundDoc.setCurrentDocument(currentDoc == null ? null : currentDoc
-        .getName());
+    try {
+      // the layout is that of the XStream serialization of a map
+      // holding the member xmls, the features above and the document
+      // features
+      XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+      XMLStreamWriter xsw = outputFactory.createXMLStreamWriter(writer);
+      com.thoughtworks.xstream.io.xml.StaxDriver driver =
+          new com.thoughtworks.xstream.io.xml.StaxDriver();
+      com.thoughtworks.xstream.XStream xstream =
+          new com.thoughtworks.xstream.XStream(driver);
+
+      xsw.writeStartElement("map");
+
+      xsw.writeStartElement("entry");
+      writeString(xsw, "docXmls");
+      xsw.writeStartElement("map");
+      Writer escaped = new EscapingWriter(xsw);
+      for(String id : aCompoundDoc.getDocumentIDs()) {
+        xsw.writeStartElement("entry");
+        writeString(xsw, id);
+        xsw.writeStartElement("string");
+        XMLStreamWriter memberWriter = outputFactory
+            .createXMLStreamWriter(escaped);
+        memberWriter.writeStartDocument("1.0");
+        DocumentStaxUtils.writeDocument(aCompoundDoc.getDocument(id),
+            memberWriter, "");
+        memberWriter.writeEndDocument();
+        // does not close the escaping writer
+        memberWriter.close();
+        xsw.writeEndElement();
+        xsw.writeEndElement();
+      }
+      xsw.writeEndElement();
+      xsw.writeEndElement();
 
-    xstream.toXML(globalMap, stringToReturn);
-    return stringToReturn.toString();
+      xsw.writeStartElement("entry");
+      writeString(xsw, "feats");
+      xstream.marshal(features, driver.createStaxWriter(xsw, false));
+      xsw.writeEndElement();
+
+      xsw.writeStartElement("entry");
+      writeString(xsw, "docFeats");
+      xstream.marshal(aCompoundDoc.getFeatures(), driver.createStaxWriter(
+          xsw, false));
+      xsw.writeEndElement();
+
+      xsw.writeEndElement();
+      xsw.flush();
+    }
+    catch(XMLStreamException e) {
+      throw new IOException(e);
+    }
+    finally {
+      // restore the original settings
+      aCompoundDoc.setCurrentDocument(currentDoc == null ? null : currentDoc
+          .getName());
+    }
+    writer.flush();
+  }
+
+  private static void writeString(XMLStreamWriter xsw, String value)
+      throws XMLStreamException {
+    xsw.writeStartElement("string");
+    xsw.writeCharacters(value);
+    xsw.writeEndElement();
+  }
+
+  /**
+   * Writes the characters given to it as escaped text of the current
+   * element of a stream writer.
+   */
+  private static class EscapingWriter extends Writer {
+
+    private final XMLStreamWriter xsw;
+
+    EscapingWriter(XMLStreamWriter xsw) {
+      this.xsw = xsw;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      try {
+        xsw.writeCharacters(cbuf, off, len);
+      }
+      catch(XMLStreamException e) {
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    public void flush() {
+      // the stream writer is flushed by its owner
+    }
+
+    @Override
+    public void close() {
+      // the stream writer belongs to its owner
+    }
   }
 
   /**
@@ -522,6 +652,8 @@ public abstract class AbstractCompoundDocument extends DocumentImpl implements
   } // toString
 
   public void removeDocument(String documentID) {
+    if(documents instanceof LazyDocumentMap
+        && !((LazyDocumentMap)documents).isLoaded(documentID)) return;
     Document doc = documents.get(documentID);
     if(doc == null) return;
     Factory.deleteResource(doc);
@@ -572,15 +704,22 @@ public abstract class AbstractCompoundDocument extends DocumentImpl implements
   }
 
   private void deleteAllDocs() {
-    Set<String> keys = documents.keySet();
-    Iterator<String> iter = keys.iterator();
-    while(iter.hasNext()) {
-      Object key = iter.next();
-      Document doc = documents.get(key);
+    for(Document doc : loadedDocuments()) {
       Factory.deleteResource(doc);
     }
   }
 
+  /**
+   * Returns the members that have been loaded, i.e. all of them unless
+   * they are loaded lazily.
+   */
+  protected Collection<Document> loadedDocuments() {
+    if(documents instanceof LazyDocumentMap) {
+      return ((LazyDocumentMap)documents).loadedValues();
+    }
+    return new ArrayList<Document>(documents.values());
+  }
+
   public void datastoreClosed(CreoleEvent e) {
     if(!e.getDatastore().equals(this.getDataStore())) return;
     // we also remove other documents
@@ -645,6 +784,90 @@ public abstract class AbstractCompoundDocument extends DocumentImpl implements
     } else {
       currentDocument = (Document)obj;
     }
+    // members beyond the bound are let go of when switching members,
+    // not while a PR may be holding them
+    if(documents instanceof LazyDocumentMap) {
+      ((LazyDocumentMap)documents).applyCapacity(documentID);
+    }
+  }
+
+  public Integer getMaxLoadedMembers() {
+    return maxLoadedMembers;
+  }
+
+  /**
+   * Sets the maximum number of members kept loaded, no limit if null or
+   * not positive. Beyond it, the compound document lets go of the least
+   * recently used members, writing those that were changed to temporary
+   * files, and gets them back when they are asked for again, see
+   * LazyDocumentMap. Members are only unloaded when the bound is set and
+   * when setCurrentDocument(documentID) switches members, e.g. by the
+   * SwitchMemberPR. Unloaded members are deleted, so callers must not
+   * keep members across such a switch but ask for them again with
+   * getDocument(documentID). Alignments that refer to annotations by
+   * document id and annotation id stay valid.
+   */
+  public void setMaxLoadedMembers(Integer maxLoadedMembers) {
+    this.maxLoadedMembers = maxLoadedMembers;
+    int capacity = maxLoadedMembers == null ? 0 : maxLoadedMembers.intValue();
+    if(documents == null) return;
+    if(!(documents instanceof LazyDocumentMap)) {
+      if(capacity <= 0) return;
+      LazyDocumentMap lazyDocuments = new LazyDocumentMap(this);
+      for(Map.Entry<String, Document> entry : documents.entrySet()) {
+        lazyDocuments.put(entry.getKey(), entry.getValue());
+      }
+      documents = lazyDocuments;
+    }
+    ((LazyDocumentMap)documents).setCapacity(capacity);
+  }
+
+  /**
+   * Tells whether the given member may be unloaded to save memory. The
+   * current document is not, and no member is while an alignment holds
+   * annotation objects: a plain {@link Alignment} or one with a feature
+   * index.
+   */
+  protected boolean canUnloadMember(String documentID, Document document) {
+    if(document == currentDocument) return false;
+    FeatureMap features = getFeatures();
+    for(Object key : features.keySet()) {
+      Object value = features.get(key);
+      if(!(value instanceof Alignment)) continue;
+      Alignment alignment = (Alignment)value;
+      if(alignment.getClass() == Alignment.class
+              || alignment.getFeatureIndex() != null) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Tells whether an alignment of this compound document has annotations
+   * of the given member aligned. Such a member is written out when it is
+   * unloaded, so that it comes back with the same annotation ids.
+   */
+  protected boolean isMemberAligned(String documentID) {
+    FeatureMap features = getFeatures();
+    for(Object key : features.keySet().toArray()) {
+      Object value = features.get(key);
+      if(value instanceof Alignment
+              && ((Alignment)value).isMemberAligned(documentID)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Called when the given member has been unloaded, before it is
+   * deleted; tells the alignments to let go of it.
+   */
+  protected void memberUnloaded(String documentID, Document document) {
+    FeatureMap features = getFeatures();
+    for(Object key : features.keySet().toArray()) {
+      Object value = features.get(key);
+      if(value instanceof Alignment) {
+        ((Alignment)value).memberUnloaded(document);
+      }
+    }
   }
 
   public Map<String,Document> getDocuments() {
@@ -683,6 +906,9 @@ public abstract class AbstractCompoundDocument extends DocumentImpl implements
           Gate.getCreoleRegister().resourceLoaded(
               new CreoleEvent(d, CreoleEvent.RESOURCE_LOADED));
         }
+        // members are written as a plain map, so the bound is applied
+        // again
+        setMaxLoadedMembers(maxLoadedMembers);
       }
     }, 0);
   }
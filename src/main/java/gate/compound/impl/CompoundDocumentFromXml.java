@@ -1,41 +1,50 @@
 package gate.compound.impl;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.StringReader;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import gate.Document;
 import gate.Factory;
 import gate.FeatureMap;
 import gate.Gate;
 import gate.Resource;
-import gate.alignment.Alignment;
+import gate.corpora.DocumentStaxUtils;
 import gate.creole.ResourceInstantiationException;
 import gate.util.BomStrippingInputStreamReader;
-import gate.util.GateRuntimeException;
 
 /**
  * Those compound documents saved in a single xml document can be
  * reloaded in GATE using this LR.
  *
+ * The file is the XStream serialization of a map holding the GATE XML
+ * of every member ("docXmls"), a few settings ("feats") and the
+ * features of the compound document ("docFeats"). It is read with StAX
+ * in a single pass: the escaped GATE XML of each member is parsed as it
+ * streams by, straight into a new member document, so neither the file
+ * nor a member's XML is ever held as a whole in memory. Files
+ * compressed with gzip are recognised and uncompressed on the fly.
+ *
  * @author niraj
  */
 public class CompoundDocumentFromXml extends CompoundDocumentImpl {
 
   private static final long serialVersionUID = 8114328411647768889L;
 
-  // files that need to be deleted at the end
-  private List<File> filesToDelete = new ArrayList<File>();
-
   /** Initialise this resource, and return it. */
   public Resource init() throws ResourceInstantiationException {
     // set up the source URL and create the content
@@ -44,108 +53,250 @@ public class CompoundDocumentFromXml extends CompoundDocumentImpl {
               "The compoundDocumentUrl is null.");
     }
 
-    try (BufferedReader br = new BomStrippingInputStreamReader(compoundDocumentUrl
-              .openStream(), getEncoding())){
-      StringBuilder xmlString = new StringBuilder();
-       
-      String line = br.readLine();
-      while(line != null) {
-        xmlString.append("\n").append(line);
-        line = br.readLine();
-      }
+    // starts empty, members are added as they are read
+    super.init();
 
-      StringReader reader = new StringReader(xmlString.toString());
-      com.thoughtworks.xstream.XStream xstream = new com.thoughtworks.xstream.XStream(
-              new com.thoughtworks.xstream.io.xml.StaxDriver());
+    Map<String, Object> globalMap = new HashMap<String, Object>();
+    Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+    try (BufferedReader br = new BomStrippingInputStreamReader(
+            openCompoundDocument(), getEncoding())) {
+      XMLStreamReader xsr = XMLInputFactory.newInstance()
+              .createXMLStreamReader(br);
+      try {
+        readGlobalMap(xsr, globalMap, failures);
+      }
+      finally {
+        xsr.close();
+      }
+    }
+    catch(IOException | XMLStreamException | RuntimeException e) {
+      deleteAllMembers();
+      throw new ResourceInstantiationException(e);
+    }
+    // as when loading from files, members that failed are skipped
+    skipFailedMembers(failures, documents.isEmpty());
 
-      // asking the xstream library to use gate class loader
-      xstream.setClassLoader(Gate.getClassLoader());
+    @SuppressWarnings("unchecked")
+    Map<String, Object> features = (Map<String, Object>)globalMap.get("feats");
+    if(features != null) {
+      String encoding = (String)features.get("encoding");
+      if(encoding != null) super.setEncoding(encoding);
 
-      // reading the xml object
-      @SuppressWarnings("unchecked")
-      Map<String, Object> globalMap = (HashMap<String, Object>)xstream
-              .fromXML(reader);
+      // members come in the order of the map they were saved in
+      Object savedIDs = features.get("documentIDs");
+      if(savedIDs instanceof List
+              && ((List<?>)savedIDs).size() == documentIDs.size()
+              && documentIDs.containsAll((List<?>)savedIDs)) {
+        List<String> orderedIDs = new ArrayList<String>();
+        for(Object id : (List<?>)savedIDs) {
+          orderedIDs.add((String)id);
+        }
+        documentIDs = orderedIDs;
+      }
 
-      // now we read individual information
-      @SuppressWarnings("unchecked")
-      Map<String, String> docXmls = (HashMap<String, String>)globalMap
-              .get("docXmls");
-      
-      @SuppressWarnings("unchecked")
-      Map<String, Object> features = (Map<String, Object>)globalMap
-              .get("feats");
+      this.setName((String)features.get("name"));
+    }
 
-      String encoding = (String)features.get("encoding");
-      super.setEncoding(encoding);
+    FeatureMap docFeatures = (FeatureMap)globalMap.get("docFeats");
+    if(docFeatures != null) setFeatures(docFeatures);
+    migrateAlignments();
+    return this;
+  } // init()
 
-      File tempFile = File.createTempFile("example", ".xml");
-      File tempFolder = new File(tempFile.getParentFile(), "temp"
-              + Gate.genSym());
+  /**
+   * Opens the compound document file, uncompressing it if it was saved
+   * with gzip.
+   */
+  private InputStream openCompoundDocument() throws IOException {
+    InputStream in = new BufferedInputStream(compoundDocumentUrl.openStream(),
+            65536);
+    in.mark(2);
+    int magic = in.read() | (in.read() << 8);
+    in.reset();
+    return magic == GZIPInputStream.GZIP_MAGIC
+            ? new GZIPInputStream(in, 65536)
+            : in;
+  }
 
-      if(!tempFolder.exists() && !tempFolder.mkdirs()) {
-        throw new GateRuntimeException("Temporary folder "
-                + tempFolder.getAbsolutePath() + " could not be created");
-      }
+  /**
+   * Reads the entries of the saved map. Members are added to this
+   * compound document as they are read, the other values are put in the
+   * given map.
+   */
+  private void readGlobalMap(XMLStreamReader xsr,
+          Map<String, Object> globalMap, Map<String, Throwable> failures)
+          throws XMLStreamException {
+    com.thoughtworks.xstream.io.xml.StaxDriver driver = new com.thoughtworks.xstream.io.xml.StaxDriver();
+    com.thoughtworks.xstream.XStream xstream = new com.thoughtworks.xstream.XStream(
+            driver);
+    // asking the xstream library to use gate class loader
+    xstream.setClassLoader(Gate.getClassLoader());
 
-      tempFile.deleteOnExit();
-      tempFolder.deleteOnExit();
-
-      URL sourceUrl = null;
-      List<String> docIDs = new ArrayList<String>();
-      for(String id : docXmls.keySet()) {
-        docIDs.add(id);
-        File newFile = new File(tempFolder, "X." + id + ".xml");
-        filesToDelete.add(newFile);
-        try (BufferedWriter bw = new BufferedWriter(
-            new OutputStreamWriter(new FileOutputStream(newFile), encoding))) {
-          bw.write(docXmls.get(id));
-          bw.flush();
+    // <map>
+    xsr.nextTag();
+    // <entry><string>key</string>value</entry>
+    while(xsr.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      xsr.nextTag();
+      String key = xsr.getElementText();
+      if("docXmls".equals(key)) {
+        xsr.nextTag();
+        if(xsr.isStartElement()) {
+          readMembers(xsr, failures);
         }
-        sourceUrl = newFile.toURI().toURL();
       }
-      super.setDocumentIDs(docIDs);
-      super.setSourceUrl(sourceUrl);
-
-      String name = (String)features.get("name");
-      features.remove("name");
-      FeatureMap fets = Factory.newFeatureMap();
-      for(String s : features.keySet()) {
-        fets.put(s, features.get(s));
+      else {
+        // XStream reads from the element following the current event
+        // and stops on its closing tag
+        globalMap.put(key, xstream.unmarshal(driver.createStaxReader(xsr)));
       }
+      // </entry>
+      xsr.nextTag();
+    }
+  }
 
-      this.setName(name);
-      super.init();
-
-      FeatureMap docFeatures = (FeatureMap)globalMap.get("docFeats");
-      for(Object key : docFeatures.keySet()) {
-        Object value = docFeatures.get(key);
-        if(value instanceof Alignment) {
-          ((Alignment)value).setSourceDocument(this);
-        }
+  /**
+   * Reads the map of member ids to GATE XML, the reader being on its
+   * opening tag, and leaves the reader on its closing tag.
+   */
+  private void readMembers(XMLStreamReader xsr, Map<String, Throwable> failures)
+          throws XMLStreamException {
+    while(xsr.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      xsr.nextTag();
+      String documentID = xsr.getElementText();
+      // <string>escaped GATE XML</string>
+      xsr.nextTag();
+      ElementTextReader memberXml = new ElementTextReader(xsr);
+      try {
+        addDocument(documentID, createMember(documentID, memberXml));
       }
-
-      setFeatures(docFeatures);
+      catch(ResourceInstantiationException | XMLStreamException
+              | RuntimeException e) {
+        // e.g. a malformed annotation makes the GATE XML reader throw
+        // runtime exceptions
+        failures.put(documentID, e);
+      }
+      memberXml.skipRest();
+      // </entry>
+      xsr.nextTag();
     }
-    catch(UnsupportedEncodingException uee) {
-      throw new ResourceInstantiationException(uee);
+  }
+
+  /**
+   * Parses the GATE XML given by the reader as the member with the given
+   * id.
+   */
+  protected Document createMember(String documentID, Reader xml)
+          throws ResourceInstantiationException, XMLStreamException {
+    FeatureMap params = Factory.newFeatureMap();
+    params.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME, "");
+    params.put(Document.DOCUMENT_MARKUP_AWARE_PARAMETER_NAME, Boolean.TRUE);
+    FeatureMap subFeatures = Factory.newFeatureMap();
+    Gate.setHiddenAttribute(subFeatures, true);
+    Document doc = (Document)Factory.createResource(
+            "gate.corpora.DocumentImpl", params, subFeatures);
+    try {
+      XMLStreamReader memberReader = XMLInputFactory.newInstance()
+              .createXMLStreamReader(xml);
+      try {
+        memberReader.nextTag();
+        DocumentStaxUtils.readGateXmlDocument(memberReader, doc);
+      }
+      finally {
+        memberReader.close();
+      }
     }
-    catch(IOException ioe) {
-      throw new ResourceInstantiationException(ioe);
+    catch(XMLStreamException | RuntimeException e) {
+      Factory.deleteResource(doc);
+      throw e;
     }
+    // the document features read replace those it was created with
+    Gate.setHiddenAttribute(doc.getFeatures(), true);
+    doc.setName(documentID);
+    return doc;
+  }
 
-    return this;
-  } // init()
+  private void deleteAllMembers() {
+    for(Document doc : loadedDocuments()) {
+      Factory.deleteResource(doc);
+    }
+    documents.clear();
+    documentIDs.clear();
+  }
 
   /**
-   * Cleanup the document
+   * Reads the text of the element the given stream reader is on, as it
+   * streams by, and leaves the stream reader on its closing tag.
    */
-  @Override
-  public void cleanup() {
-    super.cleanup();
+  private static class ElementTextReader extends Reader {
+
+    private final XMLStreamReader xsr;
+
+    /** characters of the current text event read so far */
+    private int offset;
+
+    private boolean done;
+
+    ElementTextReader(XMLStreamReader xsr) throws XMLStreamException {
+      this.xsr = xsr;
+      xsr.next();
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      if(len == 0) return 0;
+      try {
+        while(!done) {
+          switch(xsr.getEventType()) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+              int read = xsr.getTextCharacters(offset, cbuf, off, len);
+              if(read > 0) {
+                offset += read;
+                return read;
+              }
+              break;
+            case XMLStreamConstants.END_ELEMENT:
+              done = true;
+              return -1;
+            case XMLStreamConstants.COMMENT:
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+              break;
+            default:
+              throw new IOException("Unexpected markup in text at "
+                      + xsr.getLocation());
+          }
+          xsr.next();
+          offset = 0;
+        }
+        return -1;
+      }
+      catch(XMLStreamException e) {
+        throw new IOException(e);
+      }
+    }
+
+    /**
+     * Moves past whatever text has not been read, e.g. after a parse
+     * error.
+     */
+    void skipRest() throws XMLStreamException {
+      try {
+        char[] buffer = new char[8192];
+        while(read(buffer, 0, buffer.length) != -1) {
+          // skipped
+        }
+      }
+      catch(IOException e) {
+        throw (e.getCause() instanceof XMLStreamException)
+                ? (XMLStreamException)e.getCause()
+                : new XMLStreamException(e);
+      }
+    }
 
-    // delete all the temporarily created files
-    for(File fileToDelete : filesToDelete) {
-      fileToDelete.delete();
+    @Override
+    public void close() {
+      // the stream reader belongs to the caller
     }
   }
 
@@ -161,4 +312,4 @@ public class CompoundDocumentFromXml extends CompoundDocumentImpl {
   public void setCompoundDocumentUrl(URL compoundDocumentUrl) {
     this.compoundDocumentUrl = compoundDocumentUrl;
   }
-}
\ No newline at end of file
+}
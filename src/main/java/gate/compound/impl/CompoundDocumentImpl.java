@@ -6,17 +6,43 @@ import gate.FeatureMap;
 import gate.Gate;
 import gate.Resource;
 import gate.alignment.Alignment;
+import gate.alignment.AlignmentStatistics;
+import gate.alignment.CompactAlignment;
+import gate.alignment.ConcurrentAlignment;
 import gate.alignment.gui.AlignmentFactory;
+import gate.compound.CompoundDocument;
 import gate.compound.CompoundDocumentEvent;
 import gate.compound.CompoundDocumentListener;
+import gate.compound.MemberLoadingException;
 import gate.creole.ResourceInstantiationException;
 import gate.util.Files;
+import gate.util.GateRuntimeException;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectInputValidation;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
 
 /**
  * Implemention of the CompoundDocument. Compound Document is a set of
@@ -30,8 +56,45 @@ public class CompoundDocumentImpl extends AbstractCompoundDocument {
 
   private static final long serialVersionUID = 8114328411647768889L;
 
+  private static final Logger log = Logger
+          .getLogger(CompoundDocumentImpl.class);
+
   private transient ArrayList<CompoundDocumentListener> listeners;
 
+  /**
+   * number of members parsed at the same time when loading from files,
+   * all available processors if not positive
+   */
+  private Integer numberOfLoadingThreads = 1;
+
+  /**
+   * whether members loaded from files are only parsed when they are
+   * first asked for
+   */
+  private Boolean lazyLoading = Boolean.FALSE;
+
+  /**
+   * whether the compound document fails to load when one of its members
+   * does, rather than leaving the member out
+   */
+  private Boolean failOnMemberLoadingError = Boolean.FALSE;
+
+  /**
+   * members that could not be loaded, keyed on the document id
+   */
+  private transient Map<String, Throwable> memberLoadingFailures;
+
+  /**
+   * name the statistics MBean is registered with, if it is
+   */
+  private transient ObjectName statisticsMBeanName;
+
+  /**
+   * what the statistics MBean reports, published by the thread
+   * processing the document
+   */
+  private transient volatile PublishedStatistics publishedStatistics;
+
   /**
    * Constructor
    */
@@ -84,6 +147,7 @@ public class CompoundDocumentImpl extends AbstractCompoundDocument {
     }
 
     currentDocument = null;
+    setMaxLoadedMembers(maxLoadedMembers);
     return this;
   } // init()
 
@@ -133,44 +197,212 @@ public class CompoundDocumentImpl extends AbstractCompoundDocument {
               "Document ID of the selected file does not exist in the provided documentIDs");
     }
 
+    if(Boolean.TRUE.equals(lazyLoading)) {
+      createLazyDocuments(file, name, extension);
+      return;
+    }
+
+    // the members are parsed in parallel, up to the given number at a
+    // time, and added in the order of the document ids
+    int threads = numberOfLoadingThreads == null ? 1 : numberOfLoadingThreads
+            .intValue();
+    if(threads <= 0) threads = Runtime.getRuntime().availableProcessors();
+    threads = Math.max(1, Math.min(threads, documentIDs.size()));
+    ExecutorService executor = threads == 1 ? null : Executors
+            .newFixedThreadPool(threads);
+
+    Map<String, Future<Document>> futures = new LinkedHashMap<String, Future<Document>>();
+    Map<String, Document> loaded = new LinkedHashMap<String, Document>();
+    Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+    InterruptedException interrupted = null;
     try {
-      documents = new HashMap<String, Document>();
-      for(int i = 0; i < documentIDs.size(); i++) {
+      for(final String memberID : documentIDs) {
         // apart from the index, we need to search for all other files
-        // create file Name
-        documentID = documentIDs.get(i);
-        String fileNameToSearch = file.getParentFile().getAbsolutePath() + "/"
-                + name + "." + documentID + extension;
-        File newFile = new File(fileNameToSearch);
-        if(!newFile.exists()) {
-          System.err.println("File " + fileNameToSearch + " does not exist!");
-          documentIDs.remove(i);
-          i--;
-          continue;
+        final File memberFile = new File(file.getParentFile(), name + "."
+                + memberID + extension);
+        Callable<Document> task = new Callable<Document>() {
+          public Document call() throws Exception {
+            return createMember(memberID, memberFile);
+          }
+        };
+        if(executor == null) {
+          try {
+            loaded.put(memberID, task.call());
+          }
+          catch(Exception e) {
+            failures.put(memberID, e);
+          }
+        }
+        else {
+          futures.put(memberID, executor.submit(task));
+        }
+      }
+
+      for(Map.Entry<String, Future<Document>> entry : futures.entrySet()) {
+        try {
+          loaded.put(entry.getKey(), entry.getValue().get());
+        }
+        catch(java.util.concurrent.ExecutionException e) {
+          failures.put(entry.getKey(), e.getCause());
+        }
+      }
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      interrupted = e;
+    }
+    finally {
+      if(executor != null) {
+        executor.shutdownNow();
+        // members still being parsed must be there to be deleted
+        awaitTermination(executor);
+      }
+    }
+
+    if(interrupted != null) {
+      // members parsed in the meantime are deleted as well
+      for(Map.Entry<String, Future<Document>> entry : futures.entrySet()) {
+        Future<Document> future = entry.getValue();
+        if(loaded.containsKey(entry.getKey()) || future.isCancelled()) continue;
+        try {
+          loaded.put(entry.getKey(), future.get());
+        }
+        catch(Exception e) {
+          // nothing was created
+        }
+      }
+      for(Document doc : loaded.values()) {
+        Factory.deleteResource(doc);
+      }
+      throw new ResourceInstantiationException(interrupted);
+    }
+    try {
+      skipFailedMembers(failures, loaded.isEmpty());
+    }
+    catch(MemberLoadingException e) {
+      for(Document doc : loaded.values()) {
+        Factory.deleteResource(doc);
+      }
+      throw e;
+    }
+    documents = new HashMap<String, Document>(loaded);
+  }
+
+  /**
+   * Waits for the tasks of an executor that has been shut down to end,
+   * keeping the interrupted status of the current thread.
+   */
+  private static void awaitTermination(ExecutorService executor) {
+    boolean interrupted = Thread.interrupted();
+    try {
+      while(true) {
+        try {
+          if(executor.awaitTermination(1, TimeUnit.MINUTES)) return;
+        }
+        catch(InterruptedException e) {
+          interrupted = true;
         }
-        FeatureMap features = Factory.newFeatureMap();
-        features.put("collectRepositioningInfo", collectRepositioningInfo);
-        features.put("encoding", encoding);
-        features.put("markupAware", new Boolean(true));
-        features.put("preserveOriginalContent", preserveOriginalContent);
-        features.put("sourceUrl", newFile.toURI().toURL());
-        FeatureMap subFeatures = Factory.newFeatureMap();
-        Gate.setHiddenAttribute(subFeatures, true);
-        Document doc = (Document)Factory.createResource(
-                "gate.corpora.DocumentImpl", features, subFeatures);
-        doc.setName(documentID);
-        documents.put(documentID, doc);
       }
+    }
+    finally {
+      if(interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Drops the members that could not be loaded from the document ids,
+   * logging a warning for each, and keeps the failures for
+   * getMemberLoadingFailures(). With failOnMemberLoadingError set, the
+   * failures are thrown instead.
+   *
+   * @param noneLoaded - if no member could be loaded, in which case the
+   *          compound document cannot be created
+   * @throws MemberLoadingException if no member could be loaded, or any
+   *           failed and failOnMemberLoadingError is set
+   */
+  protected void skipFailedMembers(Map<String, Throwable> failures,
+          boolean noneLoaded) throws MemberLoadingException {
+    memberLoadingFailures = failures.isEmpty()
+            ? Collections.<String, Throwable> emptyMap()
+            : Collections.unmodifiableMap(new LinkedHashMap<String, Throwable>(
+                    failures));
+    if(failures.isEmpty()) return;
+    if(noneLoaded || Boolean.TRUE.equals(failOnMemberLoadingError)) {
+      throw new MemberLoadingException(failures);
+    }
+    for(Map.Entry<String, Throwable> entry : failures.entrySet()) {
+      log.warn("Member " + entry.getKey()
+              + " could not be loaded and has been skipped", entry.getValue());
+    }
+    documentIDs.removeAll(failures.keySet());
+  }
 
-      if(documents.isEmpty())
-        throw new ResourceInstantiationException("No documents found");
+  /**
+   * The members that could not be loaded when this compound document
+   * was created and have been left out, with the reason, keyed on the
+   * document id.
+   */
+  public Map<String, Throwable> getMemberLoadingFailures() {
+    return memberLoadingFailures == null ? Collections
+            .<String, Throwable> emptyMap() : memberLoadingFailures;
+  }
 
+  /**
+   * Sets up placeholders for the members, which are parsed when they
+   * are first asked for. Only the existence of their files is checked.
+   */
+  private void createLazyDocuments(File file, String name, String extension)
+          throws ResourceInstantiationException {
+    LazyDocumentMap lazyDocuments = new LazyDocumentMap(this);
+    Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+    for(final String memberID : documentIDs) {
+      final File memberFile = new File(file.getParentFile(), name + "."
+              + memberID + extension);
+      try {
+        checkMemberFile(memberFile);
+      }
+      catch(FileNotFoundException e) {
+        failures.put(memberID, e);
+        continue;
+      }
+      lazyDocuments.putLazily(memberID, new Callable<Document>() {
+        public Document call() throws Exception {
+          return createMember(memberID, memberFile);
+        }
+      });
     }
-    catch(Exception e) {
-      throw new ResourceInstantiationException(e);
+    skipFailedMembers(failures, lazyDocuments.isEmpty());
+    documents = lazyDocuments;
+  }
+
+  private static void checkMemberFile(File file) throws FileNotFoundException {
+    if(!file.exists()) {
+      throw new FileNotFoundException("File " + file.getAbsolutePath()
+              + " does not exist");
     }
   }
 
+  /**
+   * Parses the given file as the member with the given id. This may be
+   * called by several threads at the same time.
+   */
+  protected Document createMember(String documentID, File file)
+          throws ResourceInstantiationException, IOException {
+    checkMemberFile(file);
+    FeatureMap features = Factory.newFeatureMap();
+    features.put("collectRepositioningInfo", collectRepositioningInfo);
+    features.put("encoding", encoding);
+    features.put("markupAware", new Boolean(true));
+    features.put("preserveOriginalContent", preserveOriginalContent);
+    features.put("sourceUrl", file.toURI().toURL());
+    FeatureMap subFeatures = Factory.newFeatureMap();
+    Gate.setHiddenAttribute(subFeatures, true);
+    Document doc = (Document)Factory.createResource(
+            "gate.corpora.DocumentImpl", features, subFeatures);
+    doc.setName(documentID);
+    return doc;
+  }
+
   /**
    * Adds a new document member to the compound document.
    */
@@ -252,16 +484,70 @@ public class CompoundDocumentImpl extends AbstractCompoundDocument {
    * text.
    */
   public Alignment getAlignmentInformation(String alignmentFeatureName) {
+    return getAlignmentInformation(alignmentFeatureName,
+            CompactAlignment.class);
+  }
+
+  /**
+   * The alignment object contains information about the alignment of
+   * text. If it doesn't exist yet, it is created as an instance of the
+   * given class. This is synchronized so that threads sharing a
+   * ConcurrentAlignment all get the same instance.
+   */
+  public synchronized Alignment getAlignmentInformation(
+          String alignmentFeatureName,
+          Class<? extends Alignment> alignmentClass) {
     if(alignmentFeatureName == null) {
       alignmentFeatureName = AlignmentFactory.ALIGNMENT_FEATURE_NAME;
     }
     if(this.features.get(alignmentFeatureName) == null) {
-      this.features.put(alignmentFeatureName, new Alignment(this));
+      try {
+        this.features.put(alignmentFeatureName, alignmentClass.getConstructor(
+                CompoundDocument.class).newInstance(this));
+      }
+      catch(Exception e) {
+        throw new GateRuntimeException("Could not create an instance of "
+                + alignmentClass.getName(), e);
+      }
     }
 
     return (Alignment)this.features.get(alignmentFeatureName);
   }
 
+  /**
+   * Sets this document as the source document of all alignment features.
+   * Alignments stored by older versions as maps keyed on annotation
+   * objects are replaced with compact copies that refer to annotations
+   * by their ids.
+   */
+  protected void migrateAlignments() {
+    if(this.features == null) return;
+    for(Object key : new ArrayList<Object>(this.features.keySet())) {
+      Object value = this.features.get(key);
+      if(!(value instanceof Alignment)) continue;
+      if(value.getClass() == Alignment.class) {
+        this.features.put(key, new CompactAlignment(this, (Alignment)value));
+      }
+      else {
+        ((Alignment)value).setSourceDocument(this);
+      }
+    }
+  }
+
+  /**
+   * Alignments are migrated once the whole compound document has been
+   * deserialized.
+   */
+  private void readObject(ObjectInputStream stream) throws IOException,
+          ClassNotFoundException {
+    stream.defaultReadObject();
+    stream.registerValidation(new ObjectInputValidation() {
+      public void validateObject() {
+        migrateAlignments();
+      }
+    }, 0);
+  }
+
   /**
    * This method returns all available alignment feature names
    */
@@ -277,6 +563,199 @@ public class CompoundDocumentImpl extends AbstractCompoundDocument {
     return toReturn;
   }
 
+  /**
+   * Measures every alignment of this document.
+   * 
+   * @return statistics keyed on the alignment feature names
+   */
+  public Map<String, AlignmentStatistics> getAlignmentStatistics() {
+    Map<String, AlignmentStatistics> toReturn = new TreeMap<String, AlignmentStatistics>();
+    for(String featureName : getAllAlignmentFeatureNames()) {
+      Object value = this.features.get(featureName);
+      if(value instanceof Alignment) {
+        try {
+          toReturn.put(featureName, ((Alignment)value).getStatistics());
+        }
+        catch(RuntimeException e) {
+          log.warn("Could not measure alignment " + featureName + " of "
+                  + getName(), e);
+        }
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Measures the alignments for the statistics MBean. Alignments other
+   * than {@link ConcurrentAlignment}s must not be read while they are
+   * being changed, so this is to be called by the thread processing the
+   * document; it is called when the MBean is registered and whenever
+   * setCurrentDocument(documentID) switches members while it is.
+   * ConcurrentAlignments are measured anew, under their lock, each time
+   * the MBean is read.
+   */
+  public void publishAlignmentStatistics() {
+    Map<String, AlignmentStatistics> statistics = new TreeMap<String, AlignmentStatistics>();
+    Map<String, ConcurrentAlignment> concurrent = new TreeMap<String, ConcurrentAlignment>();
+    for(String featureName : getAllAlignmentFeatureNames()) {
+      Object value = this.features.get(featureName);
+      if(value instanceof ConcurrentAlignment) {
+        concurrent.put(featureName, (ConcurrentAlignment)value);
+      }
+      else if(value instanceof Alignment) {
+        try {
+          statistics.put(featureName, ((Alignment)value).getStatistics());
+        }
+        catch(RuntimeException e) {
+          log.warn("Could not measure alignment " + featureName + " of "
+                  + getName(), e);
+        }
+      }
+    }
+    publishedStatistics = new PublishedStatistics(statistics, concurrent);
+  }
+
+  /**
+   * Returns the statistics of the alignments as the MBean reports them,
+   * from any thread: those published last, with ConcurrentAlignments
+   * measured now.
+   */
+  Map<String, AlignmentStatistics> getPublishedAlignmentStatistics() {
+    PublishedStatistics published = publishedStatistics;
+    Map<String, AlignmentStatistics> toReturn = new TreeMap<String, AlignmentStatistics>();
+    if(published == null) return toReturn;
+    toReturn.putAll(published.statistics);
+    for(Map.Entry<String, ConcurrentAlignment> entry : published.concurrent
+            .entrySet()) {
+      try {
+        toReturn.put(entry.getKey(), entry.getValue().getStatistics());
+      }
+      catch(RuntimeException e) {
+        log.warn("Could not measure alignment " + entry.getKey() + " of "
+                + getName(), e);
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Statistics of the alignments that may only be measured by the thread
+   * processing the document, and the alignments that may be measured by
+   * any.
+   */
+  private static class PublishedStatistics {
+    final Map<String, AlignmentStatistics> statistics;
+
+    final Map<String, ConcurrentAlignment> concurrent;
+
+    PublishedStatistics(Map<String, AlignmentStatistics> statistics,
+            Map<String, ConcurrentAlignment> concurrent) {
+      this.statistics = statistics;
+      this.concurrent = concurrent;
+    }
+  }
+
+  /**
+   * Registers a CompoundDocumentStatisticsMXBean for this document with
+   * the platform MBean server, so that the size of its alignments can be
+   * watched with JMX clients such as jconsole. The MBean is unregistered
+   * when the document is deleted.
+   * 
+   * @return the name the MBean has been registered with
+   */
+  public synchronized ObjectName registerStatisticsMBean() throws JMException {
+    if(statisticsMBeanName != null) return statisticsMBeanName;
+    ObjectName name = new ObjectName("gate.compound:type=CompoundDocument,name="
+            + ObjectName.quote(String.valueOf(getName())) + ",id="
+            + System.identityHashCode(this));
+    publishAlignmentStatistics();
+    ManagementFactory.getPlatformMBeanServer().registerMBean(
+            new CompoundDocumentStatistics(this), name);
+    statisticsMBeanName = name;
+    return name;
+  }
+
+  /**
+   * Unregisters the statistics MBean of this document, if it has been
+   * registered.
+   */
+  public synchronized void unregisterStatisticsMBean() throws JMException {
+    if(statisticsMBeanName == null) return;
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    if(server.isRegistered(statisticsMBeanName)) {
+      server.unregisterMBean(statisticsMBeanName);
+    }
+    statisticsMBeanName = null;
+    publishedStatistics = null;
+  }
+
+  /**
+   * Switching members is a point where the thread processing the
+   * document is known not to be changing its alignments, so the
+   * statistics for the MBean are published then, if it is registered.
+   */
+  @Override
+  public void setCurrentDocument(String documentID) {
+    super.setCurrentDocument(documentID);
+    boolean registered;
+    synchronized(this) {
+      registered = statisticsMBeanName != null;
+    }
+    if(registered) publishAlignmentStatistics();
+  }
+
+  @Override
+  public void cleanup() {
+    try {
+      unregisterStatisticsMBean();
+    }
+    catch(JMException jme) {
+      throw new GateRuntimeException(jme);
+    }
+    super.cleanup();
+  }
+
+  public Integer getNumberOfLoadingThreads() {
+    return numberOfLoadingThreads;
+  }
+
+  /**
+   * Sets the number of members parsed at the same time when the compound
+   * document is loaded from files, all available processors if not
+   * positive.
+   */
+  public void setNumberOfLoadingThreads(Integer numberOfLoadingThreads) {
+    this.numberOfLoadingThreads = numberOfLoadingThreads;
+  }
+
+  public Boolean getLazyLoading() {
+    return lazyLoading;
+  }
+
+  /**
+   * Sets whether the members are only parsed when they are first asked
+   * for with getDocument(documentID) or setCurrentDocument(documentID),
+   * when the compound document is loaded from files. Until then
+   * getDocuments() holds placeholders for them, see LazyDocumentMap.
+   */
+  public void setLazyLoading(Boolean lazyLoading) {
+    this.lazyLoading = lazyLoading;
+  }
+
+  public Boolean getFailOnMemberLoadingError() {
+    return failOnMemberLoadingError;
+  }
+
+  /**
+   * Sets whether the compound document fails to load, with a
+   * MemberLoadingException, when one of its members cannot be loaded
+   * from files. By default such members are left out, with a warning in
+   * the log, and listed by getMemberLoadingFailures().
+   */
+  public void setFailOnMemberLoadingError(Boolean failOnMemberLoadingError) {
+    this.failOnMemberLoadingError = failOnMemberLoadingError;
+  }
+
   /**
    * Alignment object with the provided feature name is deleted
    * 
@@ -0,0 +1,64 @@
+package gate.compound.impl;
+
+import gate.alignment.AlignmentStatistics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of the management interface of a compound document.
+ */
+public class CompoundDocumentStatistics implements
+                                       CompoundDocumentStatisticsMXBean {
+
+  private CompoundDocumentImpl compoundDocument;
+
+  /**
+   * Constructor
+   */
+  public CompoundDocumentStatistics(CompoundDocumentImpl compoundDocument) {
+    this.compoundDocument = compoundDocument;
+  }
+
+  public String getDocumentName() {
+    return compoundDocument.getName();
+  }
+
+  public String[] getDocumentIDs() {
+    List<String> documentIDs = compoundDocument.getDocumentIDs();
+    return documentIDs.toArray(new String[documentIDs.size()]);
+  }
+
+  public long getLinkCount() {
+    long count = 0;
+    for(AlignmentStatistics statistics : getAlignmentStatistics().values()) {
+      count += statistics.getLinkCount();
+    }
+    return count;
+  }
+
+  public long getAlignedAnnotationCount() {
+    long count = 0;
+    for(AlignmentStatistics statistics : getAlignmentStatistics().values()) {
+      count += statistics.getAlignedAnnotationCount();
+    }
+    return count;
+  }
+
+  public long getEstimatedBytes() {
+    long bytes = 0;
+    for(AlignmentStatistics statistics : getAlignmentStatistics().values()) {
+      bytes += statistics.getEstimatedBytes();
+    }
+    return bytes;
+  }
+
+  /**
+   * Called on JMX threads, so only the statistics the document has
+   * published are read, see
+   * CompoundDocumentImpl.publishAlignmentStatistics().
+   */
+  public Map<String, AlignmentStatistics> getAlignmentStatistics() {
+    return compoundDocument.getPublishedAlignmentStatistics();
+  }
+}
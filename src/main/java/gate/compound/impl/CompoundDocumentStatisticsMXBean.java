@@ -0,0 +1,46 @@
+package gate.compound.impl;
+
+import gate.alignment.AlignmentStatistics;
+
+import java.util.Map;
+
+/**
+ * Management interface exposing the size of the alignments of a
+ * compound document, see CompoundDocumentImpl.registerStatisticsMBean().
+ * ConcurrentAlignments are measured anew when an attribute is read; other
+ * alignments are not safe to read from JMX threads and are reported as
+ * last published by the thread processing the document, see
+ * CompoundDocumentImpl.publishAlignmentStatistics().
+ */
+public interface CompoundDocumentStatisticsMXBean {
+
+  /**
+   * Name of the compound document
+   */
+  public String getDocumentName();
+
+  /**
+   * Ids of the member documents
+   */
+  public String[] getDocumentIDs();
+
+  /**
+   * Total number of links of all alignments
+   */
+  public long getLinkCount();
+
+  /**
+   * Total number of aligned annotations of all alignments
+   */
+  public long getAlignedAnnotationCount();
+
+  /**
+   * Estimated number of bytes taken by all alignments
+   */
+  public long getEstimatedBytes();
+
+  /**
+   * Statistics of every alignment keyed on its feature name
+   */
+  public Map<String, AlignmentStatistics> getAlignmentStatistics();
+}
@@ -0,0 +1,575 @@
+package gate.compound.impl;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.Gate;
+import gate.event.CreoleEvent;
+import gate.util.GateRuntimeException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The members of a compound document opened in lazy mode. A member that
+ * has not been used yet is only a placeholder, the task that loads it,
+ * and is loaded the first time it is asked for with get(documentID) or
+ * through an entry of the map. Looking at the ids, asking whether a
+ * member exists and removing one do not load anything.
+ *
+ * The number of members kept loaded can be bounded. Asking for members
+ * never unloads any, so the members a PR holds while it processes the
+ * compound document stay valid; the bound is applied when the compound
+ * document switches to another member, see applyCapacity(documentID),
+ * and when it is set. The map then unloads the least recently used
+ * members the compound document allows it to: their alignments are told
+ * to let go of them and they are deleted, so a caller that still holds
+ * one of them after the switch must ask the map for the member again,
+ * which gives a new document. A member that has been changed since it was loaded, or that
+ * has annotations aligned, is written to a temporary file first, in
+ * Java serialization like the serial datastore does, and read back from
+ * it; annotation ids are then the same, which parsing the source again
+ * does not promise. An unchanged member without alignments is simply
+ * loaded again the way it was the first time. Changes are told by a
+ * fingerprint of the content, the annotations and the features of the
+ * member.
+ *
+ * Loading, fingerprinting and writing members are done outside the lock
+ * of the map, so a slow member does not hold up threads asking for
+ * other members or for the ids. A member asked for by several threads
+ * at once is loaded only once, and one asked for while it is being
+ * unloaded stays loaded.
+ *
+ * When serialized, e.g. when the compound document is saved to a
+ * datastore, all members are written as a plain map; members that are
+ * not loaded are loaded for it, and the bound is applied again at the
+ * next switch.
+ */
+public class LazyDocumentMap extends AbstractMap<String, Document> implements
+                                                                 Serializable {
+
+  private static final long serialVersionUID = 5018226306437157413L;
+
+  /**
+   * ids of all members in the order they were added, with the tasks
+   * loading them when they are not in memory; null for a member that has
+   * only ever been in memory
+   */
+  private final LinkedHashMap<String, Callable<Document>> members = new LinkedHashMap<String, Callable<Document>>();
+
+  /** loaded members, the least recently used first */
+  private final LinkedHashMap<String, Document> loaded = new LinkedHashMap<String, Document>(
+          16, 0.75f, true);
+
+  /** members being loaded, with the task other threads wait for */
+  private final transient Map<String, FutureTask<Document>> loading = new HashMap<String, FutureTask<Document>>();
+
+  /**
+   * members being unloaded, which are still usable and stay loaded if
+   * they are asked for before they are written; each entry stands for
+   * one unloading, so that one given up and started again is told apart
+   */
+  private final transient Map<String, Map.Entry<String, Document>> unloading = new HashMap<String, Map.Entry<String, Document>>();
+
+  /**
+   * fingerprints of the members as their loading task gives them, only
+   * kept while the number of loaded members is bounded
+   */
+  private final Map<String, Long> fingerprints = new HashMap<String, Long>();
+
+  /** files the unloaded members have been written to */
+  private final Map<String, File> spillFiles = new HashMap<String, File>();
+
+  /** the compound document whose members these are, may be null */
+  private final transient AbstractCompoundDocument owner;
+
+  /** maximum number of loaded members, no limit if not positive */
+  private int capacity;
+
+  /**
+   * @param owner - the compound document whose members these are, asked
+   *          which members may be unloaded; with no owner every member
+   *          may be
+   */
+  public LazyDocumentMap(AbstractCompoundDocument owner) {
+    this.owner = owner;
+  }
+
+  /**
+   * Sets the maximum number of members kept loaded, no limit if not
+   * positive, unloading members beyond it straight away.
+   */
+  public void setCapacity(int capacity) {
+    synchronized(this) {
+      this.capacity = capacity;
+      if(capacity <= 0) fingerprints.clear();
+    }
+    applyCapacity(null);
+  }
+
+  public synchronized int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Adds a member that will be loaded by the given task when it is first
+   * asked for.
+   */
+  public synchronized void putLazily(String documentID, Callable<Document> loader) {
+    members.put(documentID, loader);
+    loaded.remove(documentID);
+    loading.remove(documentID);
+    unloading.remove(documentID);
+    fingerprints.remove(documentID);
+    deleteSpillFile(documentID);
+  }
+
+  /**
+   * Returns the member with the given id, loading it if it is not in
+   * memory, or null if there is no such member. No other member is
+   * unloaded, even beyond the bound.
+   *
+   * @throws GateRuntimeException if the member cannot be loaded
+   */
+  @Override
+  public Document get(Object documentID) {
+    FutureTask<Document> task;
+    FutureTask<Document> task;
+    boolean loadHere = false;
+    synchronized(this) {
+      Document doc = loaded.get(documentID);
+      if(doc != null) return doc;
+      Map.Entry<String, Document> unloadingEntry = unloading
+              .remove(documentID);
+      if(unloadingEntry != null) {
+        // keeps the member, the thread unloading it lets go of it
+        doc = unloadingEntry.getValue();
+        loaded.put((String)documentID, doc);
+        return doc;
+      }
+      if(!members.containsKey(documentID)) return null;
+      task = loading.get(documentID);
+      if(task == null) {
+        task = new FutureTask<Document>(new LoadTask((String)documentID,
+                members.get(documentID), capacity > 0));
+        loading.put((String)documentID, task);
+        loadHere = true;
+      }
+    }
+    if(loadHere) task.run();
+    try {
+      return task.get();
+    }
+    catch(ExecutionException e) {
+      synchronized(this) {
+        if(loading.get(documentID) == task) loading.remove(documentID);
+      }
+      throw new GateRuntimeException("Could not load member " + documentID, e
+              .getCause());
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GateRuntimeException("Interrupted while waiting for member "
+              + documentID, e);
+    }
+  }
+
+  /**
+   * Loads a member and, if it is still wanted when it is ready, makes it
+   * a loaded member. Its result is null if the member has been removed
+   * or replaced in the meantime.
+   */
+  private class LoadTask implements Callable<Document> {
+    private final String documentID;
+
+    private final Callable<Document> loader;
+
+    private final boolean fingerprint;
+
+    LoadTask(String documentID, Callable<Document> loader, boolean fingerprint) {
+      this.documentID = documentID;
+      this.loader = loader;
+      this.fingerprint = fingerprint;
+    }
+
+    public Document call() throws Exception {
+      Document doc = loader.call();
+      Long loadedFingerprint = fingerprint ? fingerprint(doc) : null;
+      synchronized(LazyDocumentMap.this) {
+        if(loading.containsKey(documentID)
+                && members.get(documentID) == loader) {
+          loading.remove(documentID);
+          loaded.put(documentID, doc);
+          if(loadedFingerprint != null) {
+            fingerprints.put(documentID, loadedFingerprint);
+          }
+          return doc;
+        }
+      }
+      Factory.deleteResource(doc);
+      return null;
+    }
+  }
+
+  /**
+   * Unloads the least recently used members that may be unloaded until
+   * no more than the capacity are loaded, or none is left that may be
+   * unloaded. Members unloaded here must not be used any more by those
+   * who hold them.
+   *
+   * @param keep - id of a member that must stay loaded, may be null
+   */
+  public void applyCapacity(String keep) {
+    List<Map.Entry<String, Document>> victims = new ArrayList<Map.Entry<String, Document>>();
+    synchronized(this) {
+      if(capacity <= 0) return;
+      int excess = loaded.size() - capacity;
+      // iterating does not change the access order
+      for(Iterator<Map.Entry<String, Document>> iter = loaded.entrySet()
+              .iterator(); excess > 0 && iter.hasNext();) {
+        Map.Entry<String, Document> entry = iter.next();
+        String documentID = entry.getKey();
+        Document doc = entry.getValue();
+        if(documentID.equals(keep)) continue;
+        if(owner != null && !owner.canUnloadMember(documentID, doc)) continue;
+        iter.remove();
+        Map.Entry<String, Document> victim = new AbstractMap.SimpleImmutableEntry<String, Document>(
+                documentID, doc);
+        unloading.put(documentID, victim);
+        victims.add(victim);
+        excess--;
+      }
+    }
+    for(Map.Entry<String, Document> victim : victims) {
+      unload(victim);
+    }
+  }
+
+  /**
+   * Writes the member to a spill file if it has changed or has aligned
+   * annotations, then, unless it has been asked for again in the
+   * meantime, tells the owner and deletes it.
+   */
+  private void unload(Map.Entry<String, Document> victim) {
+    String documentID = victim.getKey();
+    Document doc = victim.getValue();
+    long fingerprint = fingerprint(doc);
+    boolean aligned = owner != null && owner.isMemberAligned(documentID);
+    boolean spill;
+    synchronized(this) {
+      Long loadedFingerprint = fingerprints.get(documentID);
+      spill = members.get(documentID) == null || loadedFingerprint == null
+              || loadedFingerprint.longValue() != fingerprint
+              || (aligned && !spillFiles.containsKey(documentID));
+    }
+    File file = null;
+    if(spill) {
+      try {
+        file = spill(doc);
+      }
+      catch(IOException e) {
+        synchronized(this) {
+          if(unloading.get(documentID) == victim) {
+            unloading.remove(documentID);
+            loaded.put(documentID, doc);
+          }
+        }
+        throw new GateRuntimeException("Could not unload member " + documentID,
+                e);
+      }
+    }
+
+    boolean unloaded;
+    synchronized(this) {
+      if(file != null && members.containsKey(documentID)
+              && (unloading.get(documentID) == victim || loaded
+                      .get(documentID) == doc)) {
+        final File spillFile = file;
+        members.put(documentID, new Callable<Document>() {
+          public Document call() throws Exception {
+            return reload(spillFile);
+          }
+        });
+        fingerprints.put(documentID, fingerprint);
+        deleteSpillFile(documentID);
+        spillFiles.put(documentID, file);
+      }
+      else if(file != null) {
+        // removed or replaced in the meantime
+        file.delete();
+      }
+      unloaded = unloading.get(documentID) == victim;
+      if(unloaded) unloading.remove(documentID);
+    }
+    if(!unloaded) return;
+    // the owner's alignments take their own locks, so they are told
+    // outside ours
+    if(owner != null) owner.memberUnloaded(documentID, doc);
+    Factory.deleteResource(doc);
+  }
+
+  private static File spill(Document doc) throws IOException {
+    File file = File.createTempFile("gate-member-", ".ser");
+    file.deleteOnExit();
+    ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file)));
+    boolean written = false;
+    try {
+      out.writeObject(doc);
+      written = true;
+    }
+    finally {
+      out.close();
+      if(!written) file.delete();
+    }
+    return file;
+  }
+
+  /**
+   * Reads a member back and registers it with the creole register, as
+   * the Factory would have done.
+   */
+  private static Document reload(File file) throws IOException,
+          ClassNotFoundException {
+    ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(
+            new FileInputStream(file)));
+    Document doc;
+    try {
+      doc = (Document)in.readObject();
+    }
+    finally {
+      in.close();
+    }
+    Gate.getCreoleRegister().get(doc.getClass().getName())
+            .addInstantiation(doc);
+    Gate.getCreoleRegister().resourceLoaded(
+            new CreoleEvent(doc, CreoleEvent.RESOURCE_LOADED));
+    return doc;
+  }
+
+  /**
+   * A hash of the content, the annotations and the features of the
+   * document, which does not depend on the order annotations and
+   * features are iterated in.
+   */
+  static long fingerprint(Document doc) {
+    long hash = mix(doc.getContent().toString().hashCode());
+    hash += mix(31L * featuresHash(doc.getFeatures()) + 1);
+    hash += annotationsHash(doc.getAnnotations());
+    Map<String, AnnotationSet> namedSets = doc.getNamedAnnotationSets();
+    if(namedSets != null) {
+      for(Map.Entry<String, AnnotationSet> entry : namedSets.entrySet()) {
+        hash += mix(entry.getKey().hashCode()
+                + annotationsHash(entry.getValue()));
+      }
+    }
+    return hash;
+  }
+
+  private static long annotationsHash(AnnotationSet set) {
+    long hash = mix(set.size());
+    for(Annotation annotation : set) {
+      long h = annotation.getId();
+      h = h * 31 + annotation.getStartNode().getOffset().longValue();
+      h = h * 31 + annotation.getEndNode().getOffset().longValue();
+      h = h * 31 + annotation.getType().hashCode();
+      h = h * 31 + featuresHash(annotation.getFeatures());
+      hash += mix(h);
+    }
+    return hash;
+  }
+
+  private static long featuresHash(FeatureMap features) {
+    if(features == null) return 0;
+    long hash = 0;
+    for(Object key : features.keySet()) {
+      hash += mix(((long)Objects.hashCode(key) << 32)
+              ^ Objects.hashCode(features.get(key)));
+    }
+    return hash;
+  }
+
+  /** the finalizer of SplitMix64 */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  private void deleteSpillFile(Object documentID) {
+    File file = spillFiles.remove(documentID);
+    if(file != null) file.delete();
+  }
+
+  /**
+   * Tells whether the member with the given id is in memory.
+   */
+  public synchronized boolean isLoaded(String documentID) {
+    return loaded.containsKey(documentID) || unloading.containsKey(documentID);
+  }
+
+  /**
+   * Returns the members that are in memory, including those that are
+   * being unloaded.
+   */
+  public synchronized Collection<Document> loadedValues() {
+    List<Document> values = new ArrayList<Document>(loaded.values());
+    for(Map.Entry<String, Document> entry : unloading.values()) {
+      values.add(entry.getValue());
+    }
+    return values;
+  }
+
+  @Override
+  public synchronized boolean containsKey(Object documentID) {
+    return members.containsKey(documentID);
+  }
+
+  @Override
+  public Document put(String documentID, Document document) {
+    Document previous;
+    synchronized(this) {
+      previous = loaded.get(documentID);
+      Map.Entry<String, Document> unloadingEntry = unloading
+              .remove(documentID);
+      if(previous == null && unloadingEntry != null) {
+        previous = unloadingEntry.getValue();
+      }
+      members.put(documentID, null);
+      loading.remove(documentID);
+      fingerprints.remove(documentID);
+      deleteSpillFile(documentID);
+      loaded.put(documentID, document);
+    }
+    return previous;
+  }
+
+  /**
+   * Removes the member without loading it.
+   *
+   * @return the member if it is in memory, null otherwise
+   */
+  @Override
+  public synchronized Document remove(Object documentID) {
+    Document doc = loaded.remove(documentID);
+    Map.Entry<String, Document> unloadingEntry = unloading.remove(documentID);
+    if(doc == null && unloadingEntry != null) doc = unloadingEntry.getValue();
+    members.remove(documentID);
+    loading.remove(documentID);
+    fingerprints.remove(documentID);
+    deleteSpillFile(documentID);
+    return doc;
+  }
+
+  @Override
+  public synchronized int size() {
+    return members.size();
+  }
+
+  @Override
+  public synchronized void clear() {
+    members.clear();
+    loaded.clear();
+    loading.clear();
+    unloading.clear();
+    fingerprints.clear();
+    for(File file : spillFiles.values()) {
+      file.delete();
+    }
+    spillFiles.clear();
+  }
+
+  /**
+   * The entries load their member when their value is asked for.
+   */
+  @Override
+  public Set<Map.Entry<String, Document>> entrySet() {
+    return new AbstractSet<Map.Entry<String, Document>>() {
+      public Iterator<Map.Entry<String, Document>> iterator() {
+        final Iterator<String> ids;
+        synchronized(LazyDocumentMap.this) {
+          List<String> snapshot = new ArrayList<String>(members.keySet());
+          ids = snapshot.iterator();
+        }
+        return new Iterator<Map.Entry<String, Document>>() {
+          String current;
+
+          public boolean hasNext() {
+            return ids.hasNext();
+          }
+
+          public Map.Entry<String, Document> next() {
+            current = ids.next();
+            final String documentID = current;
+            return new AbstractMap.SimpleEntry<String, Document>(documentID,
+                    null) {
+              private static final long serialVersionUID = 1L;
+
+              @Override
+              public Document getValue() {
+                return get(documentID);
+              }
+
+              @Override
+              public Document setValue(Document document) {
+                return put(documentID, document);
+              }
+            };
+          }
+
+          public void remove() {
+            if(current == null) throw new IllegalStateException();
+            LazyDocumentMap.this.remove(current);
+            current = null;
+          }
+        };
+      }
+
+      public int size() {
+        return LazyDocumentMap.this.size();
+      }
+    };
+  }
+
+  /**
+   * All members are written as a plain map. Those that are not in
+   * memory are loaded for it; the bound is applied again when the
+   * compound document next switches members.
+   */
+  private Object writeReplace() throws ObjectStreamException {
+    List<String> documentIDs;
+    synchronized(this) {
+      documentIDs = new ArrayList<String>(members.keySet());
+    }
+    Map<String, Document> snapshot = new HashMap<String, Document>();
+    for(String documentID : documentIDs) {
+      Document doc = get(documentID);
+      if(doc != null) snapshot.put(documentID, doc);
+    }
+    return snapshot;
+  }
+}
@@ -0,0 +1,186 @@
+package gate.alignment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.Gate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the binary form of a CompactAlignment reads back to the
+ * same links, and that the form without weights written by older
+ * versions can still be read.
+ */
+public class CompactAlignmentExternalizableTest {
+
+  private static Document en;
+
+  private static Document fr;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    if(!Gate.isInitialised()) {
+      Gate.runInSandbox(true);
+      Gate.init();
+    }
+    en = Factory.newDocument("the small house");
+    en.setName("en");
+    fr = Factory.newDocument("la petite maison");
+    fr.setName("fr");
+    // annotation ids are per document; without a compound document the
+    // alignment cannot tell the members apart by id, so they differ
+    for(int i = 0; i < 10; i++) {
+      fr.getAnnotations("padding").add(0L, 1L, "Padding",
+              Factory.newFeatureMap());
+    }
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    if(en != null) Factory.deleteResource(en);
+    if(fr != null) Factory.deleteResource(fr);
+  }
+
+  private static Annotation add(AnnotationSet set, long start, long end,
+          String type) throws Exception {
+    return set.get(set.add(start, end, type, Factory.newFeatureMap()));
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    AnnotationSet enTokens = en.getAnnotations();
+    AnnotationSet enChunks = en.getAnnotations("chunks");
+    AnnotationSet frTokens = fr.getAnnotations();
+    Annotation the = add(enTokens, 0, 3, "Token");
+    Annotation small = add(enTokens, 4, 9, "Token");
+    Annotation house = add(enTokens, 10, 15, "Token");
+    Annotation smallHouse = add(enChunks, 4, 15, "Chunk");
+    Annotation la = add(frTokens, 0, 2, "Token");
+    Annotation petite = add(frTokens, 3, 9, "Token");
+    Annotation maison = add(frTokens, 10, 16, "Token");
+
+    CompactAlignment alignment = new CompactAlignment(null);
+    alignment.align(the, null, en, la, null, fr);
+    alignment.align(small, null, en, petite, null, fr, 0.75f);
+    alignment.align(house, null, en, maison, null, fr, 0.5f);
+    alignment.align(smallHouse, "chunks", en, petite, null, fr);
+    alignment.align(smallHouse, "chunks", en, maison, null, fr, 0.25f);
+    // a self-link and a link within one document
+    alignment.align(house, null, en, house, null, en, 0.125f);
+    alignment.align(house, null, en, smallHouse, "chunks", en);
+
+    CompactAlignment copy = readBack(write(alignment));
+    assertEquals(links(alignment), links(copy));
+    assertEquals(7, links(copy).size());
+    assertTrue(links(copy).contains(link("en", null, small.getId(), "fr",
+            null, petite.getId(), 0.75f)));
+    assertTrue(links(copy).contains(link("en", null, house.getId(), "en",
+            null, house.getId(), 0.125f)));
+    assertTrue(copy.isAnnotationAligned("en", "chunks", smallHouse.getId()));
+    assertTrue(copy.areTheyAligned("en", null, house.getId(), "en", null,
+            house.getId()));
+    assertFalse(copy.areTheyAligned("en", null, the.getId(), "fr", null,
+            petite.getId()));
+  }
+
+  @Test
+  public void testReadVersion1() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream data = new DataOutputStream(bytes);
+    // two slots
+    data.writeByte(2);
+    data.writeUTF("en");
+    data.writeBoolean(false);
+    data.writeUTF("fr");
+    data.writeBoolean(true);
+    data.writeUTF("words");
+    // one group of links from slot 0 to slot 1, no weights in version 1
+    data.writeByte(1);
+    data.writeByte(0);
+    data.writeByte(1);
+    data.writeByte(3);
+    // (2, 5), (4, 3) and (4, 7) as deltas, target ones zigzag encoded
+    data.writeByte(2);
+    data.writeByte(10);
+    data.writeByte(2);
+    data.writeByte(3);
+    data.writeByte(0);
+    data.writeByte(8);
+    data.flush();
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(stream);
+    out.writeInt(1);
+    out.writeObject(bytes.toByteArray());
+    out.close();
+
+    CompactAlignment alignment = readBack(stream.toByteArray());
+    Set<String> expected = new TreeSet<String>();
+    expected.add(link("en", null, 2, "fr", "words", 5, Alignment.DEFAULT_WEIGHT));
+    expected.add(link("en", null, 4, "fr", "words", 3, Alignment.DEFAULT_WEIGHT));
+    expected.add(link("en", null, 4, "fr", "words", 7, Alignment.DEFAULT_WEIGHT));
+    assertEquals(expected, links(alignment));
+
+    // and it is written in the current version
+    CompactAlignment copy = readBack(write(alignment));
+    assertEquals(expected, links(copy));
+  }
+
+  private static byte[] write(CompactAlignment alignment) throws IOException {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(stream);
+    alignment.writeExternal(out);
+    out.close();
+    return stream.toByteArray();
+  }
+
+  private static CompactAlignment readBack(byte[] bytes) throws Exception {
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+            bytes));
+    CompactAlignment alignment = new CompactAlignment();
+    alignment.readExternal(in);
+    in.close();
+    return alignment;
+  }
+
+  /**
+   * The links of the alignment as strings that do not depend on which
+   * end of a link is visited first.
+   */
+  private static Set<String> links(Alignment alignment) {
+    final Set<String> links = new TreeSet<String>();
+    alignment.visitLinkIds(new LinkIdVisitor() {
+      public void link(String srcDocumentID, String srcAS, int srcId,
+              String tgtDocumentID, String tgtAS, int tgtId, float weight) {
+        links.add(CompactAlignmentExternalizableTest.link(srcDocumentID,
+                srcAS, srcId, tgtDocumentID, tgtAS, tgtId, weight));
+      }
+    });
+    return links;
+  }
+
+  private static String link(String srcDocumentID, String srcAS, int srcId,
+          String tgtDocumentID, String tgtAS, int tgtId, float weight) {
+    String src = srcDocumentID + "/" + srcAS + "/" + srcId;
+    String tgt = tgtDocumentID + "/" + tgtAS + "/" + tgtId;
+    return (src.compareTo(tgt) <= 0 ? src + " " + tgt : tgt + " " + src)
+            + " " + weight;
+  }
+}
@@ -0,0 +1,148 @@
+package gate.alignment;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.Gate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.xml.StaxDriver;
+
+/**
+ * Compares the size and the write and read times of the binary format of
+ * a CompactAlignment with those of the map based Alignment it replaces,
+ * with Java serialization, and their sizes with XStream, which
+ * toXmlAsASingleDocument uses. Two members are aligned with one link per
+ * token plus about a quarter more links. Not a unit test, run it with
+ *
+ * <pre>
+ * java -cp ... gate.alignment.CompactAlignmentFormatBenchmark [tokens...]
+ * </pre>
+ */
+public class CompactAlignmentFormatBenchmark {
+
+  private static final int WARM_UP_RUNS = 5;
+
+  private static final int TIMED_RUNS = 10;
+
+  public static void main(String[] args) throws Exception {
+    Gate.runInSandbox(true);
+    Gate.init();
+    int[] sizes = args.length == 0 ? new int[] {2000, 50000}
+            : new int[args.length];
+    for(int i = 0; i < args.length; i++) {
+      sizes[i] = Integer.parseInt(args[i]);
+    }
+    for(int tokens : sizes) {
+      run(tokens);
+    }
+  }
+
+  private static void run(int tokens) throws Exception {
+    Document en = newMember("en", tokens);
+    Document fr = newMember("fr", tokens);
+    try {
+      Alignment legacy = new Alignment(null);
+      CompactAlignment compact = new CompactAlignment(null);
+      align(legacy, en, fr);
+      align(compact, en, fr);
+
+      System.out.println(tokens + " tokens, "
+              + compact.getStatistics().getLinkCount() + " links");
+      measure("legacy", legacy);
+      measure("compact", compact);
+      System.out.println("  XStream: legacy " + toXml(legacy).length()
+              + " chars, compact " + toXml(compact).length() + " chars");
+    }
+    finally {
+      Factory.deleteResource(en);
+      Factory.deleteResource(fr);
+    }
+  }
+
+  private static Document newMember(String name, int tokens) throws Exception {
+    StringBuilder content = new StringBuilder();
+    for(int i = 0; i < tokens; i++) {
+      content.append("word ");
+    }
+    Document doc = Factory.newDocument(content.toString());
+    doc.setName(name);
+    AnnotationSet set = doc.getAnnotations();
+    for(int i = 0; i < tokens; i++) {
+      set.add(i * 5L, i * 5L + 4, "Token", Factory.newFeatureMap());
+    }
+    return doc;
+  }
+
+  private static void align(Alignment alignment, Document en, Document fr) {
+    List<Annotation> enTokens = new ArrayList<Annotation>(en.getAnnotations()
+            .get("Token"));
+    List<Annotation> frTokens = new ArrayList<Annotation>(fr.getAnnotations()
+            .get("Token"));
+    // the same links for both alignments
+    Random random = new Random(42);
+    for(int i = 0; i < enTokens.size(); i++) {
+      alignment.align(enTokens.get(i), null, en, frTokens.get(i), null, fr);
+      if(random.nextInt(4) == 0) {
+        int j = Math.min(frTokens.size() - 1, Math.max(0, i
+                + random.nextInt(5) - 2));
+        alignment.align(enTokens.get(i), null, en, frTokens.get(j), null, fr);
+      }
+    }
+  }
+
+  private static void measure(String name, Alignment alignment)
+          throws Exception {
+    byte[] bytes = null;
+    for(int i = 0; i < WARM_UP_RUNS; i++) {
+      bytes = write(alignment);
+      read(bytes);
+    }
+    long writeNanos = 0;
+    long readNanos = 0;
+    for(int i = 0; i < TIMED_RUNS; i++) {
+      long start = System.nanoTime();
+      bytes = write(alignment);
+      writeNanos += System.nanoTime() - start;
+      start = System.nanoTime();
+      read(bytes);
+      readNanos += System.nanoTime() - start;
+    }
+    System.out.println("  " + name + ": " + bytes.length + " bytes, write "
+            + writeNanos / TIMED_RUNS / 1000000 + "ms, read " + readNanos
+            / TIMED_RUNS / 1000000 + "ms");
+  }
+
+  private static byte[] write(Alignment alignment) throws IOException {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(stream);
+    out.writeObject(alignment);
+    out.close();
+    return stream.toByteArray();
+  }
+
+  private static Object read(byte[] bytes) throws Exception {
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+            bytes));
+    try {
+      return in.readObject();
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private static String toXml(Alignment alignment) {
+    return new XStream(new StaxDriver()).toXML(alignment);
+  }
+}